@@ -0,0 +1,643 @@
+import java.io.File;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+
+// Benchmarks of the hot paths of the engine, against a JE environment in a temporary directory:
+//   - MyInterpreter.toBytes() / fromBytes() (schema entries) on typical rows,
+//   - KeyCodec and RowCodec, which replaced recordToBDBString() / recordFromBDBString() for keys and records,
+//   - BoolTree.evaluate() on deep AND/OR trees, and DBValue.Compare() per type,
+//   - a JoinRecordIterator over N x M tables,
+//   - single-row insertInto() into tables with 0, 1 or 3 FKs,
+//   - delete() of referenced rows, whose referencing FKs RefIntegrityManager sets to null.
+//
+// Each benchmark is run in iterations of about ITERATION_MILLIS: the number of operations of an iteration is calibrated first,
+// then WARMUP_ITERATIONS are run and MEASURED_ITERATIONS are timed. Progress is printed to stderr,
+// and the results to stdout as JSON (ns per operation per iteration, mean, min and standard deviation), to be kept per version.
+//
+// Usage: java EngineBenchmark [benchmark name filter] > results.json
+public class EngineBenchmark {
+	private static final int WARMUP_ITERATIONS = 3;
+	private static final int MEASURED_ITERATIONS = 5;
+	private static final long ITERATION_MILLIS = 500;
+	private static final int SAMPLE_COUNT = 1024; // rows and values cycled through by the in-memory benchmarks
+
+	private static volatile long _sink; // checksums of the operations, so that they are not optimized away
+
+	public static void main(String[] args) throws Exception {
+		String filter = (args.length > 0) ? args[0] : "";
+
+		File dbDir = Files.createTempDirectory("simpledbms-bench").toFile();
+		System.setProperty(MyInterpreter.DB_DIR_PROPERTY, dbDir.getPath());
+		MyInterpreter interpreter = MyInterpreter.getInstance();
+		Session.bind(new Session(new PrintStream(new OutputStream() { // statement messages are not part of the results
+			@Override
+			public void write(int b) {}
+			@Override
+			public void write(byte[] b, int off, int len) {}
+		})));
+
+		ArrayList<Result> resultList = new ArrayList<Result>();
+		try {
+			for(Case benchCase : _cases()) {
+				if(!benchCase.getLabel().contains(filter)) continue;
+				System.err.printf("%-50s", benchCase.getLabel());
+				benchCase.setUp();
+				Result result = _measure(benchCase);
+				resultList.add(result);
+				System.err.printf("%15.1f ns/op (+- %.1f)\n", result.getMean(), result.getStdev());
+			}
+		}
+		finally {
+			Session.unbind();
+			interpreter.terminate();
+			_deleteRecursively(dbDir);
+		}
+
+		_printJSON(resultList, System.out);
+	}
+
+	private static List<Case> _cases() {
+		ArrayList<Case> caseList = new ArrayList<Case>();
+		caseList.add(new SerializeCase(true));
+		caseList.add(new SerializeCase(false));
+		caseList.add(new KeyCodecCase(true));
+		caseList.add(new KeyCodecCase(false));
+		caseList.add(new RowCodecCase(true));
+		caseList.add(new RowCodecCase(false));
+		for(int depth : new int[] { 2, 4, 8 })
+			caseList.add(new EvaluateCase(depth));
+		for(DBType.DBTypeSpecifier type : new DBType.DBTypeSpecifier[] { DBType.DBTypeSpecifier.DB_INT, DBType.DBTypeSpecifier.DB_CHAR,
+				DBType.DBTypeSpecifier.DB_DATE, DBType.DBTypeSpecifier.DB_NULL })
+			caseList.add(new CompareCase(type));
+		caseList.add(new JoinCase(1000, 1000, true));
+		caseList.add(new JoinCase(10000, 1000, true));
+		caseList.add(new JoinCase(100, 100, false));
+		for(int fkCount : new int[] { 0, 1, 3 })
+			caseList.add(new InsertCase(fkCount));
+		for(int fanout : new int[] { 0, 10 })
+			caseList.add(new DeleteCase(fanout));
+		return caseList;
+	}
+
+	private static Result _measure(Case benchCase) throws Exception {
+		// Calibration: doubles the operations until an iteration is long enough to be timed, then scales it to ITERATION_MILLIS
+		int opCount = 1;
+		long elapsed;
+		while(true) {
+			benchCase.beforeIteration(opCount);
+			elapsed = _timeIteration(benchCase, opCount);
+			if(elapsed >= ITERATION_MILLIS * 1000000 / 10 || opCount >= Integer.MAX_VALUE / 2) break;
+			opCount *= 2;
+		}
+		opCount = (int)Math.max(1, Math.min(Integer.MAX_VALUE, opCount * (ITERATION_MILLIS * 1e6 / elapsed)));
+
+		for(int i = 0; i < WARMUP_ITERATIONS; i++) {
+			benchCase.beforeIteration(opCount);
+			_timeIteration(benchCase, opCount);
+		}
+
+		double[] nanosPerOp = new double[MEASURED_ITERATIONS];
+		for(int i = 0; i < MEASURED_ITERATIONS; i++) {
+			benchCase.beforeIteration(opCount);
+			nanosPerOp[i] = (double)_timeIteration(benchCase, opCount) / opCount;
+		}
+		return new Result(benchCase, opCount, nanosPerOp);
+	}
+
+	private static long _timeIteration(Case benchCase, int opCount) throws Exception {
+		long start = System.nanoTime();
+		_sink += benchCase.run(opCount);
+		return Math.max(1, System.nanoTime() - start);
+	}
+
+	// { "jvm": ..., "results": [ { "benchmark": ..., "params": { ... }, "unit": "ns/op", "mean": ..., "iterations": [ ... ] }, ... ] }
+	private static void _printJSON(List<Result> resultList, PrintStream out) {
+		SimpleDateFormat timestampFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'");
+		timestampFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+
+		out.println("{");
+		out.println("  \"timestamp\": " + _quote(timestampFormat.format(new Date())) + ",");
+		out.println("  \"jvm\": " + _quote(System.getProperty("java.vm.name") + " " + System.getProperty("java.version")) + ",");
+		out.println("  \"os\": " + _quote(System.getProperty("os.name") + " " + System.getProperty("os.arch")) + ",");
+		out.println("  \"warmupIterations\": " + WARMUP_ITERATIONS + ",");
+		out.println("  \"measuredIterations\": " + MEASURED_ITERATIONS + ",");
+		out.println("  \"iterationMillis\": " + ITERATION_MILLIS + ",");
+		out.println("  \"results\": [");
+		for(int i = 0; i < resultList.size(); i++) {
+			Result result = resultList.get(i);
+			StringBuilder line = new StringBuilder("    { ");
+			line.append("\"benchmark\": ").append(_quote(result.benchCase.name)).append(", \"params\": { ");
+			String[] paramList = result.benchCase.paramList;
+			for(int j = 0; j < paramList.length; j += 2) {
+				if(j > 0) line.append(", ");
+				line.append(_quote(paramList[j])).append(": ").append(_quote(paramList[j+1]));
+			}
+			line.append(" }, \"unit\": \"ns/op\"");
+			line.append(String.format(Locale.ROOT, ", \"mean\": %.3f, \"min\": %.3f, \"stdev\": %.3f", result.getMean(), result.getMin(), result.getStdev()));
+			line.append(", \"opsPerIteration\": ").append(result.opCount).append(", \"iterations\": [");
+			for(int j = 0; j < result.nanosPerOp.length; j++)
+				line.append((j > 0) ? ", " : " ").append(String.format(Locale.ROOT, "%.3f", result.nanosPerOp[j]));
+			line.append(" ] }");
+			if(i < resultList.size() - 1) line.append(",");
+			out.println(line);
+		}
+		out.println("  ]");
+		out.println("}");
+	}
+
+	private static String _quote(String text) {
+		StringBuilder quoted = new StringBuilder("\"");
+		for(char c : text.toCharArray()) {
+			if(c == '"' || c == '\\') quoted.append('\\').append(c);
+			else if(c < 0x20) quoted.append(String.format("\\u%04x", (int)c));
+			else quoted.append(c);
+		}
+		return quoted.append('"').toString();
+	}
+
+	private static void _deleteRecursively(File file) {
+		File[] children = file.listFiles();
+		if(children != null) {
+			for(File child : children)
+				_deleteRecursively(child);
+		}
+		file.delete();
+	}
+
+	// Typical rows of (id int, name char(20), birth date, dept_id int), dept_id being null in a quarter of them
+	private static ArrayList<ArrayList<DBValue>> _sampleRows() {
+		ArrayList<ArrayList<DBValue>> rows = new ArrayList<ArrayList<DBValue>>();
+		for(int i = 0; i < SAMPLE_COUNT; i++) {
+			ArrayList<DBValue> row = new ArrayList<DBValue>();
+			row.add(new DBValue(i));
+			row.add(new DBValue("name_" + i));
+			row.add(new DBValue(1970 + i % 50, 1 + i % 12, 1 + i % 28));
+			row.add((i % 4 == 0) ? new DBValue() : new DBValue(i % 100));
+			rows.add(row);
+		}
+		return rows;
+	}
+
+	private static ArrayList<ColumnListDBEntry> _sampleSchema() {
+		ArrayList<ColumnListDBEntry> schema = new ArrayList<ColumnListDBEntry>();
+		schema.add(new ColumnListDBEntry("id", new DBType("int"), 0, false, true, false));
+		schema.add(new ColumnListDBEntry("name", new DBType("char", 20), 1, false, false, false));
+		schema.add(new ColumnListDBEntry("birth", new DBType("date"), 2, true, false, false));
+		schema.add(new ColumnListDBEntry("dept_id", new DBType("int"), 3, true, false, true));
+		return schema;
+	}
+
+	// CREATE TABLE through the same calls as the parser. colList is { name, type, length } per column, all nullable but the PK.
+	private static void _createTable(String tableName, String[][] colList, String pkCol, String[][] fkList) throws DBError {
+		MyInterpreter interpreter = MyInterpreter.getInstance();
+		interpreter.createTable_Initialize();
+		for(String[] col : colList)
+			interpreter.createTable_EnqueueColumn(col[0], col[1], Integer.parseInt(col[2]), col[0].equals(pkCol));
+		interpreter.createTable_EnqueuePK(_list(pkCol));
+		for(String[] fk : fkList) // { referencing column, referenced table, referenced column }
+			interpreter.createTable_EnqueueFK(_list(fk[0]), fk[1], _list(fk[2]));
+		_runStatement(new Statement() {
+			public void run(MyInterpreter interpreter, String tableName) throws DBError { interpreter.createTable(tableName); }
+		}, tableName);
+	}
+
+	private static ArrayList<String> _list(String... items) {
+		ArrayList<String> list = new ArrayList<String>();
+		for(String item : items)
+			list.add(item);
+		return list;
+	}
+
+	private static ArrayList<DBValue> _intRow(int... values) {
+		ArrayList<DBValue> row = new ArrayList<DBValue>();
+		for(int value : values)
+			row.add(new DBValue(value));
+		return row;
+	}
+
+	private static BoolTree _comp(int colIdx, CompOperator op, DBValue constant) {
+		return new CompPredicate(colIdx, op, -1).setRightConstOperand(constant);
+	}
+
+	// Runs a statement in its own statement transaction, as SimpleDBMSParser does
+	interface Statement {
+		void run(MyInterpreter interpreter, String tableName) throws DBError;
+	}
+
+	private static void _runStatement(Statement statement, String tableName) throws DBError {
+		MyInterpreter interpreter = MyInterpreter.getInstance();
+		interpreter.beginStatement();
+		try {
+			statement.run(interpreter, tableName);
+		}
+		finally {
+			interpreter.endStatement();
+		}
+	}
+
+	private static void _insertRows(String tableName, final ArrayList<ArrayList<DBValue>> rowList) throws DBError {
+		_runStatement(new Statement() {
+			public void run(MyInterpreter interpreter, String tableName) throws DBError { interpreter.insertRows(tableName, new ArrayList<String>(), rowList); }
+		}, tableName);
+	}
+
+	// One benchmark: name and parameters ("key", "value", ...) as reported
+	static abstract class Case {
+		public final String name;
+		public final String[] paramList;
+
+		public Case(String name, String... paramList) {
+			this.name = name;
+			this.paramList = paramList;
+		}
+
+		public String getLabel() {
+			StringBuilder label = new StringBuilder(name);
+			for(int i = 0; i < paramList.length; i += 2)
+				label.append((i == 0) ? " " : ",").append(paramList[i]).append("=").append(paramList[i+1]);
+			return label.toString();
+		}
+
+		public void setUp() throws Exception {}
+		public void beforeIteration(int opCount) throws Exception {} // not timed
+		public abstract long run(int opCount) throws Exception; // returns a checksum
+	}
+
+	static class Result {
+		public final Case benchCase;
+		public final int opCount;
+		public final double[] nanosPerOp; // per measured iteration
+
+		public Result(Case benchCase, int opCount, double[] nanosPerOp) {
+			this.benchCase = benchCase;
+			this.opCount = opCount;
+			this.nanosPerOp = nanosPerOp;
+		}
+
+		public double getMean() {
+			double sum = 0;
+			for(double value : nanosPerOp)
+				sum += value;
+			return sum / nanosPerOp.length;
+		}
+
+		public double getMin() {
+			double min = Double.MAX_VALUE;
+			for(double value : nanosPerOp)
+				min = Math.min(min, value);
+			return min;
+		}
+
+		public double getStdev() {
+			if(nanosPerOp.length < 2) return 0;
+			double mean = getMean(), sum = 0;
+			for(double value : nanosPerOp)
+				sum += (value - mean) * (value - mean);
+			return Math.sqrt(sum / (nanosPerOp.length - 1));
+		}
+	}
+
+	// MyInterpreter.toBytes() / fromBytes() (Java serialization)
+	static class SerializeCase extends Case {
+		private final boolean _isEncode;
+		private ArrayList<ArrayList<DBValue>> _rows;
+		private byte[][] _bytes;
+
+		public SerializeCase(boolean isEncode) {
+			super(isEncode ? "MyInterpreter.toBytes" : "MyInterpreter.fromBytes");
+			_isEncode = isEncode;
+		}
+
+		@Override
+		public void setUp() {
+			_rows = _sampleRows();
+			_bytes = new byte[SAMPLE_COUNT][];
+			for(int i = 0; i < SAMPLE_COUNT; i++)
+				_bytes[i] = MyInterpreter.toBytes(_rows.get(i));
+		}
+
+		@Override
+		public long run(int opCount) {
+			long checksum = 0;
+			for(int i = 0; i < opCount; i++) {
+				if(_isEncode)
+					checksum += MyInterpreter.toBytes(_rows.get(i % SAMPLE_COUNT)).length;
+				else
+					checksum += ((ArrayList<?>)MyInterpreter.fromBytes(_bytes[i % SAMPLE_COUNT])).size();
+			}
+			return checksum;
+		}
+	}
+
+	// KeyCodec.encode() of a (id, name) key, and KeyCodec.compare() of two keys as done by the B-tree
+	static class KeyCodecCase extends Case {
+		private final boolean _isEncode;
+		private ArrayList<ArrayList<DBValue>> _keys;
+		private byte[][] _bytes;
+
+		public KeyCodecCase(boolean isEncode) {
+			super(isEncode ? "KeyCodec.encode" : "KeyCodec.compare");
+			_isEncode = isEncode;
+		}
+
+		@Override
+		public void setUp() {
+			_keys = new ArrayList<ArrayList<DBValue>>();
+			_bytes = new byte[SAMPLE_COUNT][];
+			for(ArrayList<DBValue> row : _sampleRows()) {
+				ArrayList<DBValue> key = new ArrayList<DBValue>(row.subList(0, 2));
+				_bytes[_keys.size()] = KeyCodec.encode(key);
+				_keys.add(key);
+			}
+		}
+
+		@Override
+		public long run(int opCount) {
+			long checksum = 0;
+			for(int i = 0; i < opCount; i++) {
+				if(_isEncode)
+					checksum += KeyCodec.encode(_keys.get(i % SAMPLE_COUNT)).length;
+				else
+					checksum += KeyCodec.compare(_bytes[i % SAMPLE_COUNT], _bytes[(i * 7 + 1) % SAMPLE_COUNT]);
+			}
+			return checksum;
+		}
+	}
+
+	// RowCodec.encode() / decode() of the stored records
+	static class RowCodecCase extends Case {
+		private final boolean _isEncode;
+		private ArrayList<ColumnListDBEntry> _schema;
+		private ArrayList<ArrayList<DBValue>> _rows;
+		private byte[][] _bytes;
+
+		public RowCodecCase(boolean isEncode) {
+			super(isEncode ? "RowCodec.encode" : "RowCodec.decode");
+			_isEncode = isEncode;
+		}
+
+		@Override
+		public void setUp() {
+			_schema = _sampleSchema();
+			_rows = _sampleRows();
+			_bytes = new byte[SAMPLE_COUNT][];
+			for(int i = 0; i < SAMPLE_COUNT; i++)
+				_bytes[i] = RowCodec.encode(_rows.get(i), _schema);
+		}
+
+		@Override
+		public long run(int opCount) {
+			long checksum = 0;
+			for(int i = 0; i < opCount; i++) {
+				if(_isEncode)
+					checksum += RowCodec.encode(_rows.get(i % SAMPLE_COUNT), _schema).length;
+				else
+					checksum += RowCodec.decode(_bytes[i % SAMPLE_COUNT], _schema).size();
+			}
+			return checksum;
+		}
+	}
+
+	// BoolTree.evaluate() of a complete tree of the given depth, with AND and OR on alternate levels
+	static class EvaluateCase extends Case {
+		private final int _depth;
+		private ArrayList<ArrayList<DBValue>> _rows;
+		private BoolTree _tree;
+
+		public EvaluateCase(int depth) {
+			super("BoolTree.evaluate", "depth", Integer.toString(depth));
+			_depth = depth;
+		}
+
+		@Override
+		public void setUp() {
+			_rows = _sampleRows();
+			_tree = _build(_depth, new int[1]);
+		}
+
+		private BoolTree _build(int depth, int[] leafCount) {
+			if(depth == 0) {
+				switch(leafCount[0]++ % 4) {
+				case 0: return _comp(0, CompOperator.OP_LT, new DBValue(SAMPLE_COUNT / 2));
+				case 1: return _comp(3, CompOperator.OP_EQ, new DBValue(7));
+				case 2: return _comp(2, CompOperator.OP_GE, new DBValue(2000, 1, 1));
+				default: return _comp(1, CompOperator.OP_NEQ, new DBValue("name_7"));
+				}
+			}
+			BoolTreeOperator op = (depth % 2 == 0) ? BoolTreeOperator.BT_AND : BoolTreeOperator.BT_OR;
+			return new BoolTree(op).setLeftChild(_build(depth - 1, leafCount)).setRightChild(_build(depth - 1, leafCount));
+		}
+
+		@Override
+		public long run(int opCount) throws DBError {
+			long checksum = 0;
+			for(int i = 0; i < opCount; i++) {
+				if(_tree.evaluate(_rows.get(i % SAMPLE_COUNT)) == ThreeValuedLogic.TVL_TRUE)
+					checksum++;
+			}
+			return checksum;
+		}
+	}
+
+	// DBValue.Compare() of two values of the type (null: a null value against an int)
+	static class CompareCase extends Case {
+		private static final CompOperator[] OP_LIST = { CompOperator.OP_LT, CompOperator.OP_EQ, CompOperator.OP_GE, CompOperator.OP_NEQ };
+
+		private final DBType.DBTypeSpecifier _type;
+		private DBValue[] _left, _right;
+
+		public CompareCase(DBType.DBTypeSpecifier type) {
+			super("DBValue.Compare", "type", type.name().substring(3).toLowerCase());
+			_type = type;
+		}
+
+		@Override
+		public void setUp() {
+			_left = new DBValue[SAMPLE_COUNT];
+			_right = new DBValue[SAMPLE_COUNT];
+			for(int i = 0; i < SAMPLE_COUNT; i++) {
+				int j = (i * 31) % SAMPLE_COUNT;
+				switch(_type) {
+				case DB_INT:
+					_left[i] = new DBValue(i);
+					_right[i] = new DBValue(j);
+					break;
+				case DB_CHAR:
+					_left[i] = new DBValue("name_" + i);
+					_right[i] = new DBValue("name_" + j);
+					break;
+				case DB_DATE:
+					_left[i] = new DBValue(1970 + i % 50, 1 + i % 12, 1 + i % 28);
+					_right[i] = new DBValue(1970 + j % 50, 1 + j % 12, 1 + j % 28);
+					break;
+				default:
+					_left[i] = new DBValue();
+					_right[i] = new DBValue(j);
+				}
+			}
+		}
+
+		@Override
+		public long run(int opCount) throws DBError {
+			long checksum = 0;
+			for(int i = 0; i < opCount; i++) {
+				if(DBValue.Compare(_left[i % SAMPLE_COUNT], OP_LIST[i & 3], _right[i % SAMPLE_COUNT]) == ThreeValuedLogic.TVL_TRUE)
+					checksum++;
+			}
+			return checksum;
+		}
+	}
+
+	// A JoinRecordIterator (one operation is the whole join) over left (id, v) with N rows and right (id, lid) with M rows,
+	// on left.id = right.lid, or the cross product of the two
+	static class JoinCase extends Case {
+		private final int _leftCount, _rightCount;
+		private final boolean _isEquiJoin;
+		private ArrayList<String> _tableNameList;
+
+		public JoinCase(int leftCount, int rightCount, boolean isEquiJoin) {
+			super("JoinRecordIterator", "n", Integer.toString(leftCount), "m", Integer.toString(rightCount), "join", isEquiJoin ? "equi" : "cross");
+			_leftCount = leftCount;
+			_rightCount = rightCount;
+			_isEquiJoin = isEquiJoin;
+		}
+
+		@Override
+		public void setUp() throws DBError {
+			String leftName = "bench_jl_" + _leftCount, rightName = "bench_jr_" + _leftCount + "_" + _rightCount;
+			_tableNameList = _list(leftName, rightName);
+			if(MyInterpreter.getInstance().getTableMeta(leftName) == null) {
+				_createTable(leftName, new String[][] { { "id", "int", "0" }, { "v", "int", "0" } }, "id", new String[0][]);
+				ArrayList<ArrayList<DBValue>> rowList = new ArrayList<ArrayList<DBValue>>();
+				for(int i = 0; i < _leftCount; i++)
+					rowList.add(_intRow(i, i % 10));
+				_insertRows(leftName, rowList);
+			}
+			if(MyInterpreter.getInstance().getTableMeta(rightName) == null) {
+				_createTable(rightName, new String[][] { { "id", "int", "0" }, { "lid", "int", "0" } }, "id", new String[0][]);
+				ArrayList<ArrayList<DBValue>> rowList = new ArrayList<ArrayList<DBValue>>();
+				for(int i = 0; i < _rightCount; i++)
+					rowList.add(_intRow(i, (i * 7) % _leftCount));
+				_insertRows(rightName, rowList);
+			}
+		}
+
+		@Override
+		public long run(int opCount) throws DBError {
+			long checksum = 0;
+			for(int i = 0; i < opCount; i++) {
+				BoolTree where = _isEquiJoin ? new CompPredicate(0, CompOperator.OP_EQ, 3) : null;
+				JoinRecordIterator recordItr = new JoinRecordIterator(_tableNameList, where);
+				try {
+					while(recordItr.hasNext())
+						checksum += recordItr.getNextBatch().selCount;
+				}
+				finally {
+					recordItr.close();
+				}
+			}
+			return checksum;
+		}
+	}
+
+	// Single-row insertInto() (one statement transaction each) into (id, a, b, c) with FKs on the first fkCount of a, b, c
+	static class InsertCase extends Case {
+		private static final int PARENT_COUNT = 1000;
+
+		private final int _fkCount;
+		private String _tableName;
+		private int _nextId;
+
+		public InsertCase(int fkCount) {
+			super("insertInto", "fks", Integer.toString(fkCount));
+			_fkCount = fkCount;
+		}
+
+		@Override
+		public void setUp() throws DBError {
+			String[] colNameList = { "a", "b", "c" };
+			String[][] fkList = new String[_fkCount][];
+			for(int i = 0; i < _fkCount; i++) {
+				String parentName = "bench_ip_" + i;
+				fkList[i] = new String[] { colNameList[i], parentName, "id" };
+				if(MyInterpreter.getInstance().getTableMeta(parentName) != null) continue;
+
+				_createTable(parentName, new String[][] { { "id", "int", "0" } }, "id", new String[0][]);
+				ArrayList<ArrayList<DBValue>> rowList = new ArrayList<ArrayList<DBValue>>();
+				for(int j = 0; j < PARENT_COUNT; j++)
+					rowList.add(_intRow(j));
+				_insertRows(parentName, rowList);
+			}
+			_tableName = "bench_ic_" + _fkCount;
+			_createTable(_tableName, new String[][] { { "id", "int", "0" }, { "a", "int", "0" }, { "b", "int", "0" }, { "c", "int", "0" } }, "id", fkList);
+			_nextId = 0;
+		}
+
+		@Override
+		public long run(int opCount) throws DBError {
+			for(int i = 0; i < opCount; i++) {
+				final int id = _nextId++;
+				_runStatement(new Statement() {
+					public void run(MyInterpreter interpreter, String tableName) throws DBError {
+						interpreter.insertInto(tableName, new ArrayList<String>(), _intRow(id, id % PARENT_COUNT, (id * 7) % PARENT_COUNT, (id * 13) % PARENT_COUNT));
+					}
+				}, _tableName);
+			}
+			return _nextId;
+		}
+	}
+
+	// delete() of one parent row by its PK (one statement transaction each), whose fanout child rows have their FK set to null
+	static class DeleteCase extends Case {
+		private final int _fanout;
+		private String _parentName, _childName;
+		private int _nextParentId, _nextChildId, _nextDeletedId;
+
+		public DeleteCase(int fanout) {
+			super("delete", "fanout", Integer.toString(fanout));
+			_fanout = fanout;
+		}
+
+		@Override
+		public void setUp() throws DBError {
+			_parentName = "bench_dp_" + _fanout;
+			_childName = "bench_dc_" + _fanout;
+			_createTable(_parentName, new String[][] { { "id", "int", "0" } }, "id", new String[0][]);
+			_createTable(_childName, new String[][] { { "id", "int", "0" }, { "pid", "int", "0" } }, "id", new String[][] { { "pid", _parentName, "id" } });
+			_nextParentId = _nextChildId = _nextDeletedId = 0;
+		}
+
+		@Override
+		public void beforeIteration(int opCount) throws DBError {
+			ArrayList<ArrayList<DBValue>> parentList = new ArrayList<ArrayList<DBValue>>();
+			ArrayList<ArrayList<DBValue>> childList = new ArrayList<ArrayList<DBValue>>();
+			for(int i = 0; i < opCount; i++) {
+				int parentId = _nextParentId++;
+				parentList.add(_intRow(parentId));
+				for(int j = 0; j < _fanout; j++)
+					childList.add(_intRow(_nextChildId++, parentId));
+			}
+			_insertRows(_parentName, parentList);
+			if(childList.size() > 0)
+				_insertRows(_childName, childList);
+		}
+
+		@Override
+		public long run(int opCount) throws DBError {
+			for(int i = 0; i < opCount; i++) {
+				final BoolTree where = _comp(0, CompOperator.OP_EQ, new DBValue(_nextDeletedId++));
+				_runStatement(new Statement() {
+					public void run(MyInterpreter interpreter, String tableName) throws DBError { interpreter.delete(tableName, where); }
+				}, _parentName);
+			}
+			return _nextDeletedId;
+		}
+	}
+}
@@ -0,0 +1,67 @@
+import java.util.ArrayList;
+
+// Compares the legacy Java-serialized rows with RowCodec rows.
+// Prints bytes per row and decode ns per row for both formats.
+//
+// Usage: java RowCodecBenchmark [row count]
+public class RowCodecBenchmark {
+
+	public static void main(String[] args) {
+		int rowCount = (args.length > 0) ? Integer.parseInt(args[0]) : 100000;
+
+		ArrayList<ColumnListDBEntry> schema = new ArrayList<ColumnListDBEntry>();
+		schema.add(new ColumnListDBEntry("id", new DBType("int"), 0, false, true, false));
+		schema.add(new ColumnListDBEntry("name", new DBType("char", 20), 1, false, false, false));
+		schema.add(new ColumnListDBEntry("birth", new DBType("date"), 2, true, false, false));
+		schema.add(new ColumnListDBEntry("dept_id", new DBType("int"), 3, true, false, true));
+
+		byte[][] legacyRows = new byte[rowCount][];
+		byte[][] codecRows = new byte[rowCount][];
+		long legacyBytes = 0, codecBytes = 0;
+		for(int i = 0; i < rowCount; i++) {
+			ArrayList<DBValue> record = new ArrayList<DBValue>();
+			record.add(new DBValue(i));
+			record.add(new DBValue("name_" + i));
+			record.add(new DBValue(1970 + i % 50, 1 + i % 12, 1 + i % 28));
+			record.add((i % 4 == 0) ? new DBValue() : new DBValue(i % 100));
+
+			legacyRows[i] = MyInterpreter.toBytes(record);
+			codecRows[i] = RowCodec.encode(record, schema);
+			legacyBytes += legacyRows[i].length;
+			codecBytes += codecRows[i].length;
+		}
+
+		// Warm up both decoders before measuring
+		for(int round = 0; round < 3; round++) {
+			_decodeLegacy(legacyRows);
+			_decodeCodec(codecRows, schema);
+		}
+
+		long legacyNanos = _decodeLegacy(legacyRows);
+		long codecNanos = _decodeCodec(codecRows, schema);
+
+		System.out.printf("%-10s%15s%20s\n", "format", "bytes/row", "decode ns/row");
+		System.out.printf("%-10s%15.1f%20.1f\n", "legacy", (double)legacyBytes / rowCount, (double)legacyNanos / rowCount);
+		System.out.printf("%-10s%15.1f%20.1f\n", "rowcodec", (double)codecBytes / rowCount, (double)codecNanos / rowCount);
+	}
+
+	private static long _decodeLegacy(byte[][] rows) {
+		long start = System.nanoTime();
+		int checksum = 0;
+		for(byte[] row : rows)
+			checksum += ((ArrayList<DBValue>)MyInterpreter.fromBytes(row)).size();
+		long elapsed = System.nanoTime() - start;
+		if(checksum == 0) System.out.println("unexpected empty decode");
+		return elapsed;
+	}
+
+	private static long _decodeCodec(byte[][] rows, ArrayList<ColumnListDBEntry> schema) {
+		long start = System.nanoTime();
+		int checksum = 0;
+		for(byte[] row : rows)
+			checksum += RowCodec.decode(row, schema).size();
+		long elapsed = System.nanoTime() - start;
+		if(checksum == 0) System.out.println("unexpected empty decode");
+		return elapsed;
+	}
+}
@@ -0,0 +1,116 @@
+import java.util.ArrayList;
+
+// Compares WHERE evaluation by walking the BoolTree with CompiledPredicate, per record and on RowBatches.
+// Prints ns per row of each (best of 5 runs) for a few typical WHERE clauses.
+//
+// Usage: java WhereEvalBenchmark [row count]
+public class WhereEvalBenchmark {
+
+	public static void main(String[] args) throws DBError {
+		int rowCount = (args.length > 0) ? Integer.parseInt(args[0]) : 1000000;
+
+		// (id int, name char(20), birth date, dept_id int)
+		ArrayList<DBType.DBTypeSpecifier> colTypeList = new ArrayList<DBType.DBTypeSpecifier>();
+		colTypeList.add(DBType.DBTypeSpecifier.DB_INT);
+		colTypeList.add(DBType.DBTypeSpecifier.DB_CHAR);
+		colTypeList.add(DBType.DBTypeSpecifier.DB_DATE);
+		colTypeList.add(DBType.DBTypeSpecifier.DB_INT);
+
+		ArrayList<ArrayList<DBValue>> records = new ArrayList<ArrayList<DBValue>>();
+		for(int i = 0; i < rowCount; i++) {
+			ArrayList<DBValue> record = new ArrayList<DBValue>();
+			record.add(new DBValue(i));
+			record.add(new DBValue("name_" + (i % 1000)));
+			record.add(new DBValue(1970 + i % 50, 1 + i % 12, 1 + i % 28));
+			record.add((i % 4 == 0) ? new DBValue() : new DBValue(i % 100));
+			records.add(record);
+		}
+
+		ArrayList<RowBatch> batches = new ArrayList<RowBatch>();
+		for(int i = 0; i < rowCount; i += RowBatch.CAPACITY) {
+			RowBatch batch = new RowBatch(colTypeList);
+			for(int j = i; j < Math.min(rowCount, i + RowBatch.CAPACITY); j++)
+				batch.addRecord(records.get(j));
+			batches.add(batch);
+		}
+
+		String[] nameList = { "id < k", "id > k and dept_id = c", "name = s or birth >= d", "not (dept_id is null or id < k)" };
+		BoolTree[] treeList = {
+			_comp(0, CompOperator.OP_LT, new DBValue(rowCount / 2)),
+			_and(_comp(0, CompOperator.OP_GT, new DBValue(rowCount / 2)), _comp(3, CompOperator.OP_EQ, new DBValue(7))),
+			_or(_comp(1, CompOperator.OP_EQ, new DBValue("name_7")), _comp(2, CompOperator.OP_GE, new DBValue(2000, 1, 1))),
+			new BoolTree(BoolTreeOperator.BT_OR).setLeftChild(new NullPredicate(3, true)).setRightChild(_comp(0, CompOperator.OP_LT, new DBValue(rowCount / 2))).setNot()
+		};
+
+		System.out.printf("%-36s%18s%18s%18s\n", "where", "tree ns/row", "compiled ns/row", "batch ns/row");
+		for(int i = 0; i < treeList.length; i++) {
+			CompiledPredicate compiled = CompiledPredicate.compile(treeList[i], colTypeList);
+
+			// Warm up both before measuring, then take the best of a few runs
+			for(int round = 0; round < 10; round++) {
+				_evalTree(treeList[i], records);
+				_evalCompiled(compiled, records);
+				_evalBatch(compiled, batches);
+			}
+
+			long treeNanos = Long.MAX_VALUE, compiledNanos = Long.MAX_VALUE, batchNanos = Long.MAX_VALUE;
+			for(int round = 0; round < 5; round++) {
+				treeNanos = Math.min(treeNanos, _evalTree(treeList[i], records));
+				compiledNanos = Math.min(compiledNanos, _evalCompiled(compiled, records));
+				batchNanos = Math.min(batchNanos, _evalBatch(compiled, batches));
+			}
+			System.out.printf("%-36s%18.1f%18.1f%18.1f\n", nameList[i], (double)treeNanos / rowCount, (double)compiledNanos / rowCount, (double)batchNanos / rowCount);
+		}
+	}
+
+	private static BoolTree _comp(int colIdx, CompOperator op, DBValue constant) {
+		return new CompPredicate(colIdx, op, -1).setRightConstOperand(constant);
+	}
+
+	private static BoolTree _and(BoolTree left, BoolTree right) {
+		return new BoolTree(BoolTreeOperator.BT_AND).setLeftChild(left).setRightChild(right);
+	}
+
+	private static BoolTree _or(BoolTree left, BoolTree right) {
+		return new BoolTree(BoolTreeOperator.BT_OR).setLeftChild(left).setRightChild(right);
+	}
+
+	private static long _evalTree(BoolTree tree, ArrayList<ArrayList<DBValue>> records) throws DBError {
+		long start = System.nanoTime();
+		int trueCount = 0;
+		for(ArrayList<DBValue> record : records) {
+			if(tree.evaluate(record) == ThreeValuedLogic.TVL_TRUE)
+				trueCount++;
+		}
+		long elapsed = System.nanoTime() - start;
+		if(trueCount < 0) System.out.println("unexpected count");
+		return elapsed;
+	}
+
+	private static long _evalCompiled(CompiledPredicate compiled, ArrayList<ArrayList<DBValue>> records) throws DBError {
+		long start = System.nanoTime();
+		int trueCount = 0;
+		for(ArrayList<DBValue> record : records) {
+			if(compiled.isTrue(record))
+				trueCount++;
+		}
+		long elapsed = System.nanoTime() - start;
+		if(trueCount < 0) System.out.println("unexpected count");
+		return elapsed;
+	}
+
+	private static long _evalBatch(CompiledPredicate compiled, ArrayList<RowBatch> batches) throws DBError {
+		long start = System.nanoTime();
+		int trueCount = 0;
+		for(RowBatch batch : batches) {
+			for(int i = 0; i < batch.size; i++) // Select every row again, as filter() narrows the selection
+				batch.sel[i] = i;
+			batch.selCount = batch.size;
+			compiled.filter(batch);
+			trueCount += batch.selCount;
+		}
+		long elapsed = System.nanoTime() - start;
+		if(trueCount < 0) System.out.println("unexpected count");
+		return elapsed;
+	}
+}
@@ -0,0 +1,261 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+// End-to-end load generator: every statement is SQL text run by SimpleDBMSParser.runSession(), as a client would send it.
+//
+// 1. Creates a chain of tables chain_a <- chain_b <- chain_c ..., each one referencing the previous one by a nullable FK:
+//      chain_a (id int not null, label char(16), amount int, created date, primary key(id))
+//      chain_x (id int not null, pid int, label char(16), amount int, created date, primary key(id), foreign key(pid) references <previous>(id))
+//    and loads them with LOAD DATA, BASE_ROWS * scale factor rows in chain_a and FANOUT times more in each next table.
+//    The data only depends on the seed.
+// 2. Runs a mix of single-row INSERTs (INSERT_PERCENT), point SELECTs by PK (POINT_SELECT_PERCENT), SELECTs joining a row
+//    with its children (JOIN_SELECT_PERCENT) and DELETEs by PK of a row with children, whose FKs are set to null (DELETE_PERCENT),
+//    in worker threads. The statements of each worker only depend on the seed and the worker index.
+// 3. Prints the throughput, the latency of each statement type (from the call of runSession() to its return, so parsing and
+//    the commit are included) and the size of the database directory after loading and after the run.
+//    The per-statement metrics of the engine (SHOW STATS) follow.
+//
+// Each statement runs in a session of its own, like a client sending one statement per request.
+// The database is created in a temporary directory, which is deleted at the end.
+//
+// Usage: java WorkloadDriver [scale factor (1, 10, 100)] [statement count] [threads] [chain length] [seed]
+public class WorkloadDriver {
+	private static final int BASE_ROWS = 1000;
+	private static final int FANOUT = 2;
+	private static final int INSERT_PERCENT = 30;
+	private static final int POINT_SELECT_PERCENT = 40;
+	private static final int JOIN_SELECT_PERCENT = 20;
+	private static final int DELETE_PERCENT = 10;
+	private static final String[] TYPE_NAME_LIST = { "insert", "point select", "join select", "delete" };
+
+	private final int _chainLength;
+	private final long _seed;
+	private final int[] _loadedRowCount; // per table of the chain
+	private final LatencyHistogram[] _latencyList = new LatencyHistogram[TYPE_NAME_LIST.length]; // per statement type
+	private final AtomicLong _failedCount = new AtomicLong(); // statements which ended with a syntax error or an unexpected exception
+
+	public WorkloadDriver(int scaleFactor, int chainLength, long seed) {
+		_chainLength = chainLength;
+		_seed = seed;
+		_loadedRowCount = new int[chainLength];
+		for(int i = 0; i < chainLength; i++)
+			_loadedRowCount[i] = (int)Math.min(Integer.MAX_VALUE, (long)BASE_ROWS * scaleFactor * (long)Math.pow(FANOUT, i));
+		for(int i = 0; i < _latencyList.length; i++)
+			_latencyList[i] = new LatencyHistogram();
+	}
+
+	public static void main(String[] args) throws Exception {
+		int scaleFactor = (args.length > 0) ? Integer.parseInt(args[0]) : 1;
+		int statementCount = (args.length > 1) ? Integer.parseInt(args[1]) : 10000;
+		int threadCount = (args.length > 2) ? Integer.parseInt(args[2]) : 1;
+		int chainLength = (args.length > 3) ? Integer.parseInt(args[3]) : 4;
+		long seed = (args.length > 4) ? Long.parseLong(args[4]) : 42;
+		if(chainLength < 2 || chainLength > 26)
+			throw new IllegalArgumentException("chain length must be between 2 and 26");
+
+		File dbDir = Files.createTempDirectory("simpledbms-workload").toFile();
+		System.setProperty(MyInterpreter.DB_DIR_PROPERTY, dbDir.getPath());
+		MyInterpreter interpreter = MyInterpreter.getInstance();
+		try {
+			WorkloadDriver driver = new WorkloadDriver(scaleFactor, chainLength, seed);
+			System.out.printf("scale factor %d, chain of %d tables, %d statements in %d thread(s), seed %d\n", scaleFactor, chainLength, statementCount, threadCount, seed);
+
+			long loadNanos = driver.load(dbDir);
+			long loadedRows = 0;
+			for(int rowCount : driver._loadedRowCount)
+				loadedRows += rowCount;
+			System.out.printf("loaded %d rows in %.1f s (%d rows/sec), db size %s\n", loadedRows, loadNanos / 1e9, (long)(loadedRows / (loadNanos / 1e9)),
+					_formatSize(_sizeOf(dbDir)));
+
+			long runNanos = driver.run(statementCount, threadCount);
+			driver.printReport(statementCount, runNanos, System.out);
+			System.out.println("db size " + _formatSize(_sizeOf(dbDir)));
+			interpreter.getMetrics().print(System.out);
+		}
+		finally {
+			interpreter.terminate();
+			_deleteRecursively(dbDir);
+		}
+	}
+
+	// Creates and loads the tables, returns the elapsed nanoseconds
+	public long load(File csvDir) throws IOException {
+		long start = System.nanoTime();
+		for(int level = 0; level < _chainLength; level++) {
+			StringBuilder sql = new StringBuilder("create table " + _tableName(level) + " (id int not null, ");
+			if(level > 0) sql.append("pid int, ");
+			sql.append("label char(16), amount int, created date, primary key(id)");
+			if(level > 0) sql.append(", foreign key(pid) references " + _tableName(level - 1) + "(id)");
+			sql.append(");");
+			_executeExpecting(sql.toString(), "table is created");
+
+			File csvFile = new File(csvDir, _tableName(level) + ".csv");
+			_writeCSV(level, csvFile);
+			_executeExpecting("load data '" + csvFile.getPath() + "' into " + _tableName(level) + ";", _loadedRowCount[level] + " row(s) are inserted");
+			csvFile.delete();
+		}
+		return System.nanoTime() - start;
+	}
+
+	private void _writeCSV(int level, File csvFile) throws IOException {
+		Random random = new Random(_seed * 31 + level);
+		Writer writer = new OutputStreamWriter(new FileOutputStream(csvFile), "UTF-8");
+		try {
+			StringBuilder line = new StringBuilder();
+			for(int id = 0; id < _loadedRowCount[level]; id++) {
+				line.setLength(0);
+				line.append(id).append(',');
+				if(level > 0) {
+					if(random.nextInt(20) != 0) // 5% of the rows reference nothing
+						line.append(random.nextInt(_loadedRowCount[level - 1]));
+					line.append(',');
+				}
+				line.append("label_").append(random.nextInt(1000)).append(',');
+				line.append(random.nextInt(100000)).append(',');
+				line.append(_randomDate(random)).append('\n');
+				writer.write(line.toString());
+			}
+		}
+		finally {
+			writer.close();
+		}
+	}
+
+	// Runs the mix in threadCount workers, returns the elapsed nanoseconds
+	public long run(int statementCount, int threadCount) throws InterruptedException {
+		ArrayList<Thread> workerList = new ArrayList<Thread>();
+		for(int i = 0; i < threadCount; i++) {
+			final int workerIdx = i;
+			final int workerStatementCount = statementCount / threadCount + ((i < statementCount % threadCount) ? 1 : 0);
+			final int threads = threadCount;
+			workerList.add(new Thread("workload-" + i) {
+				@Override
+				public void run() {
+					_runWorker(workerIdx, threads, workerStatementCount);
+				}
+			});
+		}
+
+		long start = System.nanoTime();
+		for(Thread worker : workerList)
+			worker.start();
+		for(Thread worker : workerList)
+			worker.join();
+		return System.nanoTime() - start;
+	}
+
+	private void _runWorker(int workerIdx, int threadCount, int statementCount) {
+		Random random = new Random(_seed * 1000003 + workerIdx);
+		int[] insertedCount = new int[_chainLength]; // ids of the inserted rows are loaded count + workerIdx + k * threadCount
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+		for(int i = 0; i < statementCount; i++) {
+			int pick = random.nextInt(100);
+			int type;
+			String sql;
+			if(pick < INSERT_PERCENT) {
+				type = 0;
+				int level = random.nextInt(_chainLength);
+				int id = _loadedRowCount[level] + workerIdx + insertedCount[level]++ * threadCount;
+				StringBuilder values = new StringBuilder().append(id).append(", ");
+				if(level > 0)
+					values.append(random.nextInt(_loadedRowCount[level - 1])).append(", ");
+				values.append("'label_").append(random.nextInt(1000)).append("', ").append(random.nextInt(100000)).append(", ").append(_randomDate(random));
+				sql = "insert into " + _tableName(level) + " values(" + values + ");";
+			}
+			else if(pick < INSERT_PERCENT + POINT_SELECT_PERCENT) {
+				type = 1;
+				int level = random.nextInt(_chainLength);
+				sql = "select * from " + _tableName(level) + " where id = " + random.nextInt(_loadedRowCount[level]) + ";";
+			}
+			else if(pick < INSERT_PERCENT + POINT_SELECT_PERCENT + JOIN_SELECT_PERCENT) {
+				type = 2;
+				int level = 1 + random.nextInt(_chainLength - 1);
+				sql = "select p.id, p.label, c.id, c.amount from " + _tableName(level - 1) + " as p, " + _tableName(level) + " as c"
+						+ " where p.id = c.pid and p.id = " + random.nextInt(_loadedRowCount[level - 1]) + ";";
+			}
+			else { // DELETE_PERCENT
+				type = 3;
+				int level = random.nextInt(_chainLength - 1); // the last table has no children
+				sql = "delete from " + _tableName(level) + " where id = " + random.nextInt(_loadedRowCount[level]) + ";";
+			}
+
+			output.reset();
+			long start = System.nanoTime();
+			_execute(sql, output);
+			_latencyList[type].record((System.nanoTime() - start) / 1000);
+			if(output.toString().contains("Syntax error"))
+				_failedCount.incrementAndGet();
+		}
+	}
+
+	public void printReport(int statementCount, long runNanos, PrintStream out) {
+		double seconds = runNanos / 1e9;
+		out.printf("%d statements in %.1f s: %.1f statements/sec, %d failed\n", statementCount, seconds, statementCount / seconds, _failedCount.get());
+		out.printf("%-15s%10s%15s%12s%12s%12s%12s\n", "statement", "count", "per sec", "mean(us)", "p50(us)", "p99(us)", "max(us)");
+		for(int i = 0; i < TYPE_NAME_LIST.length; i++) {
+			LatencyHistogram latency = _latencyList[i];
+			out.printf("%-15s%10d%15.1f%12d%12d%12d%12d\n", TYPE_NAME_LIST[i], latency.getCount(), latency.getCount() / seconds,
+					latency.getMean(), latency.getPercentile(50), latency.getPercentile(99), latency.getMax());
+		}
+	}
+
+	private static void _execute(String sql, ByteArrayOutputStream output) {
+		try {
+			SimpleDBMSParser.runSession(new ByteArrayInputStream(sql.getBytes("UTF-8")), new PrintStream(output));
+		}
+		catch(UnsupportedEncodingException e) {
+			e.printStackTrace();
+		}
+	}
+
+	private static void _executeExpecting(String sql, String expectedOutput) { // the load must not fail
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		_execute(sql, output);
+		if(!output.toString().contains(expectedOutput))
+			throw new IllegalStateException("unexpected result of " + sql + ": " + output);
+	}
+
+	private static String _tableName(int level) {
+		return "chain_" + (char)('a' + level);
+	}
+
+	private static String _randomDate(Random random) {
+		return String.format(Locale.ROOT, "%04d-%02d-%02d", 1970 + random.nextInt(50), 1 + random.nextInt(12), 1 + random.nextInt(28));
+	}
+
+	private static long _sizeOf(File file) {
+		File[] children = file.listFiles();
+		if(children == null)
+			return file.length();
+		long size = 0;
+		for(File child : children)
+			size += _sizeOf(child);
+		return size;
+	}
+
+	private static String _formatSize(long bytes) {
+		return String.format("%.1f MB", bytes / (1024.0 * 1024.0));
+	}
+
+	private static void _deleteRecursively(File file) {
+		File[] children = file.listFiles();
+		if(children != null) {
+			for(File child : children)
+				_deleteRecursively(child);
+		}
+		file.delete();
+	}
+}
@@ -1,4 +1,5 @@
 import java.util.ArrayList;
+import java.util.List;
 
 enum BoolTreeOperator { BT_AND, BT_OR };
 
@@ -43,6 +44,91 @@ class BoolTree {
 		return this;
 	}
 	
+	public boolean isNot() {
+		return _isNot;
+	}
+	
+	public BoolTreeOperator getOperator() { // null for a predicate
+		return _op;
+	}
+	
+	// Splits this tree into its top-level AND operands (a NOT-ed or OR node is a single conjunct).
+	public void collectConjuncts(ArrayList<BoolTree> conjunctList) {
+		if(_op == BoolTreeOperator.BT_AND && !_isNot) {
+			_leftChild.collectConjuncts(conjunctList);
+			_rightChild.collectConjuncts(conjunctList);
+		}
+		else
+			conjunctList.add(this);
+	}
+	
+	// Adds the record column indexes referenced in this tree.
+	public void collectColumnIndexes(ArrayList<Integer> colIdxList) {
+		_leftChild.collectColumnIndexes(colIdxList);
+		_rightChild.collectColumnIndexes(colIdxList);
+	}
+	
+	// Returns a copy of this tree whose column indexes are relative to the given column offset.
+	// (e.g. a conjunct on a table's columns, evaluated on that table's record alone)
+	public BoolTree rebase(int offset) {
+		BoolTree copy = new BoolTree(_op);
+		copy._leftChild = _leftChild.rebase(offset);
+		copy._rightChild = _rightChild.rebase(offset);
+		copy._isNot = _isNot;
+		return copy;
+	}
+	
+	// Text of the tree (for EXPLAIN), colNameList being the name of each column of the record.
+	public String format(List<String> colNameList) {
+		String text = _leftChild.format(colNameList) + ((_op == BoolTreeOperator.BT_AND) ? " and " : " or ") + _rightChild.format(colNameList);
+		return _isNot ? "not (" + text + ")" : "(" + text + ")";
+	}
+	
+	// Returns a copy of this tree where column index i is replaced with colMap[i].
+	// (e.g. a conjunct evaluated on joined records whose tables are not in FROM order)
+	public BoolTree remap(int[] colMap) {
+		BoolTree copy = new BoolTree(_op);
+		copy._leftChild = _leftChild.remap(colMap);
+		copy._rightChild = _rightChild.remap(colMap);
+		copy._isNot = _isNot;
+		return copy;
+	}
+	
+	// Returns a copy of this tree where every ParameterMarker operand is replaced with its argument in paramList.
+	// (a where clause prepared by PREPARE, run by EXECUTE)
+	public BoolTree bind(List<DBValue> paramList) {
+		BoolTree copy = new BoolTree(_op);
+		copy._leftChild = _leftChild.bind(paramList);
+		copy._rightChild = _rightChild.bind(paramList);
+		copy._isNot = _isNot;
+		return copy;
+	}
+	
+	// Node of CompiledPredicate for this tree (NOT-ed if negate is true).
+	// Comparisons between different types are added to incomparableList as {left column index, right column index}.
+	public PredicateNode compile(boolean negate, List<DBType.DBTypeSpecifier> colTypeList, ArrayList<int[]> incomparableList) {
+		boolean isNot = (negate != _isNot);
+		boolean isAnd = (_op == BoolTreeOperator.BT_AND) != isNot; // De Morgan
+		
+		ArrayList<PredicateNode> operandList = new ArrayList<PredicateNode>();
+		for(BoolTree child : new BoolTree[] { _leftChild, _rightChild }) {
+			PredicateNode operand = child.compile(isNot, colTypeList, incomparableList);
+			if(isAnd && operand instanceof AndNode) { // Flatten nested ANDs / ORs
+				for(PredicateNode grandOperand : ((AndNode)operand).getOperandList())
+					operandList.add(grandOperand);
+			}
+			else if(!isAnd && operand instanceof OrNode) {
+				for(PredicateNode grandOperand : ((OrNode)operand).getOperandList())
+					operandList.add(grandOperand);
+			}
+			else
+				operandList.add(operand);
+		}
+		
+		PredicateNode[] operands = operandList.toArray(new PredicateNode[operandList.size()]);
+		return isAnd ? new AndNode(operands) : new OrNode(operands);
+	}
+	
 	public ThreeValuedLogic evaluate(ArrayList<DBValue> record) throws DBError {
 		ThreeValuedLogic result;
 		if(_op == BoolTreeOperator.BT_AND) {
@@ -114,16 +200,147 @@ class CompPredicate extends BoolTree {
 		return this;
 	}
 	
+	public int getLeftColIdx() {
+		return _leftColIdx;
+	}
+	
+	public int getRightColIdx() {
+		return _rightColIdx;
+	}
+	
+	public CompOperator getCompOp() {
+		return _compOp;
+	}
+	
+	public DBValue getLeftConstOperand() { // null if the left operand is a column
+		return (_leftColIdx == -1) ? _leftOperand : null;
+	}
+	
+	public DBValue getRightConstOperand() { // null if the right operand is a column
+		return (_rightColIdx == -1) ? _rightOperand : null;
+	}
+	
+	@Override
+	public void collectColumnIndexes(ArrayList<Integer> colIdxList) {
+		if(_leftColIdx != -1) colIdxList.add(_leftColIdx);
+		if(_rightColIdx != -1) colIdxList.add(_rightColIdx);
+	}
+	
+	@Override
+	public BoolTree rebase(int offset) {
+		CompPredicate copy = new CompPredicate((_leftColIdx == -1) ? -1 : _leftColIdx - offset, _compOp, (_rightColIdx == -1) ? -1 : _rightColIdx - offset);
+		copy.setLeftConstOperand(_leftOperand);
+		copy.setRightConstOperand(_rightOperand);
+		copy._isNot = _isNot;
+		return copy;
+	}
+	
+	@Override
+	public String format(List<String> colNameList) {
+		String text = _formatOperand(_leftColIdx, _leftOperand, colNameList) + " " + _opText() + " " + _formatOperand(_rightColIdx, _rightOperand, colNameList);
+		return _isNot ? "not " + text : text;
+	}
+	
+	private static String _formatOperand(int colIdx, DBValue operand, List<String> colNameList) {
+		if(colIdx != -1)
+			return colNameList.get(colIdx);
+		if(operand.valueType == DBType.DBTypeSpecifier.DB_CHAR)
+			return "'" + operand.charVal + "'";
+		return operand.toString();
+	}
+	
+	private String _opText() {
+		switch(_compOp) {
+		case OP_GT: return ">";
+		case OP_LT: return "<";
+		case OP_GE: return ">=";
+		case OP_LE: return "<=";
+		case OP_EQ: return "=";
+		default: return "!=";
+		}
+	}
+	
+	@Override
+	public BoolTree remap(int[] colMap) {
+		CompPredicate copy = new CompPredicate((_leftColIdx == -1) ? -1 : colMap[_leftColIdx], _compOp, (_rightColIdx == -1) ? -1 : colMap[_rightColIdx]);
+		copy.setLeftConstOperand(_leftOperand);
+		copy.setRightConstOperand(_rightOperand);
+		copy._isNot = _isNot;
+		return copy;
+	}
+	
+	@Override
+	public BoolTree bind(List<DBValue> paramList) {
+		CompPredicate copy = new CompPredicate(_leftColIdx, _compOp, _rightColIdx);
+		copy.setLeftConstOperand(ParameterMarker.bind(_leftOperand, paramList));
+		copy.setRightConstOperand(ParameterMarker.bind(_rightOperand, paramList));
+		copy._isNot = _isNot;
+		return copy;
+	}
+	
+	@Override
+	public PredicateNode compile(boolean negate, List<DBType.DBTypeSpecifier> colTypeList, ArrayList<int[]> incomparableList) {
+		int mask = PredicateNode.toMask(_compOp);
+		if(negate != _isNot)
+			mask = PredicateNode.negateMask(mask);
+		
+		if(_leftColIdx == -1 && _rightColIdx == -1) { // Constant, except for an error on different types
+			if(_leftOperand.isNull() || _rightOperand.isNull())
+				return new ConstNode(PredicateNode.UNKNOWN);
+			if(_leftOperand.valueType != _rightOperand.valueType) {
+				incomparableList.add(new int[] { -1, -1 });
+				return new ConstNode(PredicateNode.UNKNOWN);
+			}
+			ThreeValuedLogic result = ThreeValuedLogic.TVL_UNKNOWN;
+			try {
+				result = DBValue.Compare(_leftOperand, _compOp, _rightOperand);
+			}
+			catch(WhereIncomparableError e) {} // Types are checked above
+			if(negate != _isNot)
+				result = BoolTree.negateTVL(result);
+			return new ConstNode((result == ThreeValuedLogic.TVL_TRUE) ? PredicateNode.TRUE : PredicateNode.FALSE);
+		}
+		
+		// Normalize to (column op column) or (column op constant)
+		int leftColIdx = _leftColIdx, rightColIdx = _rightColIdx;
+		DBValue constant = _rightOperand;
+		if(leftColIdx == -1) {
+			leftColIdx = _rightColIdx;
+			rightColIdx = -1;
+			constant = _leftOperand;
+			mask = PredicateNode.flipMask(mask);
+		}
+		
+		DBType.DBTypeSpecifier leftType = colTypeList.get(leftColIdx);
+		if(rightColIdx == -1 && constant.isNull())
+			return new ConstNode(PredicateNode.UNKNOWN);
+		DBType.DBTypeSpecifier rightType = (rightColIdx == -1) ? constant.valueType : colTypeList.get(rightColIdx);
+		if(leftType != rightType) { // UNKNOWN when an operand is null, WhereIncomparableError otherwise
+			incomparableList.add(new int[] { leftColIdx, rightColIdx });
+			return new ConstNode(PredicateNode.UNKNOWN);
+		}
+		
+		switch(leftType) {
+		case DB_INT:
+			return (rightColIdx == -1) ? new IntColConstNode(leftColIdx, mask, constant.intVal) : new IntColColNode(leftColIdx, mask, rightColIdx);
+		case DB_CHAR:
+			return (rightColIdx == -1) ? new CharColConstNode(leftColIdx, mask, constant.charVal) : new CharColColNode(leftColIdx, mask, rightColIdx);
+		case DB_DATE:
+			return (rightColIdx == -1) ? new DateColConstNode(leftColIdx, mask, constant) : new DateColColNode(leftColIdx, mask, rightColIdx);
+		default:
+			return new ConstNode(PredicateNode.UNKNOWN);
+		}
+	}
+	
 	@Override
 	public ThreeValuedLogic evaluate(ArrayList<DBValue> record) throws DBError {
 		ThreeValuedLogic result;
 		
-		if(_leftColIdx != -1)
-			_leftOperand = record.get(_leftColIdx);
-		if(_rightColIdx != -1)
-			_rightOperand = record.get(_rightColIdx);
+		// Operands are local, so that evaluation keeps no state in this tree
+		DBValue leftOperand = (_leftColIdx != -1) ? record.get(_leftColIdx) : _leftOperand;
+		DBValue rightOperand = (_rightColIdx != -1) ? record.get(_rightColIdx) : _rightOperand;
 		
-		result = DBValue.Compare(_leftOperand, _compOp, _rightOperand);
+		result = DBValue.Compare(leftOperand, _compOp, rightOperand);
 		
 		if(_isNot)
 			result = BoolTree.negateTVL(result);
@@ -133,7 +350,6 @@ class CompPredicate extends BoolTree {
 }
 
 class NullPredicate extends BoolTree {
-	private DBValue _operand;
 	private int _colIdx;
 	private boolean _opIsNull; // true: <column> is null , false: <column> is not null
 	
@@ -143,15 +359,60 @@ class NullPredicate extends BoolTree {
 		_opIsNull = opIsNull;
 	}
 	
+	public int getColIdx() {
+		return _colIdx;
+	}
+	
+	public boolean isNullTest() { // false for IS NOT NULL
+		return _opIsNull;
+	}
+	
+	@Override
+	public void collectColumnIndexes(ArrayList<Integer> colIdxList) {
+		colIdxList.add(_colIdx);
+	}
+	
+	@Override
+	public BoolTree rebase(int offset) {
+		NullPredicate copy = new NullPredicate(_colIdx - offset, _opIsNull);
+		copy._isNot = _isNot;
+		return copy;
+	}
+	
+	@Override
+	public String format(List<String> colNameList) {
+		String text = colNameList.get(_colIdx) + (_opIsNull ? " is null" : " is not null");
+		return _isNot ? "not " + text : text;
+	}
+	
+	@Override
+	public BoolTree remap(int[] colMap) {
+		NullPredicate copy = new NullPredicate(colMap[_colIdx], _opIsNull);
+		copy._isNot = _isNot;
+		return copy;
+	}
+	
+	@Override
+	public BoolTree bind(List<DBValue> paramList) {
+		NullPredicate copy = new NullPredicate(_colIdx, _opIsNull);
+		copy._isNot = _isNot;
+		return copy;
+	}
+	
+	@Override
+	public PredicateNode compile(boolean negate, List<DBType.DBTypeSpecifier> colTypeList, ArrayList<int[]> incomparableList) {
+		return new NullTestNode(_colIdx, _opIsNull != (negate != _isNot)); // NOT IS NULL == IS NOT NULL
+	}
+	
 	@Override
 	public ThreeValuedLogic evaluate(ArrayList<DBValue> record) throws DBError {
 		ThreeValuedLogic result;
 		
-		_operand = record.get(_colIdx);
+		DBValue operand = record.get(_colIdx);
 		if(_opIsNull)
-			result = (_operand.isNull()) ? ThreeValuedLogic.TVL_TRUE : ThreeValuedLogic.TVL_FALSE;
+			result = (operand.isNull()) ? ThreeValuedLogic.TVL_TRUE : ThreeValuedLogic.TVL_FALSE;
 		else
-			result = (!_operand.isNull()) ? ThreeValuedLogic.TVL_TRUE : ThreeValuedLogic.TVL_FALSE;
+			result = (!operand.isNull()) ? ThreeValuedLogic.TVL_TRUE : ThreeValuedLogic.TVL_FALSE;
 		
 		if(_isNot)
 			result = BoolTree.negateTVL(result);
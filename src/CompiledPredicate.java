@@ -0,0 +1,459 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// WHERE clause (or a part of it) compiled for one record layout, once per statement.
+// Column types are known from the schema after FromClause resolution, so
+//   - each comparison becomes a node for its type, with its constant operand bound at compile time
+//     and its operator turned into a mask of accepted outcomes (no switch per record),
+//   - NOT is pushed down into the comparisons and null tests, so there is no NOT node,
+//   - nested ANDs / ORs are flattened into one node with an operand array, evaluated with short-circuit.
+// Nodes only have final fields and evaluation keeps no state, so a compiled predicate can be shared by threads.
+//
+// filter() evaluates a whole RowBatch with one loop per node over the column vectors. Since NOT is already pushed down,
+// only the TRUE rows of each node matter: an AND narrows the selection operand by operand, an OR takes the union.
+//
+// BoolTree.evaluate() raises WhereIncomparableError on the first record where a comparison between different types
+// has no null operand, even if the result of the tree is already decided without it. Short-circuit would skip such
+// comparisons, so they are checked separately on every record before the tree is evaluated.
+public class CompiledPredicate {
+	private final PredicateNode _root;
+	private final int[] _incomparableLeftList; // column indexes of incomparable comparisons, -1 for a constant
+	private final int[] _incomparableRightList;
+
+	private CompiledPredicate(PredicateNode root, ArrayList<int[]> incomparableList) {
+		_root = root;
+		_incomparableLeftList = new int[incomparableList.size()];
+		_incomparableRightList = new int[incomparableList.size()];
+		for(int i = 0; i < incomparableList.size(); i++) {
+			_incomparableLeftList[i] = incomparableList.get(i)[0];
+			_incomparableRightList[i] = incomparableList.get(i)[1];
+		}
+	}
+
+	// colTypeList is the type of each column of the records the predicate is evaluated on.
+	public static CompiledPredicate compile(BoolTree tree, List<DBType.DBTypeSpecifier> colTypeList) {
+		ArrayList<int[]> incomparableList = new ArrayList<int[]>();
+		PredicateNode root = tree.compile(false, colTypeList, incomparableList);
+		return new CompiledPredicate(root, incomparableList);
+	}
+
+	public static CompiledPredicate compile(BoolTree tree, TableMeta tableMeta) { // on records of the table
+		ArrayList<DBType.DBTypeSpecifier> colTypeList = new ArrayList<DBType.DBTypeSpecifier>();
+		for(ColumnListDBEntry col : tableMeta.columnList)
+			colTypeList.add(col.columnType.type);
+		return compile(tree, colTypeList);
+	}
+
+	// true if a comparison is between different types, so that a record where both operands are not null
+	// raises WhereIncomparableError (known from the column types, before any record is read)
+	public boolean isIncomparablePossible() {
+		return _incomparableLeftList.length > 0;
+	}
+
+	// Same as (tree.evaluate(record) == TVL_TRUE)
+	public boolean isTrue(ArrayList<DBValue> record) throws DBError {
+		for(int i = 0; i < _incomparableLeftList.length; i++) {
+			if(_isNotNull(record, _incomparableLeftList[i]) && _isNotNull(record, _incomparableRightList[i]))
+				throw new WhereIncomparableError();
+		}
+		return _root.evaluate(record) == PredicateNode.TRUE;
+	}
+
+	// Batch version of isTrue(): keeps in the selection of the batch only the records for which the predicate is TRUE.
+	// The batch has the column layout the predicate was compiled for.
+	public void filter(RowBatch batch) throws DBError {
+		for(int i = 0; i < _incomparableLeftList.length; i++) {
+			boolean[] leftNulls = (_incomparableLeftList[i] == -1) ? null : batch.nullCols[_incomparableLeftList[i]];
+			boolean[] rightNulls = (_incomparableRightList[i] == -1) ? null : batch.nullCols[_incomparableRightList[i]];
+			for(int k = 0; k < batch.selCount; k++) {
+				int row = batch.sel[k];
+				if((leftNulls == null || !leftNulls[row]) && (rightNulls == null || !rightNulls[row]))
+					throw new WhereIncomparableError();
+			}
+		}
+		batch.selCount = _root.select(batch, batch.sel, batch.selCount, batch.sel);
+	}
+
+	private static boolean _isNotNull(ArrayList<DBValue> record, int colIdx) {
+		return colIdx == -1 || !record.get(colIdx).isNull();
+	}
+}
+
+// Node of a compiled predicate. Results are three-valued, as int constants.
+abstract class PredicateNode {
+	public static final int FALSE = 0;
+	public static final int TRUE = 1;
+	public static final int UNKNOWN = 2;
+
+	// Outcome bits of a comparison, used in the operator masks
+	public static final int CMP_LT = 1;
+	public static final int CMP_EQ = 2;
+	public static final int CMP_GT = 4;
+
+	public abstract int evaluate(ArrayList<DBValue> record);
+
+	// Writes the rows of sel[0, count) for which the node is TRUE to out, in the same order, and returns their number.
+	// out may be sel itself.
+	public abstract int select(RowBatch batch, int[] sel, int count, int[] out);
+
+	public static int toMask(CompOperator op) {
+		switch(op) {
+		case OP_GT:
+			return CMP_GT;
+		case OP_LT:
+			return CMP_LT;
+		case OP_GE:
+			return CMP_GT | CMP_EQ;
+		case OP_LE:
+			return CMP_LT | CMP_EQ;
+		case OP_EQ:
+			return CMP_EQ;
+		case OP_NEQ:
+			return CMP_LT | CMP_GT;
+		default:
+			return 0;
+		}
+	}
+
+	public static int negateMask(int mask) { // NOT (a op b) for non-null a and b
+		return mask ^ (CMP_LT | CMP_EQ | CMP_GT);
+	}
+
+	public static int flipMask(int mask) { // (a op b) == (b flipped-op a)
+		return ((mask & CMP_LT) << 2) | (mask & CMP_EQ) | ((mask & CMP_GT) >> 2);
+	}
+
+	protected static int _test(int mask, int cmp) {
+		int outcome = (cmp < 0) ? CMP_LT : ((cmp == 0) ? CMP_EQ : CMP_GT);
+		return ((mask & outcome) != 0) ? TRUE : FALSE;
+	}
+
+	// Same as (_test(mask, cmp) == TRUE) for cmp in {-1, 0, 1}, without branches
+	protected static boolean _accepts(int mask, int cmp) {
+		return ((mask >> (cmp + 1)) & 1) != 0;
+	}
+
+	// Rows of sel[0, count) whose values of two int vectors satisfy the mask (DB_INT and DB_DATE columns)
+	protected static int _selectInt(int mask, int[] left, boolean[] leftNulls, int[] right, boolean[] rightNulls, int[] sel, int count, int[] out) {
+		int n = 0;
+		for(int k = 0; k < count; k++) {
+			int row = sel[k];
+			if(!leftNulls[row] && !rightNulls[row] && _accepts(mask, Integer.compare(left[row], right[row])))
+				out[n++] = row;
+		}
+		return n;
+	}
+
+	protected static int _selectInt(int mask, int[] col, boolean[] nulls, int constant, int[] sel, int count, int[] out) {
+		int n = 0;
+		for(int k = 0; k < count; k++) {
+			int row = sel[k];
+			if(!nulls[row] && _accepts(mask, Integer.compare(col[row], constant)))
+				out[n++] = row;
+		}
+		return n;
+	}
+
+}
+
+class AndNode extends PredicateNode {
+	private final PredicateNode[] _operandList;
+
+	public AndNode(PredicateNode[] operandList) {
+		_operandList = operandList;
+	}
+
+	@Override
+	public int evaluate(ArrayList<DBValue> record) {
+		int result = TRUE;
+		for(PredicateNode operand : _operandList) {
+			int operandResult = operand.evaluate(record);
+			if(operandResult == FALSE)
+				return FALSE;
+			if(operandResult == UNKNOWN)
+				result = UNKNOWN;
+		}
+		return result;
+	}
+
+	@Override
+	public int select(RowBatch batch, int[] sel, int count, int[] out) {
+		int[] in = sel;
+		for(PredicateNode operand : _operandList) {
+			count = operand.select(batch, in, count, out);
+			in = out;
+			if(count == 0)
+				break;
+		}
+		return count;
+	}
+
+	public PredicateNode[] getOperandList() {
+		return _operandList;
+	}
+}
+
+class OrNode extends PredicateNode {
+	private final PredicateNode[] _operandList;
+
+	public OrNode(PredicateNode[] operandList) {
+		_operandList = operandList;
+	}
+
+	@Override
+	public int evaluate(ArrayList<DBValue> record) {
+		int result = FALSE;
+		for(PredicateNode operand : _operandList) {
+			int operandResult = operand.evaluate(record);
+			if(operandResult == TRUE)
+				return TRUE;
+			if(operandResult == UNKNOWN)
+				result = UNKNOWN;
+		}
+		return result;
+	}
+
+	@Override
+	public int select(RowBatch batch, int[] sel, int count, int[] out) {
+		// Each operand only sees the rows no earlier operand found TRUE
+		boolean[] isTrue = new boolean[batch.size];
+		int[] remain = Arrays.copyOf(sel, count);
+		int[] found = new int[count];
+		int remainCount = count;
+		for(PredicateNode operand : _operandList) {
+			int foundCount = operand.select(batch, remain, remainCount, found);
+			if(foundCount == 0)
+				continue;
+			for(int k = 0; k < foundCount; k++)
+				isTrue[found[k]] = true;
+
+			int n = 0;
+			for(int k = 0; k < remainCount; k++) {
+				if(!isTrue[remain[k]])
+					remain[n++] = remain[k];
+			}
+			remainCount = n;
+			if(remainCount == 0)
+				break;
+		}
+
+		int n = 0;
+		for(int k = 0; k < count; k++) {
+			if(isTrue[sel[k]])
+				out[n++] = sel[k];
+		}
+		return n;
+	}
+
+	public PredicateNode[] getOperandList() {
+		return _operandList;
+	}
+}
+
+class ConstNode extends PredicateNode {
+	private final int _result;
+
+	public ConstNode(int result) {
+		_result = result;
+	}
+
+	@Override
+	public int evaluate(ArrayList<DBValue> record) {
+		return _result;
+	}
+
+	@Override
+	public int select(RowBatch batch, int[] sel, int count, int[] out) {
+		if(_result != TRUE)
+			return 0;
+		if(out != sel)
+			System.arraycopy(sel, 0, out, 0, count);
+		return count;
+	}
+}
+
+class NullTestNode extends PredicateNode {
+	private final int _colIdx;
+	private final int _resultIfNull; // TRUE for IS NULL, FALSE for IS NOT NULL
+
+	public NullTestNode(int colIdx, boolean isNullTest) {
+		_colIdx = colIdx;
+		_resultIfNull = isNullTest ? TRUE : FALSE;
+	}
+
+	@Override
+	public int evaluate(ArrayList<DBValue> record) {
+		return record.get(_colIdx).isNull() ? _resultIfNull : TRUE - _resultIfNull;
+	}
+
+	@Override
+	public int select(RowBatch batch, int[] sel, int count, int[] out) {
+		boolean[] nulls = batch.nullCols[_colIdx];
+		boolean selectNull = (_resultIfNull == TRUE);
+		int n = 0;
+		for(int k = 0; k < count; k++) {
+			int row = sel[k];
+			if(nulls[row] == selectNull)
+				out[n++] = row;
+		}
+		return n;
+	}
+}
+
+class IntColConstNode extends PredicateNode {
+	private final int _colIdx;
+	private final int _mask;
+	private final int _constant;
+
+	public IntColConstNode(int colIdx, int mask, int constant) {
+		_colIdx = colIdx;
+		_mask = mask;
+		_constant = constant;
+	}
+
+	@Override
+	public int evaluate(ArrayList<DBValue> record) {
+		DBValue value = record.get(_colIdx);
+		if(value.isNull()) return UNKNOWN;
+		return _test(_mask, Integer.compare(value.intVal, _constant));
+	}
+
+	@Override
+	public int select(RowBatch batch, int[] sel, int count, int[] out) {
+		return _selectInt(_mask, batch.intCols[_colIdx], batch.nullCols[_colIdx], _constant, sel, count, out);
+	}
+}
+
+class IntColColNode extends PredicateNode {
+	private final int _leftColIdx, _rightColIdx;
+	private final int _mask;
+
+	public IntColColNode(int leftColIdx, int mask, int rightColIdx) {
+		_leftColIdx = leftColIdx;
+		_mask = mask;
+		_rightColIdx = rightColIdx;
+	}
+
+	@Override
+	public int evaluate(ArrayList<DBValue> record) {
+		DBValue left = record.get(_leftColIdx), right = record.get(_rightColIdx);
+		if(left.isNull() || right.isNull()) return UNKNOWN;
+		return _test(_mask, Integer.compare(left.intVal, right.intVal));
+	}
+
+	@Override
+	public int select(RowBatch batch, int[] sel, int count, int[] out) {
+		return _selectInt(_mask, batch.intCols[_leftColIdx], batch.nullCols[_leftColIdx], batch.intCols[_rightColIdx], batch.nullCols[_rightColIdx], sel, count, out);
+	}
+}
+
+class CharColConstNode extends PredicateNode {
+	private final int _colIdx;
+	private final int _mask;
+	private final String _constant;
+
+	public CharColConstNode(int colIdx, int mask, String constant) {
+		_colIdx = colIdx;
+		_mask = mask;
+		_constant = constant;
+	}
+
+	@Override
+	public int evaluate(ArrayList<DBValue> record) {
+		DBValue value = record.get(_colIdx);
+		if(value.isNull()) return UNKNOWN;
+		return _test(_mask, value.charVal.compareTo(_constant));
+	}
+
+	@Override
+	public int select(RowBatch batch, int[] sel, int count, int[] out) {
+		String[] col = batch.charCols[_colIdx];
+		boolean[] nulls = batch.nullCols[_colIdx];
+		int n = 0;
+		for(int k = 0; k < count; k++) {
+			int row = sel[k];
+			if(!nulls[row] && _accepts(_mask, Integer.signum(col[row].compareTo(_constant))))
+				out[n++] = row;
+		}
+		return n;
+	}
+}
+
+class CharColColNode extends PredicateNode {
+	private final int _leftColIdx, _rightColIdx;
+	private final int _mask;
+
+	public CharColColNode(int leftColIdx, int mask, int rightColIdx) {
+		_leftColIdx = leftColIdx;
+		_mask = mask;
+		_rightColIdx = rightColIdx;
+	}
+
+	@Override
+	public int evaluate(ArrayList<DBValue> record) {
+		DBValue left = record.get(_leftColIdx), right = record.get(_rightColIdx);
+		if(left.isNull() || right.isNull()) return UNKNOWN;
+		return _test(_mask, left.charVal.compareTo(right.charVal));
+	}
+
+	@Override
+	public int select(RowBatch batch, int[] sel, int count, int[] out) {
+		String[] left = batch.charCols[_leftColIdx], right = batch.charCols[_rightColIdx];
+		boolean[] leftNulls = batch.nullCols[_leftColIdx], rightNulls = batch.nullCols[_rightColIdx];
+		int n = 0;
+		for(int k = 0; k < count; k++) {
+			int row = sel[k];
+			if(!leftNulls[row] && !rightNulls[row] && _accepts(_mask, Integer.signum(left[row].compareTo(right[row]))))
+				out[n++] = row;
+		}
+		return n;
+	}
+}
+
+class DateColConstNode extends PredicateNode {
+	private final int _colIdx;
+	private final int _mask;
+	private final int _packedConstant;
+
+	public DateColConstNode(int colIdx, int mask, DBValue constant) {
+		_colIdx = colIdx;
+		_mask = mask;
+		_packedConstant = constant.dateVal;
+	}
+
+	@Override
+	public int evaluate(ArrayList<DBValue> record) {
+		DBValue value = record.get(_colIdx);
+		if(value.isNull()) return UNKNOWN;
+		return _test(_mask, Integer.compare(value.dateVal, _packedConstant));
+	}
+
+	@Override
+	public int select(RowBatch batch, int[] sel, int count, int[] out) {
+		return _selectInt(_mask, batch.intCols[_colIdx], batch.nullCols[_colIdx], _packedConstant, sel, count, out);
+	}
+}
+
+class DateColColNode extends PredicateNode {
+	private final int _leftColIdx, _rightColIdx;
+	private final int _mask;
+
+	public DateColColNode(int leftColIdx, int mask, int rightColIdx) {
+		_leftColIdx = leftColIdx;
+		_mask = mask;
+		_rightColIdx = rightColIdx;
+	}
+
+	@Override
+	public int evaluate(ArrayList<DBValue> record) {
+		DBValue left = record.get(_leftColIdx), right = record.get(_rightColIdx);
+		if(left.isNull() || right.isNull()) return UNKNOWN;
+		return _test(_mask, Integer.compare(left.dateVal, right.dateVal));
+	}
+
+	@Override
+	public int select(RowBatch batch, int[] sel, int count, int[] out) {
+		return _selectInt(_mask, batch.intCols[_leftColIdx], batch.nullCols[_leftColIdx], batch.intCols[_rightColIdx], batch.nullCols[_rightColIdx], sel, count, out);
+	}
+}
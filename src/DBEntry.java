@@ -8,11 +8,13 @@ class TableListDBEntry implements Serializable {
 	public String tableName;
 	public ArrayList<String> pkColumnList;
 	public int refCount;
+	public int keyFormat; // KeyCodec format of the table's BDB keys (entries written before KeyCodec are read as FORMAT_LEGACY)
 	
 	public TableListDBEntry(String tblName, ArrayList<String> pkColList) {
 		tableName = tblName;
 		pkColumnList = new ArrayList<String>(pkColList);
 		refCount = 0;
+		keyFormat = KeyCodec.FORMAT_V1;
 	}
 }
 
@@ -49,3 +51,42 @@ class ForeignKeyListDBEntry implements Serializable {
 		referencedColList = new ArrayList<String>(refedColList);
 	}
 }
+
+class IndexListDBEntry implements Serializable {
+	private static final long serialVersionUID = 3106549870212478731L;
+	
+	public String indexName;
+	public String tableName;
+	public ArrayList<String> columnList; // in the order of index definition
+	
+	public IndexListDBEntry(String idxName, String tblName, ArrayList<String> colList) {
+		indexName = idxName;
+		tableName = tblName;
+		columnList = new ArrayList<String>(colList);
+	}
+}
+
+// Statistics of a table in SCHEMA_TableStats (keyed by table name), maintained by TableStats.
+// Row and null counts are exact. Min / max and the NDV sketches only grow on insert, so after deletes they describe
+// a superset of the records until ANALYZE rebuilds them.
+class TableStatsDBEntry implements Serializable {
+	private static final long serialVersionUID = 2861937413562097284L;
+	
+	public String tableName;
+	public long rowCount;
+	public long[] nullCountList; // per column
+	public DBValue[] minList; // per column, null if the column has no non-null value
+	public DBValue[] maxList;
+	public byte[][] ndvSketchList; // per column, HyperLogLog registers (see TableStats.estimateNDV())
+	public long deletedCount; // records deleted since the last ANALYZE
+	
+	public TableStatsDBEntry(String tblName, int colCount) {
+		tableName = tblName;
+		rowCount = 0;
+		nullCountList = new long[colCount];
+		minList = new DBValue[colCount];
+		maxList = new DBValue[colCount];
+		ndvSketchList = new byte[colCount][TableStats.SKETCH_SIZE];
+		deletedCount = 0;
+	}
+}
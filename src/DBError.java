@@ -177,3 +177,94 @@ class SelectNotUniqueTableRepresentative extends DBError {
 
 
 
+
+//------------- Index -------------------//
+
+// Create Index Error
+class IndexExistenceError extends DBError {
+	public IndexExistenceError() {
+		super("Create index has failed: index with the same name already exists");
+	}
+}
+
+class IndexColumnExistenceError extends DBError {
+	public IndexColumnExistenceError(String colName) {
+		super("Create index has failed: \'" + colName + "\' does not exist");
+	}
+}
+
+class IndexDuplicateColumnError extends DBError {
+	public IndexDuplicateColumnError() {
+		super("Create index has failed: column is duplicated in index definition");
+	}
+}
+
+// Drop Index Error
+class NoSuchIndex extends DBError {
+	public NoSuchIndex() {
+		super("No such index");
+	}
+}
+
+
+//------------- Load Data -------------------//
+
+class LoadDataFileError extends DBError {
+	public LoadDataFileError(String fileName) {
+		super("Load data has failed: cannot read \'" + fileName + "\'");
+	}
+}
+
+class LoadDataFormatError extends DBError {
+	public LoadDataFormatError() {
+		super("Insertion has failed: Malformed CSV line");
+	}
+}
+
+
+//------------- Transaction -------------------//
+
+class TransactionInProgressError extends DBError {
+	public TransactionInProgressError() {
+		super("Begin has failed: a transaction is already in progress");
+	}
+}
+
+class NoTransactionError extends DBError {
+	public NoTransactionError(String command) {
+		super(command + " has failed: no transaction is in progress");
+	}
+}
+
+class TransactionAbortedError extends DBError {
+	public TransactionAbortedError(boolean isDeadlock) {
+		super("Transaction aborted: " + (isDeadlock ? "deadlock" : "lock timeout"));
+	}
+}
+
+class NoSuchDurabilityError extends DBError {
+	public NoSuchDurabilityError(String level) {
+		super("Set durability has failed: \'" + level + "\' is not a durability level");
+	}
+}
+
+
+//------------- Prepared Statement -------------------//
+
+class NoSuchPreparedStatement extends DBError {
+	public NoSuchPreparedStatement(String name) {
+		super("Execute has failed: no prepared statement named \'" + name + "\'");
+	}
+}
+
+class PreparedStatementInvalid extends DBError {
+	public PreparedStatementInvalid(String name) {
+		super("Execute has failed: prepared statement \'" + name + "\' is no longer valid");
+	}
+}
+
+class ExecuteParameterCountError extends DBError {
+	public ExecuteParameterCountError(String name, int expectedCount, int givenCount) {
+		super("Execute has failed: \'" + name + "\' takes " + expectedCount + " parameter(s), " + givenCount + " given");
+	}
+}
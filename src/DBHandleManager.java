@@ -0,0 +1,195 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import com.sleepycat.je.Database;
+import com.sleepycat.je.DatabaseConfig;
+import com.sleepycat.je.DatabaseNotFoundException;
+import com.sleepycat.je.Environment;
+import com.sleepycat.je.SecondaryConfig;
+import com.sleepycat.je.SecondaryDatabase;
+import com.sleepycat.je.Transaction;
+
+// Keeps Database handles open for the life of the Environment.
+// Handles returned by open() are shared, so callers must not close them;
+// use close(name) before removing or renaming the database instead.
+// Secondary databases are closed together with (and before) their primary database.
+//
+// Handles are shared by all sessions, so they are opened outside of the transaction bound to the calling thread:
+// a handle opened by a transaction becomes invalid when the transaction is aborted.
+// Databases created by open() therefore exist even if the statement which created them is rolled back.
+//
+// A session may still have cursors on a handle another session wants to close (e.g. the workers of a
+// ParallelTableScan while DROP TABLE runs), and a read committed statement does not keep the lock on the catalog
+// record of its table. So each statement run by the parser holds the shared use lock (beginUse() / endUse()), and
+// close() takes it exclusively: it waits until the statements of the other sessions ended, and keeps it until
+// the end of its own statement, so that no session opens the handle again before the database is removed.
+public class DBHandleManager {
+	private Environment _env;
+	private ReentrantReadWriteLock _useLock;
+	private HashMap<String, Database> _handleMap;
+	private HashMap<String, ArrayList<String>> _secondaryNameMap; // primary name -> names of its open secondaries
+	private long _openCount; // handles actually opened through the environment
+	private long _opensAvoided; // open requests served by an already opened handle
+
+	public DBHandleManager(Environment env) {
+		_env = env;
+		_useLock = new ReentrantReadWriteLock();
+		_handleMap = new HashMap<String, Database>();
+		_secondaryNameMap = new HashMap<String, ArrayList<String>>();
+		_openCount = 0;
+		_opensAvoided = 0;
+	}
+
+	public Database open(String dbName) {
+		return open(dbName, MyInterpreter._dbOpenOrCreateCfg);
+	}
+
+	// cfg is only used when the handle is not open yet (e.g. _dbOpenOnlyCfg still throws DatabaseNotFoundException).
+	public synchronized Database open(String dbName, DatabaseConfig cfg) {
+		Database db = _handleMap.get(dbName);
+		if(db != null) {
+			_opensAvoided++;
+			return db;
+		}
+
+		Transaction threadTxn = _env.getThreadTransaction();
+		_env.setThreadTransaction(null);
+		try {
+			db = _env.openDatabase(null, dbName, cfg);
+		}
+		finally {
+			_env.setThreadTransaction(threadTxn);
+		}
+		_handleMap.put(dbName, db);
+		_openCount++;
+		return db;
+	}
+
+	// The primary must have been opened through this manager.
+	public synchronized SecondaryDatabase openSecondary(String dbName, String primaryName, SecondaryConfig cfg) {
+		Database db = _handleMap.get(dbName);
+		if(db != null) {
+			_opensAvoided++;
+			return (SecondaryDatabase)db;
+		}
+		
+		SecondaryDatabase secondary;
+		Transaction threadTxn = _env.getThreadTransaction();
+		_env.setThreadTransaction(null);
+		try {
+			secondary = _env.openSecondaryDatabase(null, dbName, _handleMap.get(primaryName), cfg);
+		}
+		finally {
+			_env.setThreadTransaction(threadTxn);
+		}
+		_handleMap.put(dbName, secondary);
+		if(!_secondaryNameMap.containsKey(primaryName))
+			_secondaryNameMap.put(primaryName, new ArrayList<String>());
+		_secondaryNameMap.get(primaryName).add(dbName);
+		_openCount++;
+		return secondary;
+	}
+	
+	public synchronized boolean isOpen(String dbName) {
+		return _handleMap.containsKey(dbName);
+	}
+
+	// Called when a statement starts, before it uses any handle.
+	public void beginUse() {
+		_useLock.readLock().lock();
+	}
+
+	// Called when a statement ends. Releases the use lock of the statement, shared or exclusive (see close()).
+	// Nothing happens if the statement does not hold it.
+	public void endUse() {
+		while(_useLock.isWriteLockedByCurrentThread())
+			_useLock.writeLock().unlock();
+		for(int i = _useLock.getReadHoldCount(); i > 0; i--)
+			_useLock.readLock().unlock();
+	}
+
+	// Takes the use lock exclusively for the running statement, until endUse().
+	// A statement which drops databases calls it before it locks any record, so that the statements it waits for
+	// never wait for its own record locks. Does nothing outside of a statement.
+	public void lockExclusive() {
+		if(_isInStatement())
+			_lockExclusive();
+	}
+
+	// Outside of a statement, the use lock is only held exclusively while the handle is closed
+	public void close(String dbName) {
+		boolean isInStatement = _isInStatement();
+		_lockExclusive(); // Not while holding the monitor, which the statements waited for may need
+		try {
+			_close(dbName);
+		}
+		finally {
+			if(!isInStatement) endUse();
+		}
+	}
+
+	private boolean _isInStatement() {
+		return _useLock.getReadHoldCount() > 0 || _useLock.isWriteLockedByCurrentThread();
+	}
+
+	private void _lockExclusive() {
+		if(_useLock.isWriteLockedByCurrentThread()) return;
+		
+		// The shared lock of the statement cannot be upgraded
+		for(int i = _useLock.getReadHoldCount(); i > 0; i--)
+			_useLock.readLock().unlock();
+		_useLock.writeLock().lock();
+	}
+
+	private synchronized void _close(String dbName) {
+		ArrayList<String> secondaryNameList = _secondaryNameMap.remove(dbName);
+		if(secondaryNameList != null) {
+			for(String secondaryName : secondaryNameList)
+				_close(secondaryName);
+		}
+		for(ArrayList<String> nameList : _secondaryNameMap.values())
+			nameList.remove(dbName);
+		
+		Database db = _handleMap.remove(dbName);
+		if(db != null)
+			db.close();
+	}
+
+	public void closeAll() {
+		boolean isInStatement = _isInStatement();
+		_lockExclusive();
+		try {
+			synchronized(this) {
+				for(String dbName : new ArrayList<String>(_handleMap.keySet()))
+					_close(dbName);
+			}
+		}
+		finally {
+			if(!isInStatement) endUse();
+		}
+	}
+
+	// Removes a database left behind by a rolled back statement (see open()), outside of any transaction.
+	// Nothing happens if it does not exist.
+	public void removeUncommitted(String dbName) {
+		close(dbName);
+		Transaction threadTxn = _env.getThreadTransaction();
+		_env.setThreadTransaction(null);
+		try {
+			_env.removeDatabase(null, dbName);
+		}
+		catch(DatabaseNotFoundException e) {}
+		finally {
+			_env.setThreadTransaction(threadTxn);
+		}
+	}
+
+	public synchronized long getOpenCount() {
+		return _openCount;
+	}
+
+	public synchronized long getOpensAvoided() {
+		return _opensAvoided;
+	}
+}
@@ -1,34 +1,47 @@
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
 import java.util.ArrayList;
 
 public class DBValue implements Serializable {
 	private static final long serialVersionUID = -1796410168769767330L;
 	
+	// Legacy rows (see RowCodec) are serialized DBValues whose date is an ArrayList<Integer> of (year, month, day).
+	// The serialized form keeps that layout, so they are still readable and rows written by toBytes() are unchanged.
+	private static final ObjectStreamField[] serialPersistentFields = {
+		new ObjectStreamField("valueType", DBType.DBTypeSpecifier.class),
+		new ObjectStreamField("intVal", int.class),
+		new ObjectStreamField("charVal", String.class),
+		new ObjectStreamField("dateVal", ArrayList.class)
+	};
+	
+	// Shared null value for decoded records. Never modified, as only DB_CHAR values are (trimChar).
+	public static final DBValue NULL = new DBValue();
+	
 	public DBType.DBTypeSpecifier valueType;
 	public int intVal;
 	public String charVal;
-	public ArrayList<Integer> dateVal;
+	public int dateVal; // packed as yyyy * 10000 + mm * 100 + dd, so dates compare as ints
 
 	public DBValue(int value) {
 		valueType = DBType.DBTypeSpecifier.DB_INT;
 		intVal = value;
 		charVal = null;
-		dateVal = null;
+		dateVal = 0;
 	}
 	
 	public DBValue(String value) {
 		valueType = DBType.DBTypeSpecifier.DB_CHAR;
 		charVal = value;
 		intVal = 0;
-		dateVal = null;
+		dateVal = 0;
 	}
 	
 	public DBValue(int year, int month, int date) {
 		valueType = DBType.DBTypeSpecifier.DB_DATE;
-		dateVal = new ArrayList<Integer>();
-		dateVal.add(year);
-		dateVal.add(month);
-		dateVal.add(date);
+		dateVal = packDate(year, month, date);
 		intVal = 0;
 		charVal = null;
 	}
@@ -37,7 +50,47 @@ public class DBValue implements Serializable {
 		valueType = DBType.DBTypeSpecifier.DB_NULL;
 		intVal = 0;
 		charVal = null;
-		dateVal = null;
+		dateVal = 0;
+	}
+	
+	public static DBValue fromPackedDate(int packedDate) {
+		DBValue value = new DBValue();
+		value.valueType = DBType.DBTypeSpecifier.DB_DATE;
+		value.dateVal = packedDate;
+		return value;
+	}
+	
+	public static int packDate(int year, int month, int date) {
+		return year * 10000 + month * 100 + date;
+	}
+	
+	// Same as String.format("%04d-%02d-%02d", year, month, date) for a year of at most 4 digits
+	public static String formatDate(int packedDate) {
+		char[] chars = new char[10];
+		int year = packedDate / 10000, month = (packedDate / 100) % 100, date = packedDate % 100;
+		chars[0] = (char)('0' + year / 1000);
+		chars[1] = (char)('0' + (year / 100) % 10);
+		chars[2] = (char)('0' + (year / 10) % 10);
+		chars[3] = (char)('0' + year % 10);
+		chars[4] = '-';
+		chars[5] = (char)('0' + month / 10);
+		chars[6] = (char)('0' + month % 10);
+		chars[7] = '-';
+		chars[8] = (char)('0' + date / 10);
+		chars[9] = (char)('0' + date % 10);
+		return new String(chars);
+	}
+	
+	public int getYear() {
+		return dateVal / 10000;
+	}
+	
+	public int getMonth() {
+		return (dateVal / 100) % 100;
+	}
+	
+	public int getDate() {
+		return dateVal % 100;
 	}
 	
 	public void trimChar(int size) {
@@ -52,7 +105,7 @@ public class DBValue implements Serializable {
 		final int prime = 31;
 		int result = 1;
 		result = prime * result + ((charVal == null) ? 0 : charVal.hashCode());
-		result = prime * result + ((dateVal == null) ? 0 : dateVal.hashCode());
+		result = prime * result + dateVal;
 		result = prime * result + intVal;
 		result = prime * result
 				+ ((valueType == null) ? 0 : valueType.hashCode());
@@ -73,10 +126,7 @@ public class DBValue implements Serializable {
 				return false;
 		} else if (!charVal.equals(other.charVal))
 			return false;
-		if (dateVal == null) {
-			if (other.dateVal != null)
-				return false;
-		} else if (!dateVal.equals(other.dateVal))
+		if (dateVal != other.dateVal)
 			return false;
 		if (intVal != other.intVal)
 			return false;
@@ -92,7 +142,7 @@ public class DBValue implements Serializable {
 		else if(valueType == DBType.DBTypeSpecifier.DB_CHAR)
 			return charVal;
 		else if(valueType == DBType.DBTypeSpecifier.DB_DATE)
-			return String.format("%04d-%02d-%02d", dateVal.get(0), dateVal.get(1), dateVal.get(2));
+			return formatDate(dateVal);
 		else
 			return "NULL";
 	}
@@ -169,56 +219,48 @@ public class DBValue implements Serializable {
 	}
 	
 	private boolean _dateCompare(CompOperator op, DBValue other) {
-		boolean result = false;
-		
 		switch(op) {
 		case OP_GT:
-			result = this.dateVal.get(0).intValue() > other.dateVal.get(0).intValue();
-			if(this.dateVal.get(0).intValue() == other.dateVal.get(0).intValue()) {
-				result = this.dateVal.get(1).intValue() > other.dateVal.get(1).intValue();
-				if(this.dateVal.get(1).intValue() == other.dateVal.get(1).intValue())
-					result = this.dateVal.get(2).intValue() > other.dateVal.get(2).intValue();
-			}
-			break;
+			return this.dateVal > other.dateVal;
 		case OP_LT:
-			result = this.dateVal.get(0).intValue() < other.dateVal.get(0).intValue();
-			if(this.dateVal.get(0).intValue() == other.dateVal.get(0).intValue()) {
-				result = this.dateVal.get(1).intValue() < other.dateVal.get(1).intValue();
-				if(this.dateVal.get(1).intValue() == other.dateVal.get(1).intValue())
-					result = this.dateVal.get(2).intValue() < other.dateVal.get(2).intValue();
-			}
-			break;
+			return this.dateVal < other.dateVal;
 		case OP_GE:
-			result = this.dateVal.get(0).intValue() > other.dateVal.get(0).intValue();
-			if(this.dateVal.get(0).intValue() == other.dateVal.get(0).intValue()) {
-				result = this.dateVal.get(1).intValue() > other.dateVal.get(1).intValue();
-				if(this.dateVal.get(1).intValue() == other.dateVal.get(1).intValue())
-					result = this.dateVal.get(2).intValue() >= other.dateVal.get(2).intValue();
-			}
-			break;
+			return this.dateVal >= other.dateVal;
 		case OP_LE:
-			result = this.dateVal.get(0).intValue() < other.dateVal.get(0).intValue();
-			if(this.dateVal.get(0).intValue() == other.dateVal.get(0).intValue()) {
-				result = this.dateVal.get(1).intValue() < other.dateVal.get(1).intValue();
-				if(this.dateVal.get(1).intValue() == other.dateVal.get(1).intValue())
-					result = this.dateVal.get(2).intValue() <= other.dateVal.get(2).intValue();
-			}
-			break;
+			return this.dateVal <= other.dateVal;
 		case OP_EQ:
-			result = this.dateVal.get(0).intValue() == other.dateVal.get(0).intValue();
-			result = result && (this.dateVal.get(1).intValue() == other.dateVal.get(1).intValue());
-			result = result && (this.dateVal.get(2).intValue() == other.dateVal.get(2).intValue());
-			break;
+			return this.dateVal == other.dateVal;
 		case OP_NEQ:
-			result = this.dateVal.get(0).intValue() != other.dateVal.get(0).intValue();
-			result = result || (this.dateVal.get(1).intValue() != other.dateVal.get(1).intValue());
-			result = result || (this.dateVal.get(2).intValue() != other.dateVal.get(2).intValue());
-			break;
+			return this.dateVal != other.dateVal;
 		default:
-			break;
+			return false;
 		}
-		
-		return result;
+	}
+	
+	private void writeObject(ObjectOutputStream out) throws IOException {
+		ObjectOutputStream.PutField fields = out.putFields();
+		fields.put("valueType", valueType);
+		fields.put("intVal", intVal);
+		fields.put("charVal", charVal);
+		ArrayList<Integer> ymd = null;
+		if(valueType == DBType.DBTypeSpecifier.DB_DATE) {
+			ymd = new ArrayList<Integer>();
+			ymd.add(getYear());
+			ymd.add(getMonth());
+			ymd.add(getDate());
+		}
+		fields.put("dateVal", ymd);
+		out.writeFields();
+	}
+	
+	@SuppressWarnings("unchecked")
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		ObjectInputStream.GetField fields = in.readFields();
+		valueType = (DBType.DBTypeSpecifier)fields.get("valueType", null);
+		intVal = fields.get("intVal", 0);
+		charVal = (String)fields.get("charVal", null);
+		ArrayList<Integer> ymd = (ArrayList<Integer>)fields.get("dateVal", null);
+		dateVal = (ymd == null) ? 0 : packDate(ymd.get(0), ymd.get(1), ymd.get(2));
 	}
 	
 }
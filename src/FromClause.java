@@ -20,46 +20,32 @@ public class FromClause {
 
 	public FromClause(ArrayList<String> tableNameList, ArrayList<String> aliasList) throws DBError {
 		MyInterpreter interpreter = MyInterpreter.getInstance();
-		Database tableList = interpreter.myDBEnv.openDatabase(null, "SCHEMA_TableList", MyInterpreter._dbOpenOrCreateCfg);
 		
-		try {
-			_tableNameList = tableNameList;
-			_columnRefMap = new HashMap<String, HashMap<String, Integer>>();
-			int recordIdx = 0;
-			for(int i = 0; i < tableNameList.size(); i++) {
-				HashMap<String, Integer> columnIndexMap = new HashMap<String, Integer>();
-				String currTblName = tableNameList.get(i);
-				
-				// Check if current table exists
-				DatabaseEntry tblNameKey = new DatabaseEntry(currTblName.getBytes("UTF-8"));
-				DatabaseEntry tmp = new DatabaseEntry();
-				
-				if(tableList.get(null, tblNameKey, tmp, LockMode.DEFAULT) != OperationStatus.SUCCESS) {
-					tableList.close();
-					throw new SelectTableExistenceError(currTblName); // For DELETE, pre-checking must be needed.
-				}
-				
-				// Load column schema for current table
-				ArrayList<ColumnListDBEntry> colList = interpreter.getColumnSchema(currTblName);
-				for(ColumnListDBEntry currCol : colList) {
-					columnIndexMap.put(currCol.columnName, recordIdx);
-					recordIdx++;
-				}
-				
-				// if rename not exists, then choose the original table name.
-				String refTblName = (aliasList.get(i) == null) ? currTblName : aliasList.get(i);
-				
-				if(_columnRefMap.containsKey(refTblName)) {
-					tableList.close();
-					throw new SelectNotUniqueTableRepresentative(refTblName);
-				}
-				else
-					_columnRefMap.put(refTblName, columnIndexMap);
+		_tableNameList = tableNameList;
+		_columnRefMap = new HashMap<String, HashMap<String, Integer>>();
+		int recordIdx = 0;
+		for(int i = 0; i < tableNameList.size(); i++) {
+			HashMap<String, Integer> columnIndexMap = new HashMap<String, Integer>();
+			String currTblName = tableNameList.get(i);
+			
+			// Check if current table exists
+			TableMeta tableMeta = interpreter.getTableMeta(currTblName);
+			if(tableMeta == null)
+				throw new SelectTableExistenceError(currTblName); // For DELETE, pre-checking must be needed.
+			
+			// Load column schema for current table
+			for(ColumnListDBEntry currCol : tableMeta.columnList) {
+				columnIndexMap.put(currCol.columnName, recordIdx);
+				recordIdx++;
 			}
-		} catch (UnsupportedEncodingException e) {
-			e.printStackTrace();
-		} finally {
-			tableList.close();
+			
+			// if rename not exists, then choose the original table name.
+			String refTblName = (aliasList.get(i) == null) ? currTblName : aliasList.get(i);
+			
+			if(_columnRefMap.containsKey(refTblName))
+				throw new SelectNotUniqueTableRepresentative(refTblName);
+			else
+				_columnRefMap.put(refTblName, columnIndexMap);
 		}
 	}
 	
@@ -1,154 +1,87 @@
-import java.io.UnsupportedEncodingException;
-import java.util.HashMap;
 import java.util.ArrayList;
 
-import com.sleepycat.je.Database;
-import com.sleepycat.je.DatabaseException;
-import com.sleepycat.je.DatabaseEntry;
-import com.sleepycat.je.DatabaseConfig;
-import com.sleepycat.je.DatabaseNotFoundException;
-import com.sleepycat.je.LockMode;
-import com.sleepycat.je.OperationStatus;
-import com.sleepycat.je.Cursor;
-import com.sleepycat.je.Environment;
-import com.sleepycat.je.EnvironmentConfig;
-
+// Iterates records of the FROM clause (joined in FromClause column layout) which satisfy the WHERE clause.
+// Records are produced by the plan built by QueryPlanner, a batch at a time (RecordSource.nextBatch()),
+// and can be taken one by one (getNext()) or by batch (getNextBatch()); the two must not be mixed.
 public class JoinRecordIterator {
-	
-	private ArrayList<Database> _dbList;
-	private ArrayList<Cursor> _cursorList;
-	private ArrayList<Integer> _tableSizeList;
-	private int[] _currTableIdxList;
+
 	private boolean _isEnd;
-	//private boolean _isInitialState;
+	private RecordSource _plan;
+	private RowBatch _batch; // has a selected record at _batchPos unless _isEnd or consumed
+	private int _batchPos;
 
-	public JoinRecordIterator(ArrayList<String> tableNameList) { // tableNameList must be validated first (with FromClause).
-		_isEnd = false;
-		_dbList = new ArrayList<Database>();
-		_cursorList = new ArrayList<Cursor>();
-		_tableSizeList = new ArrayList<Integer>();
-		
-		_currTableIdxList = new int[tableNameList.size()];
-		
+	public JoinRecordIterator(ArrayList<String> tableNameList, BoolTree where) throws DBError { // tableNameList must be validated first (with FromClause).
+		this(tableNameList, where, false);
+	}
+
+	// isTimed: the operators of the plan measure their times, for EXPLAIN ANALYZE (see OperatorStats)
+	public JoinRecordIterator(ArrayList<String> tableNameList, BoolTree where, boolean isTimed) throws DBError {
+		this(tableNameList, where, isTimed, null);
+	}
+
+	// joinOrder: the join order kept by a prepared SELECT (see QueryPlanner.buildJoinPlan())
+	public JoinRecordIterator(ArrayList<String> tableNameList, BoolTree where, boolean isTimed, QueryPlanner.JoinOrder joinOrder) throws DBError {
 		MyInterpreter interpreter = MyInterpreter.getInstance();
-		for(int i = 0; i < tableNameList.size(); i++) {
-			String tblName = tableNameList.get(i);
-			Database currDB = interpreter.myDBEnv.openDatabase(null, tblName, MyInterpreter._dbOpenOrCreateCfg);
-			Cursor currCursor = currDB.openCursor(null, null);
-			
-			int currDBSize = (int)currDB.count();
-			_tableSizeList.add(currDBSize);
-			if(currDBSize == 0) _isEnd = true; // if a table has no record, then cartesian product produces no record.
-			
-			currCursor.getFirst(new DatabaseEntry(), new DatabaseEntry(), LockMode.DEFAULT);
-			
-			_dbList.add(currDB);
-			_cursorList.add(currCursor);
-			_currTableIdxList[i] = 0; 
+		ArrayList<DBType.DBTypeSpecifier> colTypeList = new ArrayList<DBType.DBTypeSpecifier>();
+		for(String tableName : tableNameList) {
+			for(ColumnListDBEntry col : interpreter.getTableMeta(tableName).columnList)
+				colTypeList.add(col.columnType.type);
 		}
-	}
-	
-	public void reInit() { // Note. this method must not be called after close() is called.
+
+		_plan = QueryPlanner.buildJoinPlan(tableNameList, where, joinOrder);
+		_plan.setTimed(isTimed);
+		_batch = new RowBatch(colTypeList);
 		_isEnd = false;
-		
-		for(int i = 0; i < _cursorList.size(); i++) {
-			_cursorList.get(i).getFirst(new DatabaseEntry(), new DatabaseEntry(), LockMode.DEFAULT);
-			_currTableIdxList[i] = 0;
+		try {
+			_fetch();
+		}
+		catch(DBError e) { // e.g. WhereIncomparableError, the caller never gets this iterator to close it
+			_plan.close();
+			throw e;
 		}
 	}
-	
+
+	public void reInit() throws DBError { // Note. this method must not be called after close() is called.
+		_plan.reInit();
+		_isEnd = false;
+		_fetch();
+	}
+
 	public void close() {
-		for(int i = 0; i < _dbList.size(); i++) {
-			_cursorList.get(i).close();
-			_dbList.get(i).close();
-		}
-		
+		_plan.close();
+	}
+
+	public RecordSource getPlan() {
+		return _plan;
 	}
-	
-	public boolean hasNext() {
+
+	// The next batch is fetched when the current one has been consumed, so an error of the WHERE clause can be thrown here.
+	public boolean hasNext() throws DBError {
+		if(!_isEnd && _batchPos >= _batch.selCount)
+			_fetch();
 		return !_isEnd;
 	}
-	
-	public ArrayList<DBValue> getNext() {
+
+	public ArrayList<DBValue> getNext() throws DBError {
 		if(!hasNext()) return null; // Check whether next record exists.
-		
-		// Build the record that the cursor currently points to.
-		ArrayList<DBValue> resultRecord = new ArrayList<DBValue>();
-		for(int i = 0; i < _cursorList.size(); i++) {
-			DatabaseEntry foundKey = new DatabaseEntry();
-			DatabaseEntry foundData = new DatabaseEntry();
-			
-			if(_cursorList.get(i).getCurrent(foundKey, foundData, LockMode.DEFAULT) != OperationStatus.SUCCESS) {
-				throw new RuntimeException("Failed to get current record in JoinRecordIterator!!");
-			}
-			
-			ArrayList<DBValue> partialRecord = (ArrayList<DBValue>)MyInterpreter.fromBytes(foundData.getData());
-			
-			resultRecord.addAll(partialRecord);
-		}
-		
-		// Move the cursor to point next record
-		int lastIdx = _cursorList.size() - 1;
-		_currTableIdxList[lastIdx] += 1;
-		for(int i = lastIdx; i >= 0; i--) {
-			if(_currTableIdxList[i] < _tableSizeList.get(i)) {
-				_cursorList.get(i).getNext(new DatabaseEntry(), new DatabaseEntry(), LockMode.DEFAULT);
-				break;
-			}
-			else {
-				if(i > 0) {
-					_currTableIdxList[i] = 0;
-					_currTableIdxList[i-1] += 1;
-					_cursorList.get(i).getFirst(new DatabaseEntry(), new DatabaseEntry(), LockMode.DEFAULT);
-				}
-			}
-		}
-		
-		if(_currTableIdxList[0] >= _tableSizeList.get(0))
-			_isEnd = true;
-		
-		return resultRecord;
-	}
-	
-	public ArrayList<DBValue> getCurrent() { // Only used in DELETE, for the case _dbList.size() == 1
-		if(_dbList.size() != 1) return null;
-		
-		DatabaseEntry foundKey = new DatabaseEntry();
-		DatabaseEntry foundData = new DatabaseEntry();
-		
-		if(_cursorList.get(0).getCurrent(foundKey, foundData, LockMode.DEFAULT) != OperationStatus.SUCCESS) {
-			throw new RuntimeException("Failed to get current record in JoinRecordIterator!!");
-		}
-		
-		ArrayList<DBValue> resultRecord = (ArrayList<DBValue>)MyInterpreter.fromBytes(foundData.getData());
-		
-		return resultRecord;
+
+		return _batch.getRecord(_batch.sel[_batchPos++]);
 	}
-	
-	public void moveNext() { // Only used in DELETE, for the case _dbList.size() == 1
-		if(_dbList.size() != 1) return;
-		
-		_currTableIdxList[0] += 1;
-		if(_currTableIdxList[0] >= _tableSizeList.get(0)) 
-			_isEnd = true;
-		else 
-			_cursorList.get(0).getNext(new DatabaseEntry(), new DatabaseEntry(), LockMode.DEFAULT);
-		
+
+	// The returned batch (at least one selected record) is valid until the next call of this iterator.
+	public RowBatch getNextBatch() throws DBError {
+		if(!hasNext()) return null;
+
+		_batchPos = _batch.selCount;
+		return _batch;
 	}
-	
-	public void removeCurrent() { // Only used in DELETE, for the case _dbList.size() == 1
-		if(_dbList.size() != 1) return;
-		
-		if(_cursorList.get(0).delete() != OperationStatus.SUCCESS) {
-			throw new RuntimeException("Failed to delete current record in JoinRecordIterator!!");
+
+	private void _fetch() throws DBError { // Skips batches with no selected record
+		_batchPos = 0;
+		while(_plan.nextBatch(_batch)) {
+			if(_batch.selCount > 0)
+				return;
 		}
-		
-		_currTableIdxList[0]--;
-		
-		int tblSize = _tableSizeList.get(0);
-		_tableSizeList.remove(0);
-		_tableSizeList.add(tblSize-1);
-		
-		_cursorList.get(0).getPrev(new DatabaseEntry(), new DatabaseEntry(), LockMode.DEFAULT); // TODO What if the first record has been removed?	
+		_isEnd = true;
 	}
 }
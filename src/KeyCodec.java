@@ -0,0 +1,125 @@
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.List;
+
+// Byte-comparable encoding of composite keys (BDB key part).
+// BDB compares keys as unsigned bytes, so the encoded order of keys is the SQL order of their values.
+//
+//   DB_INT  : 4 bytes, big-endian, sign bit flipped (so negative values sort first)
+//   DB_DATE : 4 bytes, big-endian, sign bit flipped, packed as yyyy * 10000 + mm * 100 + dd
+//   DB_CHAR : UTF-8 bytes with 0x00 escaped as 0x00 0xFF, terminated by 0x00 0x00
+//             (a terminated value is never a prefix of another, so "ab" < "ab\0" < "abc")
+//
+// Char values are ordered by code point, which equals String.compareTo() order
+// except for supplementary characters.
+//
+// Keys of secondary indexes (encodeNullable()) may contain nulls, so each value is preceded by a marker byte:
+// 0x00 for null (no value bytes follow) and 0x01 otherwise, which sorts nulls before any other value.
+public class KeyCodec {
+	public static final int FORMAT_LEGACY = 0; // string keys made by recordToBDBString()
+	public static final int FORMAT_V1 = 1;
+
+	public static final byte NULL_MARKER = 0x00;
+	public static final byte VALUE_MARKER = 0x01;
+
+	public static byte[] encode(ArrayList<DBValue> values) {
+		return _encode(values, false);
+	}
+
+	public static byte[] encodeNullable(List<DBValue> values) {
+		return _encode(values, true);
+	}
+
+	// Compares two keys the way BDB does by default (unsigned bytes, a prefix sorts first)
+	public static int compare(byte[] a, byte[] b) {
+		int len = Math.min(a.length, b.length);
+		for(int i = 0; i < len; i++) {
+			int diff = (a[i] & 0xFF) - (b[i] & 0xFF);
+			if(diff != 0) return diff;
+		}
+		return a.length - b.length;
+	}
+	
+	// Compares the first prefix.length bytes of key with prefix (as unsigned bytes)
+	// Since encoded values are never a prefix of each other, 0 means the key starts with the encoded values of prefix.
+	public static int comparePrefix(byte[] key, byte[] prefix) {
+		int len = Math.min(key.length, prefix.length);
+		for(int i = 0; i < len; i++) {
+			int diff = (key[i] & 0xFF) - (prefix[i] & 0xFF);
+			if(diff != 0) return diff;
+		}
+		return (key.length < prefix.length) ? -1 : 0;
+	}
+
+	private static byte[] _encode(List<DBValue> values, boolean withMarker) {
+		int size = withMarker ? values.size() : 0;
+		byte[][] charBytes = new byte[values.size()][];
+		for(int i = 0; i < values.size(); i++) {
+			DBValue v = values.get(i);
+			if(withMarker && v.isNull()) continue;
+			switch(v.valueType) {
+			case DB_INT:
+			case DB_DATE:
+				size += 4;
+				break;
+			case DB_CHAR:
+				charBytes[i] = _utf8(v.charVal);
+				size += charBytes[i].length + 2;
+				for(byte b : charBytes[i])
+					if(b == 0) size++;
+				break;
+			default:
+				throw new RuntimeException("NULL value cannot be a part of key in KeyCodec!!");
+			}
+		}
+
+		byte[] buf = new byte[size];
+		int pos = 0;
+		for(int i = 0; i < values.size(); i++) {
+			DBValue v = values.get(i);
+			if(withMarker) {
+				buf[pos++] = v.isNull() ? NULL_MARKER : VALUE_MARKER;
+				if(v.isNull()) continue;
+			}
+			switch(v.valueType) {
+			case DB_INT:
+				_putSortableInt(buf, pos, v.intVal);
+				pos += 4;
+				break;
+			case DB_DATE:
+				_putSortableInt(buf, pos, v.dateVal);
+				pos += 4;
+				break;
+			case DB_CHAR:
+				for(byte b : charBytes[i]) {
+					buf[pos++] = b;
+					if(b == 0) buf[pos++] = (byte)0xFF;
+				}
+				buf[pos++] = 0;
+				buf[pos++] = 0;
+				break;
+			default:
+				break;
+			}
+		}
+
+		return buf;
+	}
+
+	private static void _putSortableInt(byte[] buf, int pos, int v) {
+		v ^= 0x80000000;
+		buf[pos] = (byte)(v >>> 24);
+		buf[pos+1] = (byte)(v >>> 16);
+		buf[pos+2] = (byte)(v >>> 8);
+		buf[pos+3] = (byte)v;
+	}
+
+	private static byte[] _utf8(String s) {
+		try {
+			return s.getBytes("UTF-8");
+		}
+		catch(UnsupportedEncodingException e) {
+			throw new RuntimeException(e);
+		}
+	}
+}
@@ -0,0 +1,80 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Histogram of latencies in microseconds with log-linear buckets, as in HdrHistogram:
+// values below SUB_BUCKET_COUNT have a bucket each, and every larger power of two [2^e, 2^(e+1)) is split into
+// SUB_BUCKET_COUNT buckets of the same width. So a percentile is reported within 1 / SUB_BUCKET_COUNT (6%) of the
+// recorded value, with a fixed number of buckets up to 2^MAX_EXPONENT us (about 12 days).
+// Recording is lock free, so every session records into the same histogram.
+public class LatencyHistogram {
+	private static final int SUB_BUCKET_BITS = 4;
+	private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+	private static final int MAX_EXPONENT = 40;
+
+	private final AtomicLongArray _countList = new AtomicLongArray((MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKET_COUNT);
+	private final AtomicLong _totalCount = new AtomicLong();
+	private final AtomicLong _sum = new AtomicLong();
+	private final AtomicLong _max = new AtomicLong();
+
+	public void record(long micros) {
+		if(micros < 0) micros = 0;
+		_countList.incrementAndGet(_bucketOf(micros));
+		_totalCount.incrementAndGet();
+		_sum.addAndGet(micros);
+		long max;
+		while(micros > (max = _max.get()) && !_max.compareAndSet(max, micros));
+	}
+
+	public long getCount() {
+		return _totalCount.get();
+	}
+
+	public long getMax() {
+		return _max.get();
+	}
+
+	public long getMean() {
+		long count = _totalCount.get();
+		return (count == 0) ? 0 : _sum.get() / count;
+	}
+
+	// Highest value of the bucket of the value at the given percentile (0 - 100), never more than the max. 0 if empty.
+	public long getPercentile(double percentile) {
+		long count = _totalCount.get();
+		if(count == 0) return 0;
+
+		long rank = Math.max(1, (long)Math.ceil(percentile / 100 * count));
+		long seen = 0;
+		for(int i = 0; i < _countList.length(); i++) {
+			seen += _countList.get(i);
+			if(seen >= rank)
+				return Math.min(_highestValueOf(i), getMax());
+		}
+		return getMax(); // counts recorded meanwhile
+	}
+
+	public void reset() {
+		for(int i = 0; i < _countList.length(); i++)
+			_countList.set(i, 0);
+		_totalCount.set(0);
+		_sum.set(0);
+		_max.set(0);
+	}
+
+	private static int _bucketOf(long value) {
+		if(value < SUB_BUCKET_COUNT)
+			return (int)value;
+		int exponent = Math.min(63 - Long.numberOfLeadingZeros(value), MAX_EXPONENT);
+		int shift = exponent - SUB_BUCKET_BITS;
+		int subBucket = (int)Math.min((value >>> shift) - SUB_BUCKET_COUNT, SUB_BUCKET_COUNT - 1); // a value over 2^MAX_EXPONENT goes to the last bucket
+		return (shift + 1) * SUB_BUCKET_COUNT + subBucket;
+	}
+
+	private static long _highestValueOf(int bucket) {
+		if(bucket < SUB_BUCKET_COUNT)
+			return bucket;
+		int shift = bucket / SUB_BUCKET_COUNT - 1;
+		long subBucket = bucket % SUB_BUCKET_COUNT;
+		return ((SUB_BUCKET_COUNT + subBucket + 1) << shift) - 1;
+	}
+}
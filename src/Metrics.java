@@ -0,0 +1,247 @@
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import com.sleepycat.je.Environment;
+import com.sleepycat.je.EnvironmentStats;
+import com.sleepycat.je.StatsConfig;
+
+enum StatementKind { CREATE, DROP, INSERT, SELECT, DELETE };
+
+// Telemetry of the statements run by MyInterpreter, shared by all sessions. Per statement kind:
+//   - the number of statements, and of errors by DBError class,
+//   - a latency histogram (LatencyHistogram) of the execution, not including the commit of the statement transaction,
+//   - rows scanned (read from tables) and returned (SELECT) or affected (INSERT, DELETE),
+//   - the time spent in referential integrity checks.
+// JE environment statistics are read when a report is made.
+//
+// Printed by SHOW STATS, and registered as the MBean MBEAN_NAME so that it can be scraped over JMX while the process runs.
+public class Metrics implements MetricsMXBean {
+	public static final String MBEAN_NAME = "SimpleDBMS:type=Metrics";
+	private static final double[] PERCENTILE_LIST = { 50, 90, 99, 99.9 };
+
+	private final EnumMap<StatementKind, StatementMetrics> _metricsPerKind;
+	private final Environment _env;
+	private ObjectName _registeredName; // null if not registered
+
+	public Metrics(Environment env) {
+		_env = env;
+		_metricsPerKind = new EnumMap<StatementKind, StatementMetrics>(StatementKind.class);
+		for(StatementKind kind : StatementKind.values())
+			_metricsPerKind.put(kind, new StatementMetrics());
+		_registeredName = null;
+	}
+
+	// A statement of the kind starts; the caller must call end() on the returned sample once it is done.
+	public StatementSample begin(StatementKind kind) {
+		return new StatementSample(_metricsPerKind.get(kind));
+	}
+
+	// A failure only leaves the MBean out, as the metrics are still printed by SHOW STATS.
+	public void register() {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName(MBEAN_NAME);
+			if(server.isRegistered(name))
+				server.unregisterMBean(name); // left by an interpreter which was not terminated
+			server.registerMBean(this, name);
+			_registeredName = name;
+		}
+		catch(JMException e) {
+			_registeredName = null;
+		}
+	}
+
+	public void unregister() {
+		if(_registeredName == null) return;
+		try {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(_registeredName);
+		}
+		catch(JMException e) {
+		}
+		_registeredName = null;
+	}
+
+	@Override
+	public Map<String, Long> getStatementCounters() {
+		LinkedHashMap<String, Long> counterMap = new LinkedHashMap<String, Long>();
+		for(StatementKind kind : StatementKind.values()) {
+			String prefix = kind.name().toLowerCase() + ".";
+			StatementMetrics metrics = _metricsPerKind.get(kind);
+			counterMap.put(prefix + "count", metrics.count.get());
+			counterMap.put(prefix + "errors", metrics.errorCount.get());
+			for(Map.Entry<String, Long> error : metrics.getErrorCounts().entrySet())
+				counterMap.put(prefix + "errors." + error.getKey(), error.getValue());
+			for(double percentile : PERCENTILE_LIST)
+				counterMap.put(prefix + "latency_us.p" + _formatPercentile(percentile), metrics.latency.getPercentile(percentile));
+			counterMap.put(prefix + "latency_us.max", metrics.latency.getMax());
+			counterMap.put(prefix + "latency_us.mean", metrics.latency.getMean());
+			counterMap.put(prefix + "rows_scanned", metrics.rowsScanned.get());
+			counterMap.put(prefix + "rows_returned", metrics.rowsReturned.get());
+			counterMap.put(prefix + "ref_check_us", metrics.refCheckNanos.get() / 1000);
+		}
+		return counterMap;
+	}
+
+	@Override
+	public double getCacheHitRatio() {
+		EnvironmentStats stats = _getEnvStats(true);
+		long fetchCount = stats.getNBINsFetch() + stats.getNLNsFetch();
+		long missCount = stats.getNBINsFetchMiss() + stats.getNLNsFetchMiss();
+		return (fetchCount == 0) ? 1 : 1 - (double)missCount / fetchCount;
+	}
+
+	@Override
+	public int getLogUtilization() {
+		return _getEnvStats(false).getCurrentMinUtilization();
+	}
+
+	@Override
+	public long getLogSize() {
+		return _getLogFileBytes();
+	}
+
+	@Override
+	public String getReport() {
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		PrintStream out = new PrintStream(buffer);
+		print(out);
+		out.flush();
+		return buffer.toString();
+	}
+
+	@Override
+	public void reset() {
+		for(StatementMetrics metrics : _metricsPerKind.values())
+			metrics.reset();
+	}
+
+	public void print(PrintStream out) {
+		out.println("-------------------------------------------------");
+		out.printf("%-10s%-10s%-10s%-12s%-12s%-12s%-12s%-15s%-15s%-15s\n", "statement", "count", "errors", "p50(us)", "p90(us)", "p99(us)", "max(us)",
+				"rows_scanned", "rows_returned", "ref_check(ms)");
+		for(StatementKind kind : StatementKind.values()) {
+			StatementMetrics metrics = _metricsPerKind.get(kind);
+			out.printf("%-10s%-10d%-10d%-12d%-12d%-12d%-12d%-15d%-15d%-15.3f\n", kind.name().toLowerCase(), metrics.count.get(), metrics.errorCount.get(),
+					metrics.latency.getPercentile(50), metrics.latency.getPercentile(90), metrics.latency.getPercentile(99), metrics.latency.getMax(),
+					metrics.rowsScanned.get(), metrics.rowsReturned.get(), metrics.refCheckNanos.get() / 1e6);
+		}
+
+		boolean hasError = false;
+		for(StatementKind kind : StatementKind.values()) {
+			for(Map.Entry<String, Long> error : _metricsPerKind.get(kind).getErrorCounts().entrySet()) {
+				if(!hasError) out.println("errors:");
+				hasError = true;
+				out.println("  " + kind.name().toLowerCase() + " " + error.getKey() + " " + error.getValue());
+			}
+		}
+
+		EnvironmentStats stats = _getEnvStats(false);
+		long fetchCount = stats.getNBINsFetch() + stats.getNLNsFetch();
+		long missCount = stats.getNBINsFetchMiss() + stats.getNLNsFetchMiss();
+		out.printf("cache hit ratio %.4f, cache size %d bytes, log utilization %d%%, log size %d bytes\n",
+				(fetchCount == 0) ? 1.0 : 1 - (double)missCount / fetchCount, stats.getCacheTotalBytes(), stats.getCurrentMinUtilization(), _getLogFileBytes());
+		out.println("-------------------------------------------------");
+	}
+
+	// Full stats (isFast false) for the cleaner figures, fast ones are enough for the cache counters
+	private EnvironmentStats _getEnvStats(boolean isFast) {
+		return _env.getStats(new StatsConfig().setFast(isFast));
+	}
+
+	// Bytes of the log files (*.jdb) in the environment directory.
+	// Not EnvironmentStats.getTotalLogSize(), which leaves out what was written to the last file since the last checkpoint.
+	private long _getLogFileBytes() {
+		long size = 0;
+		File[] fileList = _env.getHome().listFiles();
+		if(fileList == null) return 0;
+		for(File file : fileList) {
+			if(file.getName().endsWith(".jdb"))
+				size += file.length();
+		}
+		return size;
+	}
+
+	private static String _formatPercentile(double percentile) { // 50 -> "50", 99.9 -> "999"
+		return (percentile == Math.floor(percentile)) ? Long.toString((long)percentile) : Double.toString(percentile).replace(".", "");
+	}
+}
+
+// Counters of one statement kind, updated concurrently by the sessions
+class StatementMetrics {
+	public final AtomicLong count = new AtomicLong();
+	public final AtomicLong errorCount = new AtomicLong();
+	public final AtomicLong rowsScanned = new AtomicLong();
+	public final AtomicLong rowsReturned = new AtomicLong();
+	public final AtomicLong refCheckNanos = new AtomicLong();
+	public final LatencyHistogram latency = new LatencyHistogram();
+	private final ConcurrentHashMap<String, AtomicLong> _errorCountMap = new ConcurrentHashMap<String, AtomicLong>(); // DBError class name -> count
+
+	public void addError(DBError e) {
+		errorCount.incrementAndGet();
+		String errorName = e.getClass().getSimpleName();
+		AtomicLong errorCounter = _errorCountMap.get(errorName);
+		if(errorCounter == null) {
+			AtomicLong newCounter = new AtomicLong();
+			errorCounter = _errorCountMap.putIfAbsent(errorName, newCounter);
+			if(errorCounter == null)
+				errorCounter = newCounter;
+		}
+		errorCounter.incrementAndGet();
+	}
+
+	public TreeMap<String, Long> getErrorCounts() { // sorted by class name
+		TreeMap<String, Long> errorCounts = new TreeMap<String, Long>();
+		for(Map.Entry<String, AtomicLong> error : _errorCountMap.entrySet())
+			errorCounts.put(error.getKey(), error.getValue().get());
+		return errorCounts;
+	}
+
+	public void reset() {
+		count.set(0);
+		errorCount.set(0);
+		rowsScanned.set(0);
+		rowsReturned.set(0);
+		refCheckNanos.set(0);
+		latency.reset();
+		_errorCountMap.clear();
+	}
+}
+
+// Measures of one running statement, added to its StatementMetrics by end()
+class StatementSample {
+	public long rowsScanned;
+	public long rowsReturned; // or affected
+	public long refCheckNanos;
+
+	private final StatementMetrics _metrics;
+	private final long _startTime;
+
+	public StatementSample(StatementMetrics metrics) {
+		_metrics = metrics;
+		_startTime = System.nanoTime();
+	}
+
+	public void fail(DBError e) {
+		_metrics.addError(e);
+	}
+
+	public void end() {
+		_metrics.count.incrementAndGet();
+		_metrics.latency.record((System.nanoTime() - _startTime) / 1000);
+		_metrics.rowsScanned.addAndGet(rowsScanned);
+		_metrics.rowsReturned.addAndGet(rowsReturned);
+		_metrics.refCheckNanos.addAndGet(refCheckNanos);
+	}
+}
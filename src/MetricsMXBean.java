@@ -0,0 +1,15 @@
+import java.util.Map;
+
+// JMX view of Metrics (registered as Metrics.MBEAN_NAME)
+public interface MetricsMXBean {
+	// Per statement kind, e.g. "select.count", "select.errors.NoSuchTable", "select.latency_us.p99", "delete.ref_check_us"
+	Map<String, Long> getStatementCounters();
+
+	// Of the JE environment
+	double getCacheHitRatio();
+	int getLogUtilization(); // percent of the log that is live data, as estimated by the cleaner
+	long getLogSize(); // bytes of the log files
+
+	String getReport(); // the output of SHOW STATS
+	void reset(); // clears the statement counters
+}
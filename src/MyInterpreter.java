@@ -1,31 +1,51 @@
 // imports
 /* BerkelyDB classes */
+import java.io.BufferedReader;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.io.UnsupportedEncodingException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 import com.sleepycat.je.Database;
 import com.sleepycat.je.DatabaseException;
 import com.sleepycat.je.DatabaseEntry;
 import com.sleepycat.je.DatabaseConfig;
 import com.sleepycat.je.DatabaseNotFoundException;
+import com.sleepycat.je.DeadlockException;
+import com.sleepycat.je.Durability;
 import com.sleepycat.je.LockMode;
 import com.sleepycat.je.OperationStatus;
 import com.sleepycat.je.Cursor;
 import com.sleepycat.je.Environment;
 import com.sleepycat.je.EnvironmentConfig;
+import com.sleepycat.je.LockConflictException;
+import com.sleepycat.je.SecondaryConfig;
+import com.sleepycat.je.SecondaryDatabase;
+import com.sleepycat.je.Transaction;
+import com.sleepycat.je.TransactionConfig;
 
 public class MyInterpreter {
 	
-	private static MyInterpreter _instance;
+	private static volatile MyInterpreter _instance;
+	
+	// Rows of LOAD DATA committed together when it runs outside of BEGIN, so that a large file does not make one transaction
+	// holding a write lock (and undo) for every row
+	public static final int LOAD_DATA_CHUNK_ROWS = 10000;
+	
+	// Directory of the JE environment, "db/" unless this system property is set (e.g. to a temporary directory by bench/)
+	public static final String DB_DIR_PROPERTY = "simpledbms.dbDir";
 	
 	public Environment myDBEnv;
+	private DBHandleManager _handles; // Database handles kept open for the life of myDBEnv
 	
 	public static DatabaseConfig _dbOpenOrCreateCfg;
 	public static DatabaseConfig _dbCreateOnlyCfg;
@@ -35,567 +55,699 @@ public class MyInterpreter {
 		// DatabaseConfigs initiallization.
 		_dbOpenOrCreateCfg = new DatabaseConfig();
 		_dbOpenOrCreateCfg.setAllowCreate(true);
+		_dbOpenOrCreateCfg.setTransactional(true);
 		_dbCreateOnlyCfg = new DatabaseConfig();
 		_dbCreateOnlyCfg.setAllowCreate(true);
 		_dbCreateOnlyCfg.setExclusiveCreate(true);
+		_dbCreateOnlyCfg.setTransactional(true);
 		_dbOpenOnlyCfg = new DatabaseConfig();
+		_dbOpenOnlyCfg.setTransactional(true);
 	}
 	
-	// Queues used in Create Table
-	private LinkedList<ColumnCreateData> createColumnQueue;
-	private LinkedList<PKCreateData> createPKQueue;
-	private LinkedList<FKCreateData> createFKQueue;
+	// The state of each statement stream (CREATE TABLE queues, flags, transactions) is in its Session.
+	// Everything here is shared by all sessions.
 	
-	// Exception flag for Select and Delete (Used in parsing stage)
-	private boolean _queryExecutable;
+	// Catalog cache (resolved table metadata, never modified once built). Cleared by CREATE TABLE / DROP TABLE.
+	// A cache filled from what was read before an invalidation is not kept (see _catalogVersion).
+	// Only committed schema is cached, a transaction with uncommitted DDL does not use it (see _isCatalogShared()).
+	private volatile LinkedHashMap<String, TableListDBEntry> _tableEntryCache; // null if not loaded yet
+	private ConcurrentHashMap<String, TableMeta> _tableMetaCache;
+	private volatile HashMap<String, ArrayList<FKMeta>> _referencingFKCache; // referenced table name -> FKs referencing it, null if not built yet
+	private long _catalogVersion; // incremented by invalidateCatalog(), guarded by this
+	
+	private Metrics _metrics; // per statement kind, also registered as an MBean
 
 	private MyInterpreter() {
 	    // Open Database Environment or if not exists, create one.
 	    EnvironmentConfig envConfig = new EnvironmentConfig();
 	    envConfig.setAllowCreate(true);
-	    myDBEnv = new Environment(new File("db/"), envConfig);
+	    envConfig.setTransactional(true);
+	    File dbDir = new File(System.getProperty(DB_DIR_PROPERTY, "db/"));
+	    dbDir.mkdirs();
+	    myDBEnv = new Environment(dbDir, envConfig);
+	    _handles = new DBHandleManager(myDBEnv);
 	    
-	    // Instanciate Create*Queues
-	    createColumnQueue = new LinkedList<ColumnCreateData>();
-	    createPKQueue = new LinkedList<PKCreateData>();
-	    createFKQueue = new LinkedList<FKCreateData>();
+	    _tableMetaCache = new ConcurrentHashMap<String, TableMeta>();
+	    _catalogVersion = 0;
+	    _metrics = new Metrics(myDBEnv);
+	    _metrics.register();
 	    
+	    // Rewrite tables created by older versions (string keys) with KeyCodec keys
+	    migrateLegacyTables();
 	}
 	 
 	public static MyInterpreter getInstance() {
-		if(_instance == null)
-			_instance = new MyInterpreter();
-		return _instance;
+		MyInterpreter instance = _instance;
+		if(instance == null) {
+			synchronized(MyInterpreter.class) {
+				if(_instance == null)
+					_instance = new MyInterpreter();
+				instance = _instance;
+			}
+		}
+		return instance;
 	}
 	
 	// Top-level interpret methods
-	public void createTable(String tableName) throws DBError {
-		// Open SCHEMA_TableList for CREATE TABLE
-		Database tableListDB = myDBEnv.openDatabase(null, "SCHEMA_TableList", _dbOpenOrCreateCfg);
+	// CREATE, DROP, INSERT, SELECT and DELETE statements are run by runMeasured(), which records them in _metrics.
+	
+	// Body of a statement run by runMeasured(), which adds its rows and times to sample
+	interface MeasuredStatement {
+		void run(StatementSample sample) throws DBError;
+	}
+	
+	private void runMeasured(StatementKind kind, MeasuredStatement statement) throws DBError {
+		StatementSample sample = _metrics.begin(kind);
 		try {
-			DatabaseEntry newTableName = new DatabaseEntry(tableName.getBytes("UTF-8"));
-			DatabaseEntry tmp = new DatabaseEntry(); // used for membership test with Database.get()
-			
-			HashMap<String, ColumnCreateData> columnMap = new HashMap<String, ColumnCreateData>(); // Stores column name and its ColumnCreateData;
-			
-			// Validation 1 - Check TableExistenceError
-			if(tableListDB.get(null, newTableName, tmp, LockMode.DEFAULT) == OperationStatus.SUCCESS) {
-				throw new TableExistenceError();				
-			}
-			
-			// Validation 2 - Check DuplicateColumnDefError & CharLengthError
-			for(ColumnCreateData cd : createColumnQueue) {
-				if(columnMap.containsKey(cd.columnName))
-					throw new DuplicateColumnDefError();
-				if(cd.columnType.type == DBType.DBTypeSpecifier.DB_CHAR && cd.columnType.length < 1)
-					throw new CharLengthError();
-				columnMap.put(cd.columnName, cd); // For Later use
-			}
-			
-			// Validation 3 - Check DuplicatePrimaryKeyDefError
-			if(createPKQueue.size() > 1)
-				throw new DuplicatePrimaryKeyDefError();
-			
-			// Validation 4 - Check NonExistingColumnDefError for PK Definition
-			if(createPKQueue.size() == 1) {
-				PKCreateData pkd = createPKQueue.get(0);
-				for(String col : pkd.columnList) {
-					if(!columnMap.containsKey(col))
-						throw new NonExistingColumnDefError(col);
-				}
-			}
-			
-			// Validation 5 ~ 9 - About foreign keys
-			int idx = 0;
-			for(FKCreateData fkd : createFKQueue) {
-				// Validation 5 - Check NonExistingColumnDefError for FK Definition & DuplicateForeignKeyDefError
-				for(String col : fkd.refingColumnList) {
-					if(!columnMap.containsKey(col))
-						throw new NonExistingColumnDefError(col);
-				}
-				for(int i = 0; i < idx; i++) {
-					boolean sameFK = true;
-					FKCreateData prevFK = createFKQueue.get(i);
-					if(fkd.refingColumnList.size() != prevFK.refingColumnList.size()) continue;
-					for(String col : fkd.refingColumnList) {
-						sameFK = sameFK && prevFK.refingColumnList.contains(col);
-						// if prevFK's referencing column list doesn't contain a col, then sameFK must be false in the end.
+			statement.run(sample);
+		}
+		catch(DBError e) {
+			sample.fail(e);
+			throw e;
+		}
+		finally {
+			sample.end();
+		}
+	}
+	
+	public void createTable(final String tableName) throws DBError {
+		runMeasured(StatementKind.CREATE, new MeasuredStatement() {
+			@Override
+			public void run(StatementSample sample) throws DBError {
+				Session session = Session.current();
+				session.catalogWritten = true; // The catalog cache is invalidated if the transaction is rolled back
+				// Open SCHEMA_TableList for CREATE TABLE
+				Database tableListDB = _handles.open("SCHEMA_TableList");
+				try {
+					DatabaseEntry newTableName = new DatabaseEntry(tableName.getBytes("UTF-8"));
+					DatabaseEntry tmp = new DatabaseEntry(); // used for membership test with Database.get()
+					
+					HashMap<String, ColumnCreateData> columnMap = new HashMap<String, ColumnCreateData>(); // Stores column name and its ColumnCreateData;
+					
+					// Validation 1 - Check TableExistenceError
+					if(tableListDB.get(null, newTableName, tmp, LockMode.DEFAULT) == OperationStatus.SUCCESS) {
+						throw new TableExistenceError();				
 					}
 					
-					if(sameFK) 
-						throw new DuplicateForeignKeyDefError();
-				}
-				
-				// Validation 6 - Check ReferenceTableExistenceError & ReferenceOwnTableError
-				if(fkd.refedTableName.equals(tableName))
-					throw new ReferenceOwnTableError();
-				DatabaseEntry refedTableNameKey = new DatabaseEntry(fkd.refedTableName.getBytes("UTF-8"));
-				if(tableListDB.get(null, refedTableNameKey, tmp, LockMode.DEFAULT) == OperationStatus.NOTFOUND)
-					throw new ReferenceTableExistenceError();
-				
-				// Validation 7 ~ 9 - Check ReferenceColumnExistenceError, ReferenceNonPrimaryKeyError, ReferenceTypeError
-				try {
-					Database refedTableColumnDB = myDBEnv.openDatabase(null, "SCHEMA_COLUMN_"+fkd.refedTableName, _dbOpenOnlyCfg);
+					// Validation 2 - Check DuplicateColumnDefError & CharLengthError
+					for(ColumnCreateData cd : session.createColumnQueue) {
+						if(columnMap.containsKey(cd.columnName))
+							throw new DuplicateColumnDefError();
+						if(cd.columnType.type == DBType.DBTypeSpecifier.DB_CHAR && cd.columnType.length < 1)
+							throw new CharLengthError();
+						columnMap.put(cd.columnName, cd); // For Later use
+					}
 					
-					// Validation 7 - Check ReferenceColumnExistenceError
-					for(String col : fkd.refedColumnList) {
-						DatabaseEntry fkColNameKey = new DatabaseEntry(col.getBytes("UTF-8"));
-						if(refedTableColumnDB.get(null, fkColNameKey, tmp, LockMode.DEFAULT) == OperationStatus.NOTFOUND) {
-							refedTableColumnDB.close();
-							throw new ReferenceColumnExistenceError();
+					// Validation 3 - Check DuplicatePrimaryKeyDefError
+					if(session.createPKQueue.size() > 1)
+						throw new DuplicatePrimaryKeyDefError();
+					
+					// Validation 4 - Check NonExistingColumnDefError for PK Definition
+					if(session.createPKQueue.size() == 1) {
+						PKCreateData pkd = session.createPKQueue.get(0);
+						for(String col : pkd.columnList) {
+							if(!columnMap.containsKey(col))
+								throw new NonExistingColumnDefError(col);
 						}
 					}
 					
-					// Validation 8 - Check ReferenceNonPrimaryKeyError
-					DatabaseEntry resultData = new DatabaseEntry();
-					if(tableListDB.get(null, refedTableNameKey, resultData, LockMode.DEFAULT) == OperationStatus.SUCCESS) {
-						TableListDBEntry refedTableData = (TableListDBEntry)MyInterpreter.fromBytes(resultData.getData());
-						if(fkd.refedColumnList.size() != refedTableData.pkColumnList.size()) {
-							refedTableColumnDB.close();
-							throw new ReferenceNonPrimaryKeyError();
+					// Validation 5 ~ 9 - About foreign keys
+					int idx = 0;
+					for(FKCreateData fkd : session.createFKQueue) {
+						// Validation 5 - Check NonExistingColumnDefError for FK Definition & DuplicateForeignKeyDefError
+						for(String col : fkd.refingColumnList) {
+							if(!columnMap.containsKey(col))
+								throw new NonExistingColumnDefError(col);
 						}
-						for(String col : fkd.refedColumnList) {
-							if(!refedTableData.pkColumnList.contains(col)) {
-								refedTableColumnDB.close();
-								throw new ReferenceNonPrimaryKeyError();
+						for(int i = 0; i < idx; i++) {
+							boolean sameFK = true;
+							FKCreateData prevFK = session.createFKQueue.get(i);
+							if(fkd.refingColumnList.size() != prevFK.refingColumnList.size()) continue;
+							for(String col : fkd.refingColumnList) {
+								sameFK = sameFK && prevFK.refingColumnList.contains(col);
+								// if prevFK's referencing column list doesn't contain a col, then sameFK must be false in the end.
 							}
+							
+							if(sameFK) 
+								throw new DuplicateForeignKeyDefError();
+						}
+						
+						// Validation 6 - Check ReferenceTableExistenceError & ReferenceOwnTableError
+						if(fkd.refedTableName.equals(tableName))
+							throw new ReferenceOwnTableError();
+						DatabaseEntry refedTableNameKey = new DatabaseEntry(fkd.refedTableName.getBytes("UTF-8"));
+						if(tableListDB.get(null, refedTableNameKey, tmp, LockMode.DEFAULT) == OperationStatus.NOTFOUND)
+							throw new ReferenceTableExistenceError();
+						
+						// Validation 7 ~ 9 - Check ReferenceColumnExistenceError, ReferenceNonPrimaryKeyError, ReferenceTypeError
+						try {
+							Database refedTableColumnDB = _handles.open("SCHEMA_COLUMN_"+fkd.refedTableName, _dbOpenOnlyCfg);
+							
+							// Validation 7 - Check ReferenceColumnExistenceError
+							for(String col : fkd.refedColumnList) {
+								DatabaseEntry fkColNameKey = new DatabaseEntry(col.getBytes("UTF-8"));
+								if(refedTableColumnDB.get(null, fkColNameKey, tmp, LockMode.DEFAULT) == OperationStatus.NOTFOUND) {
+									throw new ReferenceColumnExistenceError();
+								}
+							}
+							
+							// Validation 8 - Check ReferenceNonPrimaryKeyError
+							DatabaseEntry resultData = new DatabaseEntry();
+							if(tableListDB.get(null, refedTableNameKey, resultData, LockMode.DEFAULT) == OperationStatus.SUCCESS) {
+								TableListDBEntry refedTableData = (TableListDBEntry)MyInterpreter.fromBytes(resultData.getData());
+								if(fkd.refedColumnList.size() != refedTableData.pkColumnList.size()) {
+									throw new ReferenceNonPrimaryKeyError();
+								}
+								for(String col : fkd.refedColumnList) {
+									if(!refedTableData.pkColumnList.contains(col)) {
+										throw new ReferenceNonPrimaryKeyError();
+									}
+								}
+							}
+							else {
+								throw new RuntimeException("Referenced table schema in SCHEMA_TableList access failed!!");
+							}
+							
+							// Validation 9 - Check ReferenceTypeError
+							if(fkd.refingColumnList.size() != fkd.refedColumnList.size()) {
+								throw new ReferenceTypeError();
+							}
+							for(int i = 0 ; i < fkd.refingColumnList.size(); i++) {
+								DBType refingColType = columnMap.get((fkd.refingColumnList.get(i))).columnType;
+								DBType refedColType;
+								
+								DatabaseEntry fkColNameKey = new DatabaseEntry(fkd.refedColumnList.get(i).getBytes("UTF-8"));
+								if(refedTableColumnDB.get(null, fkColNameKey, resultData, LockMode.DEFAULT) == OperationStatus.SUCCESS) {
+									ColumnListDBEntry refedColData = (ColumnListDBEntry)MyInterpreter.fromBytes(resultData.getData());
+									refedColType = refedColData.columnType;
+									if(!refingColType.equals(refedColType)) {
+										throw new ReferenceTypeError();
+									}
+								}
+								else {
+									throw new RuntimeException("Referenced column schema in SCHEMA_COLUMN_" + fkd.refedTableName + " access failed!!");
+								}
+							}
+						}
+						catch(DatabaseNotFoundException e) {
+							// if referenced table's column database is not exist
+							// in normal situation, this will not happen
+							throw new ReferenceColumnExistenceError(); 			
 						}
+
+						idx++;
+					}
+					
+					// ----- If code reaches here, then there is no problem to create this table! -----------------------------------------
+					ArrayList<String> pkColList;
+					if(session.createPKQueue.size() == 1)
+						pkColList = session.createPKQueue.get(0).columnList;
+					else
+						pkColList = new ArrayList<String>();
+					
+					TableListDBEntry tableEntry = new TableListDBEntry(tableName, pkColList);
+					
+					// Force not null constraint to pk columns
+					for (String col : pkColList) {
+						columnMap.get(col).notNull = true;
 					}
-					else {
-						throw new RuntimeException("Referenced table schema in SCHEMA_TableList access failed!!");
+					
+					// Insert table entry in SCHEMA_TableList DB.
+					DatabaseEntry newTableEntry = new DatabaseEntry(MyInterpreter.toBytes(tableEntry));
+					if(tableListDB.put(null, newTableName, newTableEntry) != OperationStatus.SUCCESS) {
+						throw new RuntimeException("Inserting the new table entry in SCHEMA_TableList failed!!");
 					}
 					
-					// Validation 9 - Check ReferenceTypeError
-					if(fkd.refingColumnList.size() != fkd.refedColumnList.size()) {
-						refedTableColumnDB.close();
-						throw new ReferenceTypeError();
+					// Make a set which contains columns attending in a foreign key.
+					HashSet<String> fkColumnSet = new HashSet<String>();
+					for(FKCreateData fk : session.createFKQueue) {
+						for(String col : fk.refingColumnList)
+							fkColumnSet.add(col);
 					}
-					for(int i = 0 ; i < fkd.refingColumnList.size(); i++) {
-						DBType refingColType = columnMap.get((fkd.refingColumnList.get(i))).columnType;
-						DBType refedColType;
+					
+					// Schema databases are created outside of the statement transaction (see DBHandleManager.open()),
+					// so a rolled back CREATE TABLE leaves them behind
+					_handles.removeUncommitted("SCHEMA_COLUMN_" + tableName);
+					_handles.removeUncommitted("SCHEMA_FOREIGNKEY_" + tableName);
+					
+					// Insert Columns in SCHEMA_COLUMN_<table name> DB
+					Database newColumnDB = _handles.open("SCHEMA_COLUMN_" + tableName, _dbCreateOnlyCfg);
+					int colIdx = 0;
+					while(session.createColumnQueue.size() > 0) {
+						ColumnCreateData newCol = session.createColumnQueue.poll();
+						ColumnListDBEntry newColDBEntry = new ColumnListDBEntry(newCol.columnName, newCol.columnType, colIdx, !newCol.notNull, pkColList.contains(newCol.columnName), fkColumnSet.contains(newCol.columnName));
+						DatabaseEntry newColNameKey = new DatabaseEntry(newCol.columnName.getBytes("UTF-8"));
+						DatabaseEntry newColEntry = new DatabaseEntry(MyInterpreter.toBytes(newColDBEntry));
+						if(newColumnDB.put(null, newColNameKey, newColEntry) != OperationStatus.SUCCESS) {
+							throw new RuntimeException("Inserting the new column entry in SCHEMA_COLUMN_" + tableName + " failed!!");
+						}
+						colIdx++;
+					}
+					
+					// Insert Foreign Keys in SCHEMA_FOREIGNKEY_<table name> DB
+					Database newForeignKeyDB = _handles.open("SCHEMA_FOREIGNKEY_" + tableName, _dbCreateOnlyCfg);
+					while(session.createFKQueue.size() > 0) {
+						FKCreateData newFk = session.createFKQueue.poll();
+						ForeignKeyListDBEntry newFkDBEntry = new ForeignKeyListDBEntry(newFk.refingColumnList, newFk.refedTableName, newFk.refedColumnList);
+						DatabaseEntry newFkRefingKey = new DatabaseEntry(MyInterpreter.toBytes(newFk.refingColumnList));
+						DatabaseEntry newFkEntry = new DatabaseEntry(MyInterpreter.toBytes(newFkDBEntry));
+						if(newForeignKeyDB.put(null, newFkRefingKey, newFkEntry) != OperationStatus.SUCCESS) {
+							throw new RuntimeException("Inserting the new foreign key entry in SCHEMA_FOREIGNKEY_" + tableName + " failed!!");
+						}
 						
-						DatabaseEntry fkColNameKey = new DatabaseEntry(fkd.refedColumnList.get(i).getBytes("UTF-8"));
-						if(refedTableColumnDB.get(null, fkColNameKey, resultData, LockMode.DEFAULT) == OperationStatus.SUCCESS) {
-							ColumnListDBEntry refedColData = (ColumnListDBEntry)MyInterpreter.fromBytes(resultData.getData());
-							refedColType = refedColData.columnType;
-							if(!refingColType.equals(refedColType)) {
-								refedTableColumnDB.close();
-								throw new ReferenceTypeError();
-							}
+						// Update the refCount in tableListDB
+						DatabaseEntry refedTableNameKey = new DatabaseEntry(newFk.refedTableName.getBytes("UTF-8"));
+						DatabaseEntry refedTableEntry = new DatabaseEntry();
+						if(tableListDB.get(null, refedTableNameKey, refedTableEntry, LockMode.DEFAULT) != OperationStatus.SUCCESS) {
+							throw new RuntimeException("Accessing the referenced table entry in SCHEMA_TableList failed!!");
 						}
-						else {
-							throw new RuntimeException("Referenced column schema in SCHEMA_COLUMN_" + fkd.refedTableName + " access failed!!");
+						TableListDBEntry refedTableDBEntry = (TableListDBEntry)MyInterpreter.fromBytes(refedTableEntry.getData());
+						tableListDB.delete(null, refedTableNameKey);
+						refedTableDBEntry.refCount++;
+						refedTableEntry = new DatabaseEntry(MyInterpreter.toBytes(refedTableDBEntry));
+						if(tableListDB.put(null, refedTableNameKey, refedTableEntry) != OperationStatus.SUCCESS) {
+							throw new RuntimeException("Updating the referenced table entry in SCHEMA_TableList failed!!");
 						}
 					}
 					
-					refedTableColumnDB.close();
+					TableStats.create(tableName, colIdx);
+					
+					invalidateCatalog();
+					out().println("\'" + tableName + "\' table is created");
 				}
-				catch(DatabaseNotFoundException e) {
-					// if referenced table's column database is not exist
-					// in normal situation, this will not happen
-					throw new ReferenceColumnExistenceError(); 			
+				catch (DBError e) {
+					throw e;
+				}
+				catch (UnsupportedEncodingException e) {
+					e.printStackTrace();
 				}
-
-				idx++;
-			}
-			
-			// ----- If code reaches here, then there is no problem to create this table! -----------------------------------------
-			ArrayList<String> pkColList;
-			if(createPKQueue.size() == 1)
-				pkColList = createPKQueue.get(0).columnList;
-			else
-				pkColList = new ArrayList<String>();
-			
-			TableListDBEntry tableEntry = new TableListDBEntry(tableName, pkColList);
-			
-			// Force not null constraint to pk columns
-			for (String col : pkColList) {
-				columnMap.get(col).notNull = true;
-			}
-			
-			// Insert table entry in SCHEMA_TableList DB.
-			DatabaseEntry newTableEntry = new DatabaseEntry(MyInterpreter.toBytes(tableEntry));
-			if(tableListDB.put(null, newTableName, newTableEntry) != OperationStatus.SUCCESS) {
-				throw new RuntimeException("Inserting the new table entry in SCHEMA_TableList failed!!");
-			}
-			
-			// Make a set which contains columns attending in a foreign key.
-			HashSet<String> fkColumnSet = new HashSet<String>();
-			for(FKCreateData fk : createFKQueue) {
-				for(String col : fk.refingColumnList)
-					fkColumnSet.add(col);
-			}
-			
-			// Insert Columns in SCHEMA_COLUMN_<table name> DB
-			Database newColumnDB = myDBEnv.openDatabase(null, "SCHEMA_COLUMN_" + tableName, _dbCreateOnlyCfg);
-			int colIdx = 0;
-			while(createColumnQueue.size() > 0) {
-				ColumnCreateData newCol = createColumnQueue.poll();
-				ColumnListDBEntry newColDBEntry = new ColumnListDBEntry(newCol.columnName, newCol.columnType, colIdx, !newCol.notNull, pkColList.contains(newCol.columnName), fkColumnSet.contains(newCol.columnName));
-				DatabaseEntry newColNameKey = new DatabaseEntry(newCol.columnName.getBytes("UTF-8"));
-				DatabaseEntry newColEntry = new DatabaseEntry(MyInterpreter.toBytes(newColDBEntry));
-				if(newColumnDB.put(null, newColNameKey, newColEntry) != OperationStatus.SUCCESS) {
-					throw new RuntimeException("Inserting the new column entry in SCHEMA_COLUMN_" + tableName + " failed!!");
-				}
-				colIdx++;
 			}
-			newColumnDB.close();
-			
-			// Insert Foreign Keys in SCHEMA_FOREIGNKEY_<table name> DB
-			Database newForeignKeyDB = myDBEnv.openDatabase(null, "SCHEMA_FOREIGNKEY_" + tableName, _dbCreateOnlyCfg);
-			while(createFKQueue.size() > 0) {
-				FKCreateData newFk = createFKQueue.poll();
-				ForeignKeyListDBEntry newFkDBEntry = new ForeignKeyListDBEntry(newFk.refingColumnList, newFk.refedTableName, newFk.refedColumnList);
-				DatabaseEntry newFkRefingKey = new DatabaseEntry(MyInterpreter.toBytes(newFk.refingColumnList));
-				DatabaseEntry newFkEntry = new DatabaseEntry(MyInterpreter.toBytes(newFkDBEntry));
-				if(newForeignKeyDB.put(null, newFkRefingKey, newFkEntry) != OperationStatus.SUCCESS) {
-					throw new RuntimeException("Inserting the new foreign key entry in SCHEMA_FOREIGNKEY_" + tableName + " failed!!");
+		});
+	}
+	
+	public void dropTable(final String tableName) throws DBError {
+		runMeasured(StatementKind.DROP, new MeasuredStatement() {
+			@Override
+			public void run(StatementSample sample) throws DBError {
+				Session.current().catalogWritten = true; // The catalog cache is invalidated if the transaction is rolled back
+				_handles.lockExclusive(); // Before any record lock, see DBHandleManager.close()
+				Database tableListDB = _handles.open("SCHEMA_TableList");
+				try {
+					DatabaseEntry tableNameKey = new DatabaseEntry(tableName.getBytes("UTF-8"));
+					DatabaseEntry tableDBEntry = new DatabaseEntry();
+					
+					if(tableListDB.get(null, tableNameKey, tableDBEntry, LockMode.DEFAULT) == OperationStatus.NOTFOUND) {
+						throw new NoSuchTable();
+					}
+					
+					TableListDBEntry tableEntry = (TableListDBEntry)MyInterpreter.fromBytes(tableDBEntry.getData());
+					if(tableEntry.refCount > 0) {
+						throw new DropReferencedTableError(tableName);
+					}
+					List<FKMeta> fkList = getTableMeta(tableName).fkList; // FK indexes to be removed with the table
+					List<IndexMeta> indexList = getTableMeta(tableName).indexList; // indexes to be removed with the table
+					
+					// Decreasing tables' refCount referecned by this table 
+					Database tableForeignKeyDB = _handles.open("SCHEMA_FOREIGNKEY_"+tableName, _dbOpenOnlyCfg);
+					DatabaseEntry foundKey = new DatabaseEntry();
+					DatabaseEntry foundData = new DatabaseEntry();
+					Cursor fkcursor = tableForeignKeyDB.openCursor(null, null);
+					try {
+						while(fkcursor.getNext(foundKey, foundData, LockMode.DEFAULT) == OperationStatus.SUCCESS) {
+							ForeignKeyListDBEntry fkd = (ForeignKeyListDBEntry)MyInterpreter.fromBytes(foundData.getData());
+							DatabaseEntry refedTableNameKey = new DatabaseEntry(fkd.referencedTableName.getBytes("UTF-8"));
+							DatabaseEntry refedTableDBEntry = new DatabaseEntry();
+							
+							tableListDB.get(null, refedTableNameKey, refedTableDBEntry, LockMode.DEFAULT);
+							TableListDBEntry refedTableEntry = (TableListDBEntry)MyInterpreter.fromBytes(refedTableDBEntry.getData());
+							refedTableEntry.refCount--;
+							tableListDB.delete(null, refedTableNameKey);
+							refedTableDBEntry = new DatabaseEntry(MyInterpreter.toBytes(refedTableEntry));
+							tableListDB.put(null, refedTableNameKey, refedTableDBEntry);
+						}
+					}
+					catch(Exception e) {
+						throw e;
+					}
+					finally {
+						fkcursor.close();
+					}
+					tableListDB.delete(null, tableNameKey);
+					TableStats.remove(tableName);
+					
+					// Handles must be closed before the databases are removed (closing the table also closes its FK indexes)
+					_handles.close(tableName);
+					_handles.close("SCHEMA_COLUMN_"+tableName);
+					_handles.close("SCHEMA_FOREIGNKEY_"+tableName);
+					
+					for(FKMeta fk : fkList) {
+						try {
+							myDBEnv.removeDatabase(null, fk.indexName);
+						} catch(DatabaseNotFoundException e) {}
+					}
+					Database indexListDB = _handles.open("SCHEMA_IndexList");
+					for(IndexMeta index : indexList) {
+						indexListDB.delete(null, new DatabaseEntry(index.indexName.getBytes("UTF-8")));
+						try {
+							myDBEnv.removeDatabase(null, index.dbName);
+						} catch(DatabaseNotFoundException e) {}
+					}
+					try {
+						myDBEnv.removeDatabase(null, tableName);
+					} catch(DatabaseNotFoundException e) {}
+						
+					myDBEnv.removeDatabase(null, "SCHEMA_COLUMN_"+tableName);
+					myDBEnv.removeDatabase(null, "SCHEMA_FOREIGNKEY_"+tableName);
+					invalidateCatalog();
+					
+					out().println("\'"+tableName+"\' table is dropped");
 				}
-				
-				// Update the refCount in tableListDB
-				DatabaseEntry refedTableNameKey = new DatabaseEntry(newFk.refedTableName.getBytes("UTF-8"));
-				DatabaseEntry refedTableEntry = new DatabaseEntry();
-				if(tableListDB.get(null, refedTableNameKey, refedTableEntry, LockMode.DEFAULT) != OperationStatus.SUCCESS) {
-					throw new RuntimeException("Accessing the referenced table entry in SCHEMA_TableList failed!!");
-				}
-				TableListDBEntry refedTableDBEntry = (TableListDBEntry)MyInterpreter.fromBytes(refedTableEntry.getData());
-				tableListDB.delete(null, refedTableNameKey);
-				refedTableDBEntry.refCount++;
-				refedTableEntry = new DatabaseEntry(MyInterpreter.toBytes(refedTableDBEntry));
-				if(tableListDB.put(null, refedTableNameKey, refedTableEntry) != OperationStatus.SUCCESS) {
-					throw new RuntimeException("Updating the referenced table entry in SCHEMA_TableList failed!!");
+				catch(DBError e) {
+					throw e;
+				}
+				catch(UnsupportedEncodingException e) {
+					e.printStackTrace();
 				}
 			}
-			newForeignKeyDB.close();
-			
-			tableListDB.close();
-			System.out.println("\'" + tableName + "\' table is created");
-		}
-		catch (DBError e) {
-			tableListDB.close();
-			throw e;
-		}
-		catch (UnsupportedEncodingException e) {
-			tableListDB.close();
-			e.printStackTrace();
-		}
+		});
 	}
 	
-	public void dropTable(String tableName) throws DBError {
-		Database tableListDB = myDBEnv.openDatabase(null, "SCHEMA_TableList", _dbOpenOrCreateCfg);
-		try {
-			DatabaseEntry tableNameKey = new DatabaseEntry(tableName.getBytes("UTF-8"));
-			DatabaseEntry tableDBEntry = new DatabaseEntry();
-			
-			if(tableListDB.get(null, tableNameKey, tableDBEntry, LockMode.DEFAULT) == OperationStatus.NOTFOUND) {
-				throw new NoSuchTable();
-			}
-			
-			TableListDBEntry tableEntry = (TableListDBEntry)MyInterpreter.fromBytes(tableDBEntry.getData());
-			if(tableEntry.refCount > 0) {
-				throw new DropReferencedTableError(tableName);
-			}
-			
-			// Decreasing tables' refCount referecned by this table 
-			Database tableForeignKeyDB = myDBEnv.openDatabase(null, "SCHEMA_FOREIGNKEY_"+tableName, _dbOpenOnlyCfg);
-			DatabaseEntry foundKey = new DatabaseEntry();
-			DatabaseEntry foundData = new DatabaseEntry();
-			Cursor fkcursor = tableForeignKeyDB.openCursor(null, null);
-			try {
-				if(tableForeignKeyDB.count() > 0) {
-					fkcursor.getFirst(foundKey, foundData, LockMode.DEFAULT);
-					do {
-						ForeignKeyListDBEntry fkd = (ForeignKeyListDBEntry)MyInterpreter.fromBytes(foundData.getData());
-						DatabaseEntry refedTableNameKey = new DatabaseEntry(fkd.referencedTableName.getBytes("UTF-8"));
-						DatabaseEntry refedTableDBEntry = new DatabaseEntry();
-						
-						tableListDB.get(null, refedTableNameKey, refedTableDBEntry, LockMode.DEFAULT);
-						TableListDBEntry refedTableEntry = (TableListDBEntry)MyInterpreter.fromBytes(refedTableDBEntry.getData());
-						refedTableEntry.refCount--;
-						tableListDB.delete(null, refedTableNameKey);
-						refedTableDBEntry = new DatabaseEntry(MyInterpreter.toBytes(refedTableEntry));
-						tableListDB.put(null, refedTableNameKey, refedTableDBEntry);
+	public void createIndex(final String indexName, final String tableName, final ArrayList<String> colList) throws DBError {
+		runMeasured(StatementKind.CREATE, new MeasuredStatement() {
+			@Override
+			public void run(StatementSample sample) throws DBError {
+				Session.current().catalogWritten = true; // The catalog cache is invalidated if the transaction is rolled back
+				Database indexListDB = _handles.open("SCHEMA_IndexList");
+				try {
+					DatabaseEntry indexNameKey = new DatabaseEntry(indexName.getBytes("UTF-8"));
+					
+					// Validation 1 - Check IndexExistenceError
+					if(indexListDB.get(null, indexNameKey, new DatabaseEntry(), LockMode.DEFAULT) == OperationStatus.SUCCESS)
+						throw new IndexExistenceError();
+					
+					// Validation 2 - Check NoSuchTable
+					TableMeta tableMeta = getTableMeta(tableName);
+					if(tableMeta == null)
+						throw new NoSuchTable();
+					
+					// Validation 3 - Check IndexColumnExistenceError & IndexDuplicateColumnError
+					HashSet<String> colSet = new HashSet<String>();
+					for(String col : colList) {
+						if(!tableMeta.columnIndexMap.containsKey(col))
+							throw new IndexColumnExistenceError(col);
+						if(!colSet.add(col))
+							throw new IndexDuplicateColumnError();
 					}
-					while(fkcursor.getNext(foundKey, foundData, LockMode.DEFAULT) == OperationStatus.SUCCESS);
+					
+					// ----- If code reaches here, then there is no problem to create this index! -----------------------------------------
+					IndexListDBEntry indexEntry = new IndexListDBEntry(indexName, tableName, colList);
+					if(indexListDB.put(null, indexNameKey, new DatabaseEntry(MyInterpreter.toBytes(indexEntry))) != OperationStatus.SUCCESS) {
+						throw new RuntimeException("Inserting the new index entry in SCHEMA_IndexList failed!!");
+					}
+					_handles.removeUncommitted("INDEX_" + indexName); // Left by an interrupted DROP INDEX, it must be filled again
+					
+					invalidateCatalog();
+					getDatabase(tableName); // Opens the new index, which fills it from the records of the table
+					
+					out().println("\'" + indexName + "\' index is created");
+				}
+				catch(UnsupportedEncodingException e) {
+					e.printStackTrace();
 				}
 			}
-			catch(Exception e) {
-				throw e;
+		});
+	}
+	
+	public void dropIndex(final String indexName) throws DBError {
+		runMeasured(StatementKind.DROP, new MeasuredStatement() {
+			@Override
+			public void run(StatementSample sample) throws DBError {
+				Session.current().catalogWritten = true; // The catalog cache is invalidated if the transaction is rolled back
+				_handles.lockExclusive(); // Before any record lock, see DBHandleManager.close()
+				Database indexListDB = _handles.open("SCHEMA_IndexList");
+				try {
+					DatabaseEntry indexNameKey = new DatabaseEntry(indexName.getBytes("UTF-8"));
+					if(indexListDB.get(null, indexNameKey, new DatabaseEntry(), LockMode.DEFAULT) == OperationStatus.NOTFOUND)
+						throw new NoSuchIndex();
+					
+					indexListDB.delete(null, indexNameKey);
+					_handles.close("INDEX_" + indexName); // Handle must be closed before the database is removed
+					try {
+						myDBEnv.removeDatabase(null, "INDEX_" + indexName);
+					} catch(DatabaseNotFoundException e) {}
+					invalidateCatalog();
+					
+					out().println("\'" + indexName + "\' index is dropped");
+				}
+				catch(UnsupportedEncodingException e) {
+					e.printStackTrace();
+				}
 			}
-			finally {
-				fkcursor.close();
-				tableForeignKeyDB.close();
+		});
+	}
+	
+	public void desc(String tableName) throws DBError {
+		TableMeta tableMeta = getTableMeta(tableName); // Check whether table exists.
+		if(tableMeta == null)
+			throw new NoSuchTable();
+		
+		out().println("-------------------------------------------------");
+		out().println("table_name [" + tableName + "]");
+		out().printf("%-25s%-15s%-15s%-15s\n", "column_name", "type", "null", "key");
+		
+		for(ColumnListDBEntry colDBEntry : tableMeta.columnList) {
+			String isNullable = (colDBEntry.nullable) ? "Y" : "N";
+			String keyType = "";
+			if(colDBEntry.primaryKey) {
+				if(colDBEntry.foreignKey) keyType = "PRI/FOR";
+				else keyType = "PRI";
 			}
-			tableListDB.delete(null, tableNameKey);
+			else if(colDBEntry.foreignKey) keyType = "FOR";
 			
-			try {
-				myDBEnv.removeDatabase(null, tableName);
-			} catch(DatabaseNotFoundException e) {}
-				
-			myDBEnv.removeDatabase(null, "SCHEMA_COLUMN_"+tableName);
-			myDBEnv.removeDatabase(null, "SCHEMA_FOREIGNKEY_"+tableName);
-			
-			System.out.println("\'"+tableName+"\' table is dropped");
-		}
-		catch(DBError e) {
-			throw e;
-		}
-		catch(UnsupportedEncodingException e) {
-			e.printStackTrace();
-		}
-		finally {
-			tableListDB.close();
+			out().printf("%-25s%-15s%-15s%-15s\n", colDBEntry.columnName, colDBEntry.columnType.toString(), isNullable, keyType);
 		}
+		out().println("-------------------------------------------------");
 	}
 	
-	public void desc(String tableName) throws DBError {
-		Database columnDB = null;
-		try {
-			 columnDB = myDBEnv.openDatabase(null, "SCHEMA_COLUMN_"+tableName, _dbOpenOnlyCfg); // Check whether table exists.
-			 columnDB.close();
-			 
-			 ArrayList<ColumnListDBEntry> colSchemaList = getColumnSchema(tableName);
-			 
-			 System.out.println("-------------------------------------------------");
-			 System.out.println("table_name [" + tableName + "]");
-			 System.out.printf("%-25s%-15s%-15s%-15s\n", "column_name", "type", "null", "key");
-			 
-			 for(ColumnListDBEntry colDBEntry : colSchemaList) {
-				 String isNullable = (colDBEntry.nullable) ? "Y" : "N";
-				 String keyType = "";
-				 if(colDBEntry.primaryKey) {
-					 if(colDBEntry.foreignKey) keyType = "PRI/FOR";
-					 else keyType = "PRI";
-				 }
-				 else if(colDBEntry.foreignKey) keyType = "FOR";
-				 
-				 System.out.printf("%-25s%-15s%-15s%-15s\n", colDBEntry.columnName, colDBEntry.columnType.toString(), isNullable, keyType);
-			 }
-			 System.out.println("-------------------------------------------------");
-			 
-
-		}
-		catch(DatabaseNotFoundException e) {
-			if(columnDB != null)
-				columnDB.close();
+	// Rebuilds the statistics of the table (min / max / distinct counts are otherwise only widened by DML) and prints them.
+	public void analyze(String tableName) throws DBError {
+		TableMeta tableMeta = getTableMeta(tableName);
+		if(tableMeta == null)
 			throw new NoSuchTable();
+		
+		TableStatsDBEntry stats = TableStats.analyze(tableMeta);
+		out().println("\'" + tableName + "\' table is analyzed");
+		out().println("-------------------------------------------------");
+		out().println("table_name [" + tableName + "], rows " + stats.rowCount);
+		out().printf("%-25s%-10s%-15s%-15s%-10s\n", "column_name", "nulls", "min", "max", "distinct");
+		for(int i = 0; i < tableMeta.columnCount(); i++) {
+			String min = (stats.minList[i] == null) ? "NULL" : stats.minList[i].toString();
+			String max = (stats.maxList[i] == null) ? "NULL" : stats.maxList[i].toString();
+			out().printf("%-25s%-10d%-15s%-15s%-10d\n", tableMeta.columnList.get(i).columnName, stats.nullCountList[i], min, max, TableStats.estimateNDV(stats, i));
 		}
+		out().println("-------------------------------------------------");
 	}
 	
 	public void showTables() throws DBError{
-		Database tableListDB = myDBEnv.openDatabase(null, "SCHEMA_TableList", _dbOpenOrCreateCfg);
-		try {
-			if(tableListDB.count() <= 0)
-				throw new ShowTablesNoTable();
-			
-			DatabaseEntry foundKey = new DatabaseEntry();
-			DatabaseEntry foundData = new DatabaseEntry();
-			 
-			Cursor tableCursor = tableListDB.openCursor(null, null);
-			 
-			tableCursor.getFirst(foundKey, foundData, LockMode.DEFAULT);
-			
-			System.out.println("----------------");
-			
-			do {
-				 String tableName = new String(foundKey.getData(), "UTF-8");
-				 System.out.println(tableName);
-			}
-			while(tableCursor.getNext(foundKey, foundData, LockMode.DEFAULT) == OperationStatus.SUCCESS);
-			
-			System.out.println("----------------");
-			
-			tableCursor.close();
-		}
-		catch(DBError e) {
-			throw e;
-		}
-		catch(UnsupportedEncodingException e) {
-			e.printStackTrace();
-		}
-		finally {
-			tableListDB.close();
-		}
+		ArrayList<String> tableNameList = getTableList();
+		if(tableNameList.size() <= 0)
+			throw new ShowTablesNoTable();
+		
+		out().println("----------------");
+		for(String tableName : tableNameList)
+			out().println(tableName);
+		out().println("----------------");
 	}
 	
-	public void insertInto(String tableName, ArrayList<String> colList, ArrayList<DBValue> valList) throws DBError {
-		// Open SCHEMA_TableList for INSERT INTO
-		Database tableListDB = myDBEnv.openDatabase(null, "SCHEMA_TableList", _dbOpenOrCreateCfg);
-		try 
-		{
-			DatabaseEntry tableNameKey = new DatabaseEntry(tableName.getBytes("UTF-8"));
-			DatabaseEntry tableDBEntry = new DatabaseEntry();
-			
-			if(tableListDB.get(null, tableNameKey, tableDBEntry, LockMode.DEFAULT) == OperationStatus.NOTFOUND) {
-				throw new NoSuchTable();
-			}
-			
-			ArrayList<ColumnListDBEntry> colSchema = getColumnSchema(tableName);
-			
-			// Checks the number of columns
-			if(colList.size() == 0) {
-				if(valList.size() != colSchema.size()) throw new InsertTypeMismatchError();
-			}
-			else {
-				if(valList.size() != colList.size()) throw new InsertTypeMismatchError();
-			}
-			
-			// Make a map for column name and its schema
-			HashMap<String, ColumnListDBEntry> colSchemaMap = new HashMap<String, ColumnListDBEntry>();
-			for(ColumnListDBEntry c : colSchema) {
-				colSchemaMap.put(c.columnName, c);
-			}
-			
-			// Make a map for column name and its DBValue (map between colList and valList)
-			HashMap<String, DBValue> colListMap = new HashMap<String, DBValue>();
-			for(int i = 0; i < colList.size(); i++) {
-				String currColName = colList.get(i);
-				if(colListMap.containsKey(currColName) == false && colSchemaMap.containsKey(currColName) == true)
-					colListMap.put(colList.get(i), valList.get(i));
-				else if (colSchemaMap.containsKey(currColName) == false) 
-					throw new InsertColumnExistenceError(currColName);
-				else
-					throw new RuntimeException("Unexpected Error: Column names are duplicated in insert clause!");
-			}
-			
-			// Make a record to be inserted
-			ArrayList<DBValue> record = new ArrayList<DBValue>();
-			if(colList.size() == 0) {
-				record.addAll(valList);
-			}
-			else {
-				for(int i = 0; i < colSchema.size(); i++) {
-					String currColName = colSchema.get(i).columnName;
-					if(colListMap.containsKey(currColName))
-						record.add(colListMap.get(currColName));
-					else
-						record.add(new DBValue()); // Insert NULL for columns not specified in colList.
+	public void showStats() {
+		_metrics.print(out());
+	}
+	
+	public void insertInto(final String tableName, final ArrayList<String> colList, final ArrayList<DBValue> valList) throws DBError {
+		if(Session.current().isPreparing()) {
+			ArrayList<ArrayList<DBValue>> rowList = new ArrayList<ArrayList<DBValue>>();
+			rowList.add(valList);
+			_prepareInsert(tableName, colList, rowList);
+			return;
+		}
+		runMeasured(StatementKind.INSERT, new MeasuredStatement() {
+			@Override
+			public void run(StatementSample sample) throws DBError {
+				TableMeta tableMeta = getTableMeta(tableName);
+				if(tableMeta == null) {
+					throw new NoSuchTable();
 				}
-			}
-			
-			// Check the record has some problems
-			
-			// Validation 1. Type Matching & Non Null Constraint
-			for(int i = 0; i < colSchema.size(); i++) {
-				DBValue currValue = record.get(i);
-				ColumnListDBEntry currColumn = colSchema.get(i);
 				
-				if(currColumn.columnType.type != currValue.valueType) {
-					if(currValue.valueType == DBType.DBTypeSpecifier.DB_NULL) {
-						if(currColumn.nullable == false)
-							throw new InsertColumnNonNullableError(currColumn.columnName);
-					}
-					else
-						throw new InsertTypeMismatchError();
+				RecordInserter inserter = new RecordInserter(tableMeta);
+				try {
+					inserter.insert(colList, valList);
+					sample.rowsReturned = 1;
 				}
-				
-				// Char type truncate
-				if(currColumn.columnType.type == DBType.DBTypeSpecifier.DB_CHAR) {
-					currValue.trimChar(currColumn.columnType.length);
+				finally {
+					sample.refCheckNanos = inserter.getRefCheckNanos();
 				}
+				inserter.flushStats();
+				out().println("The row is inserted");
 			}
-			
-			// Validation 2. Duplicated Priamry Key
-			ArrayList<DBValue> recordPK = new ArrayList<DBValue>();
-			for(int i = 0; i < colSchema.size(); i++) {
-				ColumnListDBEntry currColumn = colSchema.get(i);
-				if(currColumn.primaryKey) 
-					recordPK.add(record.get(i));
-			}
-			Database targetDB = myDBEnv.openDatabase(null, tableName, _dbOpenOrCreateCfg);
-			if(recordPK.size() > 0) {
-				DatabaseEntry pkKey = new DatabaseEntry(MyInterpreter.recordToBDBString(recordPK).getBytes("UTF-8"));
-				DatabaseEntry foundRecord = new DatabaseEntry();
-				if(targetDB.get(null, pkKey, foundRecord, LockMode.DEFAULT) != OperationStatus.NOTFOUND) {
-					targetDB.close();
-					throw new InsertDuplicatePrimaryKeyError();
+		});
+	}
+	
+	// INSERT INTO ... VALUES (...), (...), ...
+	// All rows are inserted or none: the first row that fails is reported, and the rows inserted before it are removed.
+	// (LOAD DATA skips the rows that fail instead.)
+	public void insertRows(final String tableName, final ArrayList<String> colList, final ArrayList<ArrayList<DBValue>> rowList) throws DBError {
+		if(Session.current().isPreparing()) {
+			_prepareInsert(tableName, colList, rowList);
+			return;
+		}
+		runMeasured(StatementKind.INSERT, new MeasuredStatement() {
+			@Override
+			public void run(StatementSample sample) throws DBError {
+				TableMeta tableMeta = getTableMeta(tableName);
+				if(tableMeta == null) {
+					throw new NoSuchTable();
 				}
-			}
-			
-			// Validation 3. Referential Integrity
-			ArrayList<ForeignKeyListDBEntry> fkSchema = getFKSchema(tableName);
-			for(ForeignKeyListDBEntry currFK : fkSchema) {
-				ArrayList<ColumnListDBEntry> refedTableColSchema = getColumnSchema(currFK.referencedTableName);
 				
-				// Extract foreign key from current record (in the order that appers in referenced table)
-				ArrayList<DBValue> currRecordFK = new ArrayList<DBValue>();
-				for(ColumnListDBEntry currCol : refedTableColSchema) {
-					int fkIdx = currFK.referencedColList.indexOf(currCol.columnName);
-					if(fkIdx != -1) {
-						int recordColIdx = colSchemaMap.get(currFK.referencingColList.get(fkIdx)).columnIndex;
-						currRecordFK.add(record.get(recordColIdx));
-					}
+				long startTime = System.nanoTime();
+				RecordInserter inserter = new RecordInserter(tableMeta, true);
+				
+				try {
+					for(ArrayList<DBValue> valList : rowList)
+						inserter.insert(colList, valList);
+				}
+				catch(DBError e) { // All rows or none: the rows inserted before the rejected one are removed
+					inserter.undoInserts();
+					throw e;
 				}
+				finally {
+					sample.refCheckNanos = inserter.getRefCheckNanos();
+				}
+				inserter.flushStats();
+				sample.rowsReturned = rowList.size();
 				
-				// Checks if this FK of current record has a null value (-> always met referential integrity for this FK)
-				boolean hasNull = false;
-				for(DBValue v : currRecordFK) 
-					if(v.isNull()) {
-						hasNull = true;
-						break;
-					}
-				if(hasNull) continue; // Move to the next FK
+				printInsertSummary(rowList.size(), 0, null, startTime);
+			}
+		});
+	}
+	
+	// LOAD DATA 'fileName' INTO tableName
+	// Every non-empty line of the CSV file is a row in the schema order (see RecordInserter.parseCSVLine).
+	// Outside of BEGIN the rows are committed every LOAD_DATA_CHUNK_ROWS lines, so a statement that fails midway keeps the chunks committed before.
+	// Inside BEGIN the whole file belongs to the user transaction.
+	public void loadData(final String fileName, final String tableName) throws DBError {
+		runMeasured(StatementKind.INSERT, new MeasuredStatement() {
+			@Override
+			public void run(StatementSample sample) throws DBError {
+				TableMeta tableMeta = getTableMeta(tableName);
+				if(tableMeta == null) {
+					throw new NoSuchTable();
+				}
 				
-				// Checks if this FK of current record is in the referenced table
-				Database refedTable = myDBEnv.openDatabase(null, currFK.referencedTableName, _dbOpenOrCreateCfg);
-				DatabaseEntry fkKey = new DatabaseEntry(MyInterpreter.recordToBDBString(currRecordFK).getBytes("UTF-8"));
-				DatabaseEntry foundRecord = new DatabaseEntry();
+				long startTime = System.nanoTime();
+				RecordInserter inserter = new RecordInserter(tableMeta);
+				ArrayList<String> noColList = new ArrayList<String>();
+				int insertedCount = 0;
+				int failedCount = 0;
+				int chunkRows = 0;
+				DBError firstError = null;
 				
-				if(refedTable.get(null, fkKey, foundRecord, LockMode.DEFAULT) == OperationStatus.NOTFOUND) {
-					targetDB.close();
-					refedTable.close();
-					throw new InsertReferentialIntegrityError();
+				BufferedReader reader = null;
+				try {
+					reader = new BufferedReader(new InputStreamReader(new FileInputStream(fileName), "UTF-8"), 64 * 1024);
+					String line;
+					while((line = reader.readLine()) != null) {
+						if(line.trim().length() == 0) continue;
+						
+						try {
+							inserter.insert(noColList, inserter.parseCSVLine(line));
+							insertedCount++;
+						}
+						catch(DBError e) {
+							failedCount++;
+							if(firstError == null) firstError = e;
+						}
+						
+						if(++chunkRows >= LOAD_DATA_CHUNK_ROWS && Session.current().statementTxn != null) {
+							inserter.endChunk();
+							commitStatementChunk();
+							chunkRows = 0;
+						}
+					}
 				}
+				catch(IOException e) {
+					throw new LoadDataFileError(fileName);
+				}
+				finally {
+					if(reader != null) {
+						try { reader.close(); } catch(IOException e) {}
+					}
+				}
+				inserter.flushStats();
+				sample.rowsReturned = insertedCount;
+				sample.refCheckNanos = inserter.getRefCheckNanos();
 				
-				refedTable.close();
+				printInsertSummary(insertedCount, failedCount, firstError, startTime);
 			}
-			
-			// ----- If code reaches here, then there is no problem to insert the record! ---------------------------------- 
-			// Insert the record to the BDB
-			DatabaseEntry recordKey;
-			DatabaseEntry recordData = new DatabaseEntry(MyInterpreter.toBytes(record));
-			
-			if(recordPK.size() == 0) { // If this table has no primary key 
-				recordKey = new DatabaseEntry(UUID.randomUUID().toString().getBytes("UTF-8")); // Use Random-Generated UUID for BDB Key
-				while(targetDB.putNoOverwrite(null, recordKey, recordData) == OperationStatus.KEYEXIST ) {
-					recordKey = new DatabaseEntry(UUID.randomUUID().toString().getBytes("UTF-8")); // If conflict occurs, then generate a new key until no conflict occurs. 
+		});
+	}
+	
+	private void printInsertSummary(int insertedCount, int failedCount, DBError firstError, long startTime) {
+		double seconds = (System.nanoTime() - startTime) / 1e9;
+		long rowsPerSec = (seconds > 0) ? (long)(insertedCount / seconds) : insertedCount;
+		
+		out().println(insertedCount + " row(s) are inserted (" + rowsPerSec + " rows/sec)");
+		if(failedCount > 0)
+			out().println(failedCount + " row(s) are not inserted (first error: " + firstError.getMessage() + ")");
+	}
+	
+	public void select(final ArrayList<String> colList, final ArrayList<String> tblList, final ArrayList<String> aliasList, final FromClause from, final BoolTree where) throws DBError {
+		if(Session.current().isPreparing()) { // Resolved now, run by EXECUTE
+			SelectOutput output = _resolveSelectOutput(colList, tblList, aliasList, from);
+			PreparedQuery query = _newPreparedQuery(PreparedQuery.Kind.SELECT);
+			query.tableNameList = from.getTableNameList();
+			query.output = output;
+			query.where = where;
+			return;
+		}
+		runMeasured(StatementKind.SELECT, new MeasuredStatement() {
+			@Override
+			public void run(StatementSample sample) throws DBError {
+				// 1. check columns in select clause are resolverable (select-from check)
+				// 2. print names(or alias) of columns
+				// 3. print selected records (JoinRecordIterator, BoolTree)
+				
+				long startTime = System.nanoTime();
+				ArrayList<String> tableNameList = from.getTableNameList();
+				SelectOutput output = _resolveSelectOutput(colList, tblList, aliasList, from);
+				
+				Session.ExplainMode explainMode = Session.current().explainMode;
+				if(explainMode == Session.ExplainMode.PLAN) {
+					RecordSource plan = QueryPlanner.buildJoinPlan(tableNameList, where);
+					try {
+						PlanExplainer.print(plan, false, out());
+					}
+					finally {
+						plan.close();
+					}
+					return;
 				}
-			}
-			else {
-				recordKey = new DatabaseEntry(MyInterpreter.recordToBDBString(recordPK).getBytes("UTF-8")); // Use PK(converted to string) of the record for BDB Key
-				if(targetDB.put(null, recordKey, recordData) != OperationStatus.SUCCESS) {
-					targetDB.close();
-					throw new RuntimeException("Insertion failed for unexpected reason!!");
+				if(explainMode == Session.ExplainMode.ANALYZE) {
+					_explainAnalyzeSelect(tableNameList, where, startTime, sample);
+					return;
 				}
+				
+				_runSelect(tableNameList, output, where, null, startTime, sample);
 			}
-			System.out.println("The row is inserted");
-			targetDB.close();
-		}
-		catch(DBError e)
-		{
-			throw e;
-		}
-		catch(UnsupportedEncodingException e)
-		{
-			e.printStackTrace();
-		}
-		finally
-		{
-			tableListDB.close();
-		}
+		});
 	}
 	
-	public void select(ArrayList<String> colList, ArrayList<String> tblList, ArrayList<String> aliasList, FromClause from, BoolTree where) throws DBError {
-		// 1. check columns in select clause are resolverable (select-from check)
-		// 2. print names(or alias) of columns
-		// 3. print selected records (JoinRecordIterator, BoolTree)
-		
-		ArrayList<String> tableNameList = from.getTableNameList();
+	// Index of each selected column in the joined record (FromClause layout), its printed name and its printed width
+	private SelectOutput _resolveSelectOutput(ArrayList<String> colList, ArrayList<String> tblList, ArrayList<String> aliasList, FromClause from) throws DBError {
 		ArrayList<Integer> selectedColIdxList = new ArrayList<Integer>();
 		ArrayList<ColumnListDBEntry> recordColSchemaList = new ArrayList<ColumnListDBEntry>();
 		
-		for(String tblName : tableNameList) {
-			recordColSchemaList.addAll(getColumnSchema(tblName));
+		for(String tblName : from.getTableNameList()) {
+			recordColSchemaList.addAll(getTableMeta(tblName).columnList);
 		}
 		
 		if(colList != null) {
@@ -646,125 +798,297 @@ public class MyInterpreter {
 			columnWidthList.add(width);
 		}
 		
-		// Iterate cartesian-producted records and select which evaluates where clause true.
-		ArrayList<String> resultLines = new ArrayList<String>();
-		ArrayList<DBValue> currRecord;
-		JoinRecordIterator recordItr = new JoinRecordIterator(tableNameList);
+		return new SelectOutput(selectedColIdxList, aliasList, columnWidthList);
+	}
+	
+	// joinOrder: kept by a prepared SELECT, null otherwise
+	private void _runSelect(ArrayList<String> tableNameList, SelectOutput output, BoolTree where, QueryPlanner.JoinOrder joinOrder, long startTime, StatementSample sample) throws DBError {
+		// Iterate joined records. The plan already evaluated where clause, so every record is selected.
+		// The iterator fetches the first record on construction, so errors of where clause are thrown before anything is printed.
+		// A comparison of different types may still fail on a later record: the table is then only printed once complete.
+		JoinRecordIterator recordItr = new JoinRecordIterator(tableNameList, where, false, joinOrder);
+		ResultWriter writer = new ResultWriter(output.columnWidthList, output.selectedColIdxList, startTime, _isIncomparablePossible(tableNameList, where));
 		try {
+			writer.writeHeader(output.aliasList);
 			while(recordItr.hasNext()) {
-				currRecord = recordItr.getNext();
-				boolean evalResult = true;
-				if(where != null)
-					evalResult = (where.evaluate(currRecord) == ThreeValuedLogic.TVL_TRUE) ? true : false;
-				
-				if(evalResult == true) {
-					String recordLine = "|";
-					for(int i = 0; i < columnWidthList.size(); i++)
-						recordLine += String.format(" %-" + columnWidthList.get(i) + "s |", currRecord.get(selectedColIdxList.get(i)).toString());
-					resultLines.add(recordLine);
-				}
+				RowBatch batch = recordItr.getNextBatch();
+				writer.writeBatch(batch);
+				sample.rowsReturned += batch.selCount;
 			}
+			writer.writeFooter();
 		}
 		catch(DBError e) {
+			writer.discard();
 			throw e;
 		}
 		finally {
+			writer.close();
 			recordItr.close();
+			sample.rowsScanned = recordItr.getPlan().getTotalCursorReads();
+			Session.current().lastTimeToFirstRow = writer.getTimeToFirstRow();
 		}
-		
-		// Print Column Names
-		printHorizontalLine(columnWidthList);
-		String colNameLine = "|";
-		for(int i = 0; i < columnWidthList.size(); i++)
-			colNameLine += String.format(" %-" + columnWidthList.get(i) + "s |", aliasList.get(i).toUpperCase());
-		System.out.println(colNameLine);
-		printHorizontalLine(columnWidthList);
-		
-		// Print result records
-		for(String line : resultLines)
-			System.out.println(line);
-		
-		printHorizontalLine(columnWidthList);
 	}
 	
-	public void delete(String tableName, BoolTree where) throws DBError {
-		// 1. where pre-processing
-		// 2. for each records
-		// 3. 	check where clause
-		// 4. 	check deletable w/ RefIntegrityManager
-		// 5. 	cascade delete w/ RefIntegrityManager
-		// 6. 	delete the record
+	// true if where clause compares columns or constants of different types (see CompiledPredicate.isIncomparablePossible())
+	private boolean _isIncomparablePossible(ArrayList<String> tableNameList, BoolTree where) {
+		if(where == null) return false;
 		
-		// 1. where pre-processing
-		Database table = myDBEnv.openDatabase(null, tableName, _dbOpenOrCreateCfg);
-		Cursor tableCursor = table.openCursor(null, null);
-		DatabaseEntry foundKey = new DatabaseEntry();
-		DatabaseEntry foundData = new DatabaseEntry();
+		ArrayList<DBType.DBTypeSpecifier> colTypeList = new ArrayList<DBType.DBTypeSpecifier>();
+		for(String tableName : tableNameList) {
+			for(ColumnListDBEntry col : getTableMeta(tableName).columnList)
+				colTypeList.add(col.columnType.type);
+		}
+		return CompiledPredicate.compile(where, colTypeList).isIncomparablePossible();
+	}
+	
+	// Runs the SELECT without printing its records, then prints the plan with the counters of its operators.
+	private void _explainAnalyzeSelect(ArrayList<String> tableNameList, BoolTree where, long startTime, StatementSample sample) throws DBError {
+		JoinRecordIterator recordItr = new JoinRecordIterator(tableNameList, where, true);
+		long rowCount = 0;
 		try {
-			if(table.count() > 0 && where != null) {
-				tableCursor.getFirst(foundKey, foundData, LockMode.DEFAULT);
-				do {
-					ArrayList<DBValue> currRecord = (ArrayList<DBValue>)MyInterpreter.fromBytes(foundData.getData());
-					where.evaluate(currRecord);
-				} while(tableCursor.getNext(foundKey, foundData, LockMode.DEFAULT) == OperationStatus.SUCCESS);
-			}
+			while(recordItr.hasNext())
+				rowCount += recordItr.getNextBatch().selCount;
 		}
-		catch (DBError e) {
-			tableCursor.close();
-			table.close();
-			throw e;
+		finally {
+			recordItr.close();
+			sample.rowsScanned = recordItr.getPlan().getTotalCursorReads();
 		}
+		sample.rowsReturned = rowCount;
 		
-		tableCursor.close();
-		table.close();
-		
-		// 2 ~ 6.
-		ArrayList<String> tableNameContainer = new ArrayList<String>();
-		tableNameContainer.add(tableName);
-		JoinRecordIterator recordIter = new JoinRecordIterator(tableNameContainer);
-		ArrayList<DBValue> currRecord = null;
-		RefIntegrityManager refIntManager = new RefIntegrityManager(tableName);
-		int deletedCount = 0, failedCount = 0;
-		while(recordIter.hasNext()) {
-			currRecord = recordIter.getCurrent();
-			
-			// 3. check where clause
-			boolean evalResult = true;
-			if(where != null)
-				evalResult = (where.evaluate(currRecord) == ThreeValuedLogic.TVL_TRUE) ? true : false;
-			if(!evalResult) {
-				recordIter.moveNext();
-				continue;
+		PlanExplainer.print(recordItr.getPlan(), true, out());
+		out().println(rowCount + " row(s) in " + PlanExplainer.formatMillis(System.nanoTime() - startTime));
+	}
+	
+	public void delete(final String tableName, final BoolTree where) throws DBError {
+		if(Session.current().isPreparing()) { // Resolved now, run by EXECUTE
+			PreparedQuery query = _newPreparedQuery(PreparedQuery.Kind.DELETE);
+			query.tableName = tableName;
+			query.where = where;
+			return;
+		}
+		runMeasured(StatementKind.DELETE, new MeasuredStatement() {
+			@Override
+			public void run(StatementSample sample) throws DBError {
+				// 1. collect records which evaluate where clause true
+				// 2. check deletable & cascade delete w/ RefIntegrityManager
+				// 3. delete the records
+				
+				// 1. collect records (before anything is deleted, so an error in where clause leaves the table untouched)
+				long startTime = System.nanoTime();
+				Session.ExplainMode explainMode = Session.current().explainMode;
+				Database table = getDatabase(tableName);
+				ArrayList<byte[]> keyList = new ArrayList<byte[]>();
+				ArrayList<ArrayList<DBValue>> recordList = new ArrayList<ArrayList<DBValue>>();
+				TableScan scan = QueryPlanner.buildTableScan(tableName, where); // an index scan if where clause allows
+				if(explainMode == Session.ExplainMode.PLAN) {
+					try {
+						int fkCount = new RefIntegrityManager(tableName).getReferencingFKCount();
+						PlanExplainer.print("Delete on " + tableName + ", FK checks on " + fkCount + " referencing foreign key(s)", scan, false, out());
+					}
+					finally {
+						scan.close();
+					}
+					return;
+				}
+				if(explainMode == Session.ExplainMode.ANALYZE) {
+					scan.setTimed(true);
+					scan.getTableStats(); // Estimates are printed as they were before the deletes
+				}
+				try {
+					ArrayList<DBValue> currRecord;
+					while((currRecord = scan.getNext()) != null) {
+						keyList.add(scan.getCurrentKey());
+						recordList.add(currRecord);
+					}
+				}
+				finally {
+					scan.close();
+				}
+				_lockForDelete(tableName, where, keyList, recordList);
+				
+				RefIntegrityManager refIntManager = new RefIntegrityManager(tableName);
+				TableStats stats = new TableStats(getTableMeta(tableName));
+				long fkCheckNanos = 0, deleteNanos = 0; // for EXPLAIN ANALYZE and Metrics, small next to the index lookups of a record
+				int deletedCount = 0, failedCount = 0;
+				if(refIntManager.useBatchDelete(recordList.size())) {
+					// 2. one pass over each referencing table for all the records
+					long start = System.nanoTime();
+					HashSet<ArrayList<DBValue>> blockedPKSet = refIntManager.batchCascadeDelete(recordList);
+					fkCheckNanos += System.nanoTime() - start;
+					
+					// 3. delete the records
+					TableMeta tableMeta = getTableMeta(tableName);
+					start = System.nanoTime();
+					for(int i = 0; i < recordList.size(); i++) {
+						if(blockedPKSet.contains(tableMeta.extractPK(recordList.get(i)))) {
+							failedCount++;
+							continue;
+						}
+						table.delete(null, new DatabaseEntry(keyList.get(i)));
+						stats.addDeleted(recordList.get(i));
+						deletedCount++;
+					}
+					deleteNanos += System.nanoTime() - start;
+				}
+				else {
+					for(int i = 0; i < recordList.size(); i++) {
+						ArrayList<DBValue> currRecord = recordList.get(i);
+						
+						// 2. check deletable & cascade delete w/ RefIntegrityManager (FK index lookups)
+						long start = System.nanoTime();
+						boolean isDeletable = refIntManager.checkDeletable(currRecord);
+						if(isDeletable)
+							refIntManager.cascadeDelete(currRecord);
+						fkCheckNanos += System.nanoTime() - start;
+						if(!isDeletable) {
+							failedCount++;
+							continue;
+						}
+						
+						// 3. delete the record
+						start = System.nanoTime();
+						table.delete(null, new DatabaseEntry(keyList.get(i)));
+						stats.addDeleted(currRecord);
+						deletedCount++;
+						deleteNanos += System.nanoTime() - start;
+					}
+				}
+				stats.flush();
+				refIntManager.flushStats();
+				sample.rowsScanned = scan.getTotalCursorReads();
+				sample.rowsReturned = deletedCount;
+				sample.refCheckNanos = fkCheckNanos;
+				
+				out().println(deletedCount + " row(s) are deleted");
+				if(failedCount > 0)
+					out().println(failedCount + " row(s) are not deleted due to referential integrity");
+				if(explainMode == Session.ExplainMode.ANALYZE) {
+					PlanExplainer.print("Delete on " + tableName + "  (rows in " + recordList.size() + ", deleted " + deletedCount + ", not deleted " + failedCount
+							+ ", FK checks " + PlanExplainer.formatMillis(fkCheckNanos) + ", deletes " + PlanExplainer.formatMillis(deleteNanos) + ")", scan, true, out());
+					out().println("total " + PlanExplainer.formatMillis(System.nanoTime() - startTime));
+				}
 			}
-			
-			// 4. check deletable w/ RefIntegrityManager
-			boolean deletable = refIntManager.checkDeletable(currRecord);
-			if(!deletable) {
-				failedCount++;
-				recordIter.moveNext();
-				continue;
+		});
+	}
+	
+	// Write locks the records collected by a DELETE before their references are checked, as they were read without keeping a lock:
+	// an insert referencing one of them waits for the end of the transaction (its FK check locks the referenced record),
+	// so the checked references stay the same until the record is deleted.
+	// A record deleted or changed since it was read is left out if it no longer satisfies where clause.
+	private void _lockForDelete(String tableName, BoolTree where, ArrayList<byte[]> keyList, ArrayList<ArrayList<DBValue>> recordList) throws DBError {
+		Database table = getDatabase(tableName);
+		TableMeta tableMeta = getTableMeta(tableName);
+		DatabaseEntry foundData = new DatabaseEntry();
+		Transaction txn = myDBEnv.getThreadTransaction(); // JE takes no RMW lock without an explicit transaction
+		for(int i = 0; i < keyList.size(); i++) {
+			if(table.get(txn, new DatabaseEntry(keyList.get(i)), foundData, LockMode.RMW) == OperationStatus.SUCCESS) {
+				ArrayList<DBValue> lockedRecord = RowCodec.decode(foundData.getData(), tableMeta.columnList);
+				if(lockedRecord.equals(recordList.get(i)))
+					continue;
+				if(where == null || where.evaluate(lockedRecord) == ThreeValuedLogic.TVL_TRUE) {
+					recordList.set(i, lockedRecord);
+					continue;
+				}
 			}
-			
-			// 5. cascade delete w/ RefIntegrityManager
-			refIntManager.cascadeDelete(currRecord);
-			
-			// 6. delete the record
-			recordIter.removeCurrent();
-			deletedCount++;
-			
-			recordIter.moveNext(); // Move recordIter to point the next record
+			keyList.remove(i);
+			recordList.remove(i);
+			i--;
+		}
+	}
+	
+	// PREPARE name AS <select | delete | insert>: the statement is parsed and resolved between beginPrepare() and endPrepare(),
+	// where select(), delete(), insertInto() and insertRows() only keep what they resolved in a PreparedQuery.
+	public void beginPrepare() {
+		Session session = Session.current();
+		session.paramMarkerList = new ArrayList<ParameterMarker>();
+		session.prepareVersion = getCatalogVersion(); // Before anything is resolved, so a concurrent DDL statement makes it stale
+		session.preparedQuery = null;
+	}
+	
+	public PreparedQuery endPrepare() { // null if the statement had an error (already printed)
+		Session session = Session.current();
+		PreparedQuery query = session.preparedQuery;
+		session.paramMarkerList = null;
+		session.preparedQuery = null;
+		return query;
+	}
+	
+	private PreparedQuery _newPreparedQuery(PreparedQuery.Kind kind) {
+		Session session = Session.current();
+		session.preparedQuery = new PreparedQuery(kind, session.prepareVersion, session.paramMarkerList.size());
+		return session.preparedQuery;
+	}
+	
+	private void _prepareInsert(String tableName, ArrayList<String> colList, ArrayList<ArrayList<DBValue>> rowList) throws DBError {
+		if(getTableMeta(tableName) == null) {
+			throw new NoSuchTable();
+		}
+		PreparedQuery query = _newPreparedQuery(PreparedQuery.Kind.INSERT);
+		query.tableName = tableName;
+		query.colList = colList;
+		query.rowList = rowList;
+	}
+	
+	// Keeps the prepared statement of the session under name, replacing the one of the same name
+	public void prepare(String name, String sql, PreparedQuery query) {
+		query.sql = sql;
+		Session.current().preparedMap.put(name, query);
+		out().println("\'" + name + "\' is prepared");
+	}
+	
+	// EXECUTE name(paramList): runs the prepared statement with the arguments in place of its '?', in their order
+	public void execute(String name, ArrayList<DBValue> paramList) throws DBError {
+		Session session = Session.current();
+		PreparedQuery query = session.preparedMap.get(name);
+		if(query == null) {
+			throw new NoSuchPreparedStatement(name);
+		}
+		if(paramList.size() != query.paramCount) {
+			throw new ExecuteParameterCountError(name, query.paramCount, paramList.size());
 		}
 		
-		System.out.println(deletedCount + " row(s) are deleted");
-		if(failedCount > 0)
-			System.out.println(failedCount + " row(s) are not deleted due to referential integrity");
+		if(query.catalogVersion != getCatalogVersion()) { // Tables or indexes changed since it was resolved
+			PreparedQuery reprepared = SimpleDBMSParser.reprepare(query.sql);
+			if(reprepared == null) { // e.g. its table was dropped, the error is printed. Kept to be prepared again by the next EXECUTE
+				PreparedStatementInvalid e = new PreparedStatementInvalid(name);
+				StatementSample sample = _metrics.begin(StatementKind.valueOf(query.kind.name())); // Counted as its statement failed
+				sample.fail(e);
+				sample.end();
+				throw e;
+			}
+			reprepared.sql = query.sql;
+			session.preparedMap.put(name, reprepared);
+			query = reprepared;
+		}
 		
-		recordIter.close();
+		switch(query.kind) {
+		case SELECT:
+			_executeSelect(query, paramList);
+			break;
+		case DELETE:
+			delete(query.tableName, query.bindWhere(paramList));
+			break;
+		default: // INSERT
+			ArrayList<ArrayList<DBValue>> rowList = query.bindRows(paramList);
+			if(rowList.size() == 1)
+				insertInto(query.tableName, query.colList, rowList.get(0));
+			else
+				insertRows(query.tableName, query.colList, rowList);
+		}
+	}
+	
+	private void _executeSelect(final PreparedQuery query, final ArrayList<DBValue> paramList) throws DBError {
+		runMeasured(StatementKind.SELECT, new MeasuredStatement() {
+			@Override
+			public void run(StatementSample sample) throws DBError {
+				_runSelect(query.tableNameList, query.output, query.bindWhere(paramList), query.joinOrder, System.nanoTime(), sample);
+			}
+		});
 	}
 	
 	
 	// Intermediate nested classes used in interpreting routine
-	private class ColumnCreateData {
+	static class ColumnCreateData {
 		public String columnName;
 		public DBType columnType;
 		public boolean notNull;
@@ -778,14 +1102,14 @@ public class MyInterpreter {
 		}
 	}
 	
-	private class PKCreateData {
+	static class PKCreateData {
 		public ArrayList<String> columnList;
 		public PKCreateData(ArrayList<String> colList) {
 			columnList = new ArrayList<String>(colList);
 		}
 	}
 	
-	private class FKCreateData {
+	static class FKCreateData {
 		public ArrayList<String> refingColumnList;
 		public String refedTableName;
 		public ArrayList<String> refedColumnList;
@@ -796,31 +1120,368 @@ public class MyInterpreter {
 		}
 	}
 	
+	static class SelectOutput {
+		public ArrayList<Integer> selectedColIdxList; // in the joined record
+		public ArrayList<String> aliasList;
+		public ArrayList<Integer> columnWidthList;
+		public SelectOutput(ArrayList<Integer> colIdxList, ArrayList<String> nameList, ArrayList<Integer> widthList) {
+			selectedColIdxList = colIdxList;
+			aliasList = nameList;
+			columnWidthList = widthList;
+		}
+	}
+	
 	// Additional public methods for CREATE TABLE
 	public void createTable_Initialize(){
-		createColumnQueue.clear();
-		createPKQueue.clear();
-		createFKQueue.clear();
+		Session session = Session.current();
+		session.createColumnQueue.clear();
+		session.createPKQueue.clear();
+		session.createFKQueue.clear();
 	}
 	
 	public void createTable_EnqueueColumn(String colName, String typeStr, int typeVal, boolean isNotNull) {
 		ColumnCreateData col = new ColumnCreateData(colName, typeStr, typeVal, isNotNull);
-		createColumnQueue.add(col);
+		Session.current().createColumnQueue.add(col);
 	}
 	
 	public void createTable_EnqueuePK(ArrayList<String> colList) {
 		PKCreateData pk = new PKCreateData(colList);
-		createPKQueue.add(pk);
+		Session.current().createPKQueue.add(pk);
 	}
 	
 	public void createTable_EnqueueFK(ArrayList<String> refingColList, String refedTbName, ArrayList<String> refedColList) {
 		FKCreateData fk = new FKCreateData(refingColList, refedTbName, refedColList);
-		createFKQueue.add(fk);
+		Session.current().createFKQueue.add(fk);
 	}
 	
 	// Additional public methods for INSERT / DELETE / SELECT
-	public ArrayList<ColumnListDBEntry> getColumnSchema(String tableName) {
-		Database colSchemaDB = myDBEnv.openDatabase(null, "SCHEMA_COLUMN_" + tableName, _dbOpenOnlyCfg);
+	public TableMeta getTableMeta(String tableName) { // null if the table does not exist
+		boolean isShared = _isCatalogShared();
+		TableMeta tableMeta = isShared ? _tableMetaCache.get(tableName) : null;
+		if(tableMeta != null)
+			return tableMeta;
+		
+		long version = getCatalogVersion();
+		TableListDBEntry tableEntry = getTableEntryCache().get(tableName);
+		if(tableEntry == null)
+			return null;
+		
+		ArrayList<ColumnListDBEntry> colList = loadColumnSchema(tableName);
+		ArrayList<FKMeta> fkList = new ArrayList<FKMeta>();
+		for(ForeignKeyListDBEntry fk : loadFKSchema(tableName)) {
+			TableMeta refedMeta = getTableMeta(fk.referencedTableName); // FKs never make a cycle, since a table can only reference existing tables.
+			fkList.add(new FKMeta(tableName, colList, fk, refedMeta));
+		}
+		
+		tableMeta = new TableMeta(tableEntry, colList, fkList, loadIndexEntries(tableName));
+		synchronized(this) {
+			if(isShared && version == _catalogVersion) // Not built from schema read before an invalidation
+				_tableMetaCache.put(tableName, tableMeta);
+		}
+		return tableMeta;
+	}
+	
+	public ArrayList<FKMeta> getReferencingFKList(String tableName) { // FKs of other tables which reference 'tableName'
+		boolean isShared = _isCatalogShared();
+		HashMap<String, ArrayList<FKMeta>> refingFKMap = isShared ? _referencingFKCache : null;
+		if(refingFKMap == null) {
+			long version = getCatalogVersion();
+			refingFKMap = new HashMap<String, ArrayList<FKMeta>>();
+			for(String tblName : getTableEntryCache().keySet()) {
+				for(FKMeta fk : getTableMeta(tblName).fkList) {
+					if(!refingFKMap.containsKey(fk.referencedTableName))
+						refingFKMap.put(fk.referencedTableName, new ArrayList<FKMeta>());
+					refingFKMap.get(fk.referencedTableName).add(fk);
+				}
+			}
+			synchronized(this) {
+				if(isShared && version == _catalogVersion)
+					_referencingFKCache = refingFKMap;
+			}
+		}
+		
+		ArrayList<FKMeta> fkList = refingFKMap.get(tableName);
+		return (fkList == null) ? new ArrayList<FKMeta>() : new ArrayList<FKMeta>(fkList);
+	}
+	
+	public Database getDatabase(String dbName) { // Shared handle, must not be closed by the caller
+		Database db = _handles.open(dbName);
+		
+		// FK indexes and indexes of a table are kept open with it, so that every write to the table updates them.
+		TableMeta tableMeta = getTableMeta(dbName);
+		if(tableMeta != null) {
+			for(FKMeta fk : tableMeta.fkList) {
+				if(!_handles.isOpen(fk.indexName))
+					openFKIndex(tableMeta, fk);
+			}
+			for(IndexMeta index : tableMeta.indexList) {
+				if(!_handles.isOpen(index.dbName))
+					openIndex(tableMeta, index);
+			}
+		}
+		return db;
+	}
+	
+	// Secondary database of an index made by CREATE INDEX, keyed by KeyCodec.encodeNullable() of the indexed columns.
+	public SecondaryDatabase getIndex(IndexMeta index) {
+		getDatabase(index.tableName);
+		return _handles.openSecondary(index.dbName, index.tableName, null);
+	}
+	
+	private SecondaryDatabase openIndex(TableMeta tableMeta, IndexMeta index) {
+		SecondaryConfig idxCfg = new SecondaryConfig();
+		idxCfg.setAllowCreate(true);
+		idxCfg.setTransactional(true);
+		idxCfg.setSortedDuplicates(true);
+		idxCfg.setAllowPopulate(true); // Fill the index from existing records when it is created
+		idxCfg.setKeyCreator(new IndexKeyCreator(tableMeta.columnList, index));
+		return _handles.openSecondary(index.dbName, tableMeta.tableName, idxCfg);
+	}
+	
+	// Secondary database of the referencing table, keyed by KeyCodec encoded FK values (in the order of referenced PK).
+	// Records having a null in the FK are not indexed.
+	public SecondaryDatabase getFKIndex(FKMeta fk) {
+		getDatabase(fk.fromTableName);
+		return _handles.openSecondary(fk.indexName, fk.fromTableName, null);
+	}
+	
+	private SecondaryDatabase openFKIndex(TableMeta tableMeta, FKMeta fk) {
+		SecondaryConfig idxCfg = new SecondaryConfig();
+		idxCfg.setAllowCreate(true);
+		idxCfg.setTransactional(true);
+		idxCfg.setSortedDuplicates(true);
+		idxCfg.setAllowPopulate(true); // Fill the index from existing records when it is created
+		idxCfg.setKeyCreator(new FKIndexKeyCreator(tableMeta.columnList, fk));
+		return _handles.openSecondary(fk.indexName, tableMeta.tableName, idxCfg);
+	}
+	
+	// Transaction control (BEGIN / COMMIT / ROLLBACK / SET DURABILITY) and statement transactions
+	
+	// Called by the parser before each statement.
+	public void beginStatement() {
+		Session session = Session.current();
+		_handles.beginUse(); // Handles used by the statement are not closed by another session until it ends
+		if(session.userTxn != null) return; // The statement joins the transaction started by BEGIN
+		
+		session.statementTxn = myDBEnv.beginTransaction(null, newTransactionConfig(session));
+		myDBEnv.setThreadTransaction(session.statementTxn);
+	}
+	
+	// Called by the parser after each statement, including statements which printed a DBError.
+	// Concurrent commits with SYNC durability share one log fsync (group commit of the JE log manager),
+	// so a multi-row INSERT pays one sync for all of its rows, and LOAD DATA one per LOAD_DATA_CHUNK_ROWS rows.
+	public void endStatement() {
+		Session session = Session.current();
+		if(session.statementTxn != null) {
+			myDBEnv.setThreadTransaction(session.userTxn);
+			Transaction txn = session.statementTxn;
+			session.statementTxn = null;
+			txn.commit();
+			_endCatalogWrite(session);
+			TableStats.storePending(session);
+		}
+		_handles.endUse();
+	}
+	
+	// Commits what the running statement did so far, and goes on in a new statement transaction (LOAD DATA).
+	// Must not be called inside BEGIN, where the statement belongs to the user transaction.
+	public void commitStatementChunk() {
+		endStatement();
+		beginStatement();
+	}
+	
+	// Called by the parser when a statement ended with an unexpected exception (or a syntax error).
+	// Only the statement transaction is aborted; a transaction started by BEGIN is kept until COMMIT or ROLLBACK.
+	public void abortStatement() {
+		Session session = Session.current();
+		if(session.statementTxn != null) {
+			myDBEnv.setThreadTransaction(session.userTxn);
+			Transaction txn = session.statementTxn;
+			session.statementTxn = null;
+			txn.abort();
+			_endCatalogWrite(session);
+			TableStats.dropPending(session);
+		}
+		_handles.endUse();
+	}
+	
+	// Called by the parser when a statement lost a lock conflict with another session (a deadlock or a lock timeout).
+	// JE has invalidated the transaction of the statement, so the transaction started by BEGIN is rolled back too.
+	public void abortTransaction(LockConflictException e) {
+		Session session = Session.current();
+		abortStatement();
+		if(session.userTxn != null)
+			_abortUserTransaction();
+		out().println(new TransactionAbortedError(e instanceof DeadlockException).getMessage());
+	}
+	
+	// BEGIN
+	public void begin() throws DBError {
+		Session session = Session.current();
+		if(session.userTxn != null) throw new TransactionInProgressError();
+		
+		endStatement(); // The statement transaction of BEGIN itself has nothing to commit
+		session.userTxn = myDBEnv.beginTransaction(null, newTransactionConfig(session));
+		myDBEnv.setThreadTransaction(session.userTxn);
+		out().println("Transaction is started");
+	}
+	
+	// COMMIT
+	public void commit() throws DBError {
+		Session session = Session.current();
+		if(session.userTxn == null) throw new NoTransactionError("Commit");
+		
+		myDBEnv.setThreadTransaction(null);
+		Transaction txn = session.userTxn;
+		session.userTxn = null;
+		txn.commit();
+		_endCatalogWrite(session);
+		TableStats.storePending(session);
+		out().println("Transaction is committed");
+	}
+	
+	// ROLLBACK
+	public void rollback() throws DBError {
+		Session session = Session.current();
+		if(session.userTxn == null) throw new NoTransactionError("Rollback");
+		
+		_abortUserTransaction();
+		out().println("Transaction is rolled back");
+	}
+	
+	// SET DURABILITY SYNC | WRITE_NO_SYNC | NO_SYNC
+	// Applies to the transactions begun after this statement in the same session.
+	public void setDurability(String level) throws DBError {
+		Session session = Session.current();
+		if(level.equalsIgnoreCase("sync"))
+			session.durability = Durability.COMMIT_SYNC;
+		else if(level.equalsIgnoreCase("write_no_sync"))
+			session.durability = Durability.COMMIT_WRITE_NO_SYNC;
+		else if(level.equalsIgnoreCase("no_sync"))
+			session.durability = Durability.COMMIT_NO_SYNC;
+		else
+			throw new NoSuchDurabilityError(level);
+		
+		out().println("Durability is set to " + level.toUpperCase());
+	}
+	
+	public boolean isInTransaction() {
+		return Session.current().userTxn != null;
+	}
+	
+	// Called when the session of the calling thread ends. A transaction started by BEGIN and not committed is rolled back.
+	public void closeSession() {
+		Session session = Session.current();
+		if(session.statementTxn != null)
+			abortStatement();
+		if(session.userTxn != null)
+			_abortUserTransaction();
+	}
+	
+	private void _abortUserTransaction() {
+		Session session = Session.current();
+		myDBEnv.setThreadTransaction(null);
+		Transaction txn = session.userTxn;
+		session.userTxn = null;
+		txn.abort();
+		_endCatalogWrite(session);
+		TableStats.dropPending(session);
+	}
+	
+	// At the end of a transaction which did DDL: the catalog caches may hold schema read by other sessions before its commit,
+	// or by this session before its rollback. The end of any other transaction leaves them
+	// (and the prepared statements resolved from them, see PreparedQuery) valid.
+	private void _endCatalogWrite(Session session) {
+		if(session.catalogWritten)
+			invalidateCatalog();
+		session.catalogWritten = false;
+	}
+	
+	// Reads are read committed: a read lock is released once the cursor moves on, so a scan holds no lock per row
+	// and readers do not block writers for the rest of the transaction.
+	// Checks which must stay true until commit take a write lock instead (LockMode.RMW):
+	// the referenced row of an FK (RecordInserter) and the rows a DELETE deletes.
+	private static TransactionConfig newTransactionConfig(Session session) {
+		TransactionConfig txnCfg = new TransactionConfig();
+		txnCfg.setDurability(session.durability);
+		txnCfg.setReadCommitted(true);
+		return txnCfg;
+	}
+	
+	// Everything printed by a statement goes to the output of its session
+	private static PrintStream out() {
+		return Session.current().getOut();
+	}
+	
+	public long getLastTimeToFirstRow() { // nanoseconds, -1 if the last SELECT printed no record
+		return Session.current().lastTimeToFirstRow;
+	}
+	
+	public Metrics getMetrics() {
+		return _metrics;
+	}
+	
+	public long getOpensAvoided() {
+		return _handles.getOpensAvoided();
+	}
+	
+	public ArrayList<ColumnListDBEntry> getColumnSchema(String tableName) { // null if the table does not exist
+		TableMeta tableMeta = getTableMeta(tableName);
+		return (tableMeta == null) ? null : new ArrayList<ColumnListDBEntry>(tableMeta.columnList);
+	}
+	
+	public ArrayList<ForeignKeyListDBEntry> getFKSchema(String tableName) {
+		ArrayList<ForeignKeyListDBEntry> fkSchemaList = new ArrayList<ForeignKeyListDBEntry>();
+		TableMeta tableMeta = getTableMeta(tableName);
+		if(tableMeta != null) {
+			for(FKMeta fk : tableMeta.fkList)
+				fkSchemaList.add(new ForeignKeyListDBEntry(new ArrayList<String>(fk.referencingColList), fk.referencedTableName, new ArrayList<String>(fk.referencedColList)));
+		}
+		return fkSchemaList;
+	}
+	
+	public ArrayList<String> getTableList() {
+		return new ArrayList<String>(getTableEntryCache().keySet());
+	}
+	
+	// Cached metadata is replaced, never modified, so readers only need the reference they got.
+	public synchronized void invalidateCatalog() {
+		_catalogVersion++;
+		_tableEntryCache = null;
+		_tableMetaCache.clear();
+		_referencingFKCache = null;
+	}
+	
+	// Incremented whenever the schema may have changed. Anything derived from the catalog can be reused while it is unchanged.
+	public synchronized long getCatalogVersion() {
+		return _catalogVersion;
+	}
+	
+	private LinkedHashMap<String, TableListDBEntry> getTableEntryCache() {
+		boolean isShared = _isCatalogShared();
+		LinkedHashMap<String, TableListDBEntry> tableEntryMap = isShared ? _tableEntryCache : null;
+		if(tableEntryMap != null)
+			return tableEntryMap;
+		
+		long version = getCatalogVersion();
+		tableEntryMap = loadTableEntries();
+		synchronized(this) {
+			if(isShared && version == _catalogVersion)
+				_tableEntryCache = tableEntryMap;
+		}
+		return tableEntryMap;
+	}
+	
+	// The catalog caches are shared by all sessions, so they only hold committed schema.
+	// A transaction with uncommitted DDL reads the schema it sees itself, and does not publish it,
+	// until it ends (_endCatalogWrite()).
+	private static boolean _isCatalogShared() {
+		return !Session.current().catalogWritten;
+	}
+	
+	// Loaders of the catalog (read schema databases directly)
+	private ArrayList<ColumnListDBEntry> loadColumnSchema(String tableName) {
+		Database colSchemaDB = _handles.open("SCHEMA_COLUMN_" + tableName, _dbOpenOnlyCfg);
 		Cursor colCursor = colSchemaDB.openCursor(null, null);
 		ArrayList<ColumnListDBEntry> colSchemaList = new ArrayList<ColumnListDBEntry>();
 		HashMap<Integer, ColumnListDBEntry> colSchemaMap = new HashMap<Integer, ColumnListDBEntry>();
@@ -835,7 +1496,6 @@ public class MyInterpreter {
 		} while(colCursor.getNext(foundKey, foundData, LockMode.DEFAULT) == OperationStatus.SUCCESS);
 		
 		colCursor.close();
-		colSchemaDB.close();
 		
 		for(int i = 0; i < colSchemaMap.size(); i++) {
 			ColumnListDBEntry tmp = colSchemaMap.get(i);
@@ -847,137 +1507,165 @@ public class MyInterpreter {
 		return colSchemaList;
 	}
 	
-	public ArrayList<ForeignKeyListDBEntry> getFKSchema(String tableName) {
-		Database fkSchemaDB = myDBEnv.openDatabase(null, "SCHEMA_FOREIGNKEY_" + tableName, _dbOpenOnlyCfg);
+	private ArrayList<ForeignKeyListDBEntry> loadFKSchema(String tableName) {
+		Database fkSchemaDB = _handles.open("SCHEMA_FOREIGNKEY_" + tableName, _dbOpenOnlyCfg);
 		Cursor fkCursor = fkSchemaDB.openCursor(null, null);
 		ArrayList<ForeignKeyListDBEntry> fkSchemaList = new ArrayList<ForeignKeyListDBEntry>();
 		
 		DatabaseEntry foundKey = new DatabaseEntry();
 		DatabaseEntry foundData = new DatabaseEntry();
 		
-		if(fkSchemaDB.count() > 0) {
-			fkCursor.getFirst(foundKey, foundData, LockMode.DEFAULT);
-			do {
-				ForeignKeyListDBEntry fkSchema = (ForeignKeyListDBEntry)fromBytes(foundData.getData());
-				fkSchemaList.add(fkSchema);
-			} while(fkCursor.getNext(foundKey, foundData, LockMode.DEFAULT) == OperationStatus.SUCCESS);
+		while(fkCursor.getNext(foundKey, foundData, LockMode.DEFAULT) == OperationStatus.SUCCESS) {
+			ForeignKeyListDBEntry fkSchema = (ForeignKeyListDBEntry)fromBytes(foundData.getData());
+			fkSchemaList.add(fkSchema);
 		}
 		
 		fkCursor.close();
-		fkSchemaDB.close();
 		return fkSchemaList;
 	}
 	
-	public ArrayList<String> getTableList() {
-		Database tableListDB = myDBEnv.openDatabase(null, "SCHEMA_TableList", _dbOpenOnlyCfg);
+	private ArrayList<IndexListDBEntry> loadIndexEntries(String tableName) {
+		Database indexListDB = _handles.open("SCHEMA_IndexList");
+		Cursor cursor = indexListDB.openCursor(null, null);
+		ArrayList<IndexListDBEntry> indexList = new ArrayList<IndexListDBEntry>();
+		
+		DatabaseEntry foundKey = new DatabaseEntry();
+		DatabaseEntry foundData = new DatabaseEntry();
+		while(cursor.getNext(foundKey, foundData, LockMode.DEFAULT) == OperationStatus.SUCCESS) {
+			IndexListDBEntry indexEntry = (IndexListDBEntry)fromBytes(foundData.getData());
+			if(indexEntry.tableName.equals(tableName))
+				indexList.add(indexEntry);
+		}
+		
+		cursor.close();
+		return indexList;
+	}
+	
+	private LinkedHashMap<String, TableListDBEntry> loadTableEntries() {
+		Database tableListDB = _handles.open("SCHEMA_TableList");
 		Cursor cursor = tableListDB.openCursor(null, null);
-		ArrayList<String> tableNameList = new ArrayList<String>();
+		LinkedHashMap<String, TableListDBEntry> tableEntryMap = new LinkedHashMap<String, TableListDBEntry>();
 		
 		try {
 			DatabaseEntry foundKey = new DatabaseEntry();
 			DatabaseEntry foundData = new DatabaseEntry();
 			
-			if(tableListDB.count() > 0) {
-				cursor.getFirst(foundKey, foundData, LockMode.DEFAULT);
-				do {
-					String currTblName = new String(foundKey.getData(), "UTF-8");
-					tableNameList.add(currTblName);
-				} while(cursor.getNext(foundKey, foundData, LockMode.DEFAULT) == OperationStatus.SUCCESS);
+			while(cursor.getNext(foundKey, foundData, LockMode.DEFAULT) == OperationStatus.SUCCESS) {
+				String currTblName = new String(foundKey.getData(), "UTF-8");
+				tableEntryMap.put(currTblName, (TableListDBEntry)fromBytes(foundData.getData()));
 			}
-			
-			cursor.close();
-			tableListDB.close();
-			return tableNameList;
 		}
 		catch(UnsupportedEncodingException e) {
-			cursor.close();
-			tableListDB.close();
 			e.printStackTrace();
-			return null;
 		}
-		
-	}
-	
-	public static String recordToBDBString(ArrayList<DBValue> record) {
-		String result = "";
-		for(DBValue v : record) {
-			if(v.valueType == DBType.DBTypeSpecifier.DB_CHAR)
-				result +=  ("\"" + v.toString() + "\"");
-			else
-				result += v.toString();
-			
-			result += "\'"; // delimeter for each columns
-		}
-		
-		if(result.length() > 0)
-			result.substring(0, result.length()-1); // deletes last delemeter
-		
-		return result;
-	}
-	
-	public static ArrayList<DBValue> recordFromBDBString(String strBDB){
-		String[] strFields = strBDB.split("\'");
-		ArrayList<DBValue> record = new ArrayList<DBValue>(); 
-		for(String s : strFields) {
-			if(s.startsWith("\"")) // CHAR(n)
-				record.add(new DBValue(s.substring(1, s.length()-1)));
-			else if(s.matches("^([0-9]{4})-([0-9]{2})-([0-9]{2})$")) { // DATE
-				String[] ymd = s.split("-");
-				record.add(new DBValue(Integer.parseInt(ymd[0]), Integer.parseInt(ymd[1]), Integer.parseInt(ymd[2])));
-			}
-			else if(s.equals("NULL")) // NULL
-				record.add(new DBValue());
-			else // INT
-				record.add(new DBValue(Integer.parseInt(s)));	
+		finally {
+			cursor.close();
 		}
-		
-		return record;
+		return tableEntryMap;
 	}
 	
 	public boolean isExecutable() {
-		return _queryExecutable;
+		return Session.current().queryExecutable;
 	}
 	
 	public void initSelDel() {
-		_queryExecutable = true;
+		Session.current().queryExecutable = true;
 	}
 	
 	public void setExceptionOccured() {
-		_queryExecutable = false;
+		Session.current().queryExecutable = false;
 	}
 	
-	private void printHorizontalLine(ArrayList<Integer> widthList) {
-		String line = "+";
-		for(Integer width : widthList) {
-			for(int i = 0; i < width+2; i++)
-				line += "-";
-			line += "+";
-		}
-		
-		System.out.println(line);
+	public boolean delete_tableExistenceCheck(String tableName) throws DBError {
+		if(getTableMeta(tableName) == null)
+			throw new NoSuchTable();
+		return true;
 	}
 	
-	public boolean delete_tableExistenceCheck(String tableName) throws DBError {
-		Database tableList = myDBEnv.openDatabase(null, "SCHEMA_TableList", MyInterpreter._dbOpenOrCreateCfg);
+	
+	// Migration of tables whose keys were made by recordToBDBString()
+	// Each table is copied into MIGRATE_<table name> with KeyCodec keys (and RowCodec rows), then renamed back.
+	// If the process dies after the original is removed, the complete copy is renamed on the next start.
+	private void migrateLegacyTables() {
+		Database tableListDB = _handles.open("SCHEMA_TableList");
+		Cursor cursor = tableListDB.openCursor(null, null);
+		ArrayList<TableListDBEntry> legacyTableList = new ArrayList<TableListDBEntry>();
+		
+		DatabaseEntry foundKey = new DatabaseEntry();
+		DatabaseEntry foundData = new DatabaseEntry();
+		while(cursor.getNext(foundKey, foundData, LockMode.DEFAULT) == OperationStatus.SUCCESS) {
+			TableListDBEntry tableEntry = (TableListDBEntry)MyInterpreter.fromBytes(foundData.getData());
+			if(tableEntry.keyFormat < KeyCodec.FORMAT_V1)
+				legacyTableList.add(tableEntry);
+		}
+		cursor.close();
+		
 		try {
-			DatabaseEntry tblNameKey = new DatabaseEntry(tableName.getBytes("UTF-8"));
-			DatabaseEntry tmp = new DatabaseEntry();
-			
-			if(tableList.get(null, tblNameKey, tmp, LockMode.DEFAULT) != OperationStatus.SUCCESS) {
-				tableList.close();
-				throw new NoSuchTable();
+			for(TableListDBEntry tableEntry : legacyTableList) {
+				migrateTable(tableEntry.tableName);
+				
+				tableEntry.keyFormat = KeyCodec.FORMAT_V1;
+				DatabaseEntry tableNameKey = new DatabaseEntry(tableEntry.tableName.getBytes("UTF-8"));
+				if(tableListDB.put(null, tableNameKey, new DatabaseEntry(MyInterpreter.toBytes(tableEntry))) != OperationStatus.SUCCESS) {
+					throw new RuntimeException("Updating the migrated table entry in SCHEMA_TableList failed!!");
+				}
+				out().println("\'" + tableEntry.tableName + "\' table is migrated to the new key format");
 			}
-			
-			tableList.close();
-			return true;
 		}
-		catch (UnsupportedEncodingException e) {
+		catch(UnsupportedEncodingException e) {
 			e.printStackTrace();
-			tableList.close();
-			return false;
 		}
 	}
 	
+	private void migrateTable(String tableName) {
+		String tmpName = "MIGRATE_" + tableName;
+		Database table;
+		try {
+			table = myDBEnv.openDatabase(null, tableName, _dbOpenOnlyCfg);
+		}
+		catch(DatabaseNotFoundException e) {
+			// No record has ever been inserted, or a previous migration has already removed the original.
+			try {
+				myDBEnv.renameDatabase(null, tmpName, tableName);
+			} catch(DatabaseNotFoundException e2) {}
+			return;
+		}
+		
+		try {
+			myDBEnv.removeDatabase(null, tmpName); // Incomplete copy of a previous migration
+		} catch(DatabaseNotFoundException e) {}
+		
+		ArrayList<ColumnListDBEntry> colSchema = loadColumnSchema(tableName);
+		ArrayList<Integer> pkIdxList = new ArrayList<Integer>();
+		for(ColumnListDBEntry col : colSchema) {
+			if(col.primaryKey) pkIdxList.add(col.columnIndex);
+		}
+		
+		Database tmpTable = myDBEnv.openDatabase(null, tmpName, _dbCreateOnlyCfg);
+		Cursor cursor = table.openCursor(null, null);
+		DatabaseEntry foundKey = new DatabaseEntry();
+		DatabaseEntry foundData = new DatabaseEntry();
+		while(cursor.getNext(foundKey, foundData, LockMode.DEFAULT) == OperationStatus.SUCCESS) {
+			ArrayList<DBValue> record = RowCodec.decode(foundData.getData(), colSchema);
+			DatabaseEntry newKey = foundKey; // Tables without primary key keep their UUID keys
+			if(pkIdxList.size() > 0) {
+				ArrayList<DBValue> recordPK = new ArrayList<DBValue>();
+				for(int i : pkIdxList)
+					recordPK.add(record.get(i));
+				newKey = new DatabaseEntry(KeyCodec.encode(recordPK));
+			}
+			
+			if(tmpTable.put(null, newKey, new DatabaseEntry(RowCodec.encode(record, colSchema))) != OperationStatus.SUCCESS) {
+				throw new RuntimeException("Copying a record into " + tmpName + " failed!!");
+			}
+		}
+		cursor.close();
+		table.close();
+		tmpTable.close();
+		
+		myDBEnv.removeDatabase(null, tableName);
+		myDBEnv.renameDatabase(null, tmpName, tableName);
+	}
 	
 	public static byte[] toBytes(Serializable o) {
 		try {
@@ -1009,6 +1697,11 @@ public class MyInterpreter {
 	}
 	
 	public void terminate() {
-		if(myDBEnv != null) myDBEnv.close();
+		if(myDBEnv != null) {
+			_metrics.unregister();
+			closeSession(); // A transaction of the calling thread not committed is rolled back
+			_handles.closeAll();
+			myDBEnv.close();
+		}
 	}
 }
@@ -0,0 +1,30 @@
+// Counters of one operator (RecordSource) of a plan, reported by EXPLAIN ANALYZE (PlanExplainer).
+// Counts are always kept, as they are plain increments. Times are only measured if isTimed is set,
+// since a System.nanoTime() pair per record would slow down every statement.
+//
+// A source is used by one thread, except ParallelTableScan whose workers count in their own OperatorStats
+// and add() them to the one of the scan when their range is done. rowsOut is only counted by the thread reading
+// the source (ParallelTableScan.getNext()) and is not touched by add(), so the workers never race with it.
+public class OperatorStats {
+	public boolean isTimed;
+	public long rowsOut; // records (or selected batch rows) produced
+	public long cursorReads; // records read from the database
+	public long bytesRead; // bytes of the records decoded by RowCodec
+	public long decodeNanos; // time spent decoding records
+	public long filterNanos; // time spent evaluating predicates
+
+	public synchronized void add(OperatorStats other) { // all but rowsOut
+		cursorReads += other.cursorReads;
+		bytesRead += other.bytesRead;
+		decodeNanos += other.decodeNanos;
+		filterNanos += other.filterNanos;
+	}
+
+	public long startTimer() { // 0 if not timed
+		return isTimed ? System.nanoTime() : 0;
+	}
+
+	public long elapsedSince(long start) { // 0 if not timed
+		return isTimed ? System.nanoTime() - start : 0;
+	}
+}
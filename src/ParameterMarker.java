@@ -0,0 +1,27 @@
+import java.util.List;
+
+// The '?' of a statement prepared by PREPARE, in place of a constant of its where clause or of its values.
+// EXECUTE replaces it with its argument at paramIdx (BoolTree.bind(), MyInterpreter.execute()).
+// Until then it is a null value, so it is never compared as if it were a constant.
+public class ParameterMarker extends DBValue {
+	private static final long serialVersionUID = 4829165323816413206L;
+
+	public final int paramIdx; // 0 for the first '?' of the statement
+
+	public ParameterMarker(int paramIdx) {
+		super();
+		this.paramIdx = paramIdx;
+	}
+
+	// The argument for this marker if value is a marker, value itself otherwise
+	public static DBValue bind(DBValue value, List<DBValue> paramList) {
+		if(value instanceof ParameterMarker)
+			return paramList.get(((ParameterMarker)value).paramIdx);
+		return value;
+	}
+
+	@Override
+	public String toString() {
+		return "?";
+	}
+}
@@ -0,0 +1,62 @@
+import java.io.PrintStream;
+import java.util.List;
+
+// Prints a plan (RecordSource tree) for EXPLAIN, one operator per line, children indented under their parent:
+//   -> Hash Join on a.id = b.aid (build left)  (estimated rows 12)
+//       -> Table Scan on a, filter: a.x >= 10  (estimated rows 3)
+//       -> Table Scan on b  (estimated rows 40)
+// For EXPLAIN ANALYZE the plan has been run (with setTimed(true)), and the counters of each operator follow its estimate:
+// records taken from its children (or read from the database for a scan) and produced, bytes decoded,
+// and the time spent decoding records and evaluating predicates.
+public class PlanExplainer {
+	private static final String INDENT = "    ";
+
+	public static void print(RecordSource plan, boolean isAnalyzed, PrintStream out) {
+		_print(plan, 0, isAnalyzed, out);
+	}
+
+	// The plan under a line for the operator consuming its records (e.g. the deletion of DELETE)
+	public static void print(String rootLine, RecordSource plan, boolean isAnalyzed, PrintStream out) {
+		out.println("-> " + rootLine);
+		_print(plan, 1, isAnalyzed, out);
+	}
+
+	private static void _print(RecordSource source, int depth, boolean isAnalyzed, PrintStream out) {
+		StringBuilder line = new StringBuilder();
+		for(int i = 0; i < depth; i++)
+			line.append(INDENT);
+		line.append("-> ").append(source.describe());
+		line.append("  (estimated rows ").append(source.getEstimatedSize()).append(")");
+		if(isAnalyzed)
+			line.append("  (").append(formatStats(source)).append(")");
+		out.println(line);
+
+		for(RecordSource child : source.getChildren())
+			_print(child, depth + 1, isAnalyzed, out);
+	}
+
+	private static String formatStats(RecordSource source) {
+		OperatorStats stats = source.getStats();
+		List<RecordSource> childList = source.getChildren();
+		StringBuilder text = new StringBuilder();
+		if(childList.isEmpty()) {
+			text.append("cursor reads ").append(stats.cursorReads);
+			text.append(", bytes decoded ").append(stats.bytesRead);
+			text.append(", decode ").append(formatMillis(stats.decodeNanos));
+		}
+		else {
+			long rowsIn = 0;
+			for(RecordSource child : childList)
+				rowsIn += child.getStats().rowsOut;
+			text.append("rows in ").append(rowsIn);
+		}
+		text.append(", rows out ").append(stats.rowsOut);
+		if(stats.filterNanos > 0)
+			text.append(", predicates ").append(formatMillis(stats.filterNanos));
+		return text.toString();
+	}
+
+	public static String formatMillis(long nanos) {
+		return String.format("%.3f ms", nanos / 1e6);
+	}
+}
@@ -0,0 +1,62 @@
+import java.util.ArrayList;
+
+// A statement prepared by PREPARE name AS <select | delete | insert>, run by EXECUTE name(...) (see MyInterpreter.execute()).
+// Keeps what the statement resolved against the catalog when it was prepared, so that an execution does not parse it,
+// resolve its tables and columns or lay out its output again:
+//   SELECT: the tables of FROM, the selected column indexes, names and widths, the where clause, and the join order
+//           chosen by its first execution, chosen again when the tables grew or shrank much since (QueryPlanner.JoinOrder)
+//   DELETE: the table and the where clause
+//   INSERT: the table, the columns and the rows of values
+// The '?' of the where clause or of the values are ParameterMarkers, replaced by the arguments of each execution.
+//
+// catalogVersion is MyInterpreter.getCatalogVersion() when the statement was resolved. Once a DDL statement changed it,
+// the statement is prepared again from sql before it runs, as its tables or indexes may not be the same anymore.
+public class PreparedQuery {
+	public enum Kind { SELECT, DELETE, INSERT }
+
+	public final Kind kind;
+	public final long catalogVersion;
+	public final int paramCount;
+	public String sql; // text of the prepared statement, set by MyInterpreter.prepare()
+
+	public String tableName; // DELETE, INSERT
+	public BoolTree where; // SELECT, DELETE. null if there is no where clause
+
+	public ArrayList<String> tableNameList; // SELECT
+	public MyInterpreter.SelectOutput output;
+	public final QueryPlanner.JoinOrder joinOrder;
+
+	public ArrayList<String> colList; // INSERT
+	public ArrayList<ArrayList<DBValue>> rowList;
+
+	public PreparedQuery(Kind kind, long catalogVersion, int paramCount) {
+		this.kind = kind;
+		this.catalogVersion = catalogVersion;
+		this.paramCount = paramCount;
+		sql = null;
+		tableName = null;
+		where = null;
+		tableNameList = null;
+		output = null;
+		joinOrder = new QueryPlanner.JoinOrder();
+		colList = null;
+		rowList = null;
+	}
+
+	// The where clause with the arguments of an execution, null if there is none
+	public BoolTree bindWhere(ArrayList<DBValue> paramList) {
+		return (where == null) ? null : where.bind(paramList);
+	}
+
+	// The rows of values with the arguments of an execution
+	public ArrayList<ArrayList<DBValue>> bindRows(ArrayList<DBValue> paramList) {
+		ArrayList<ArrayList<DBValue>> boundRowList = new ArrayList<ArrayList<DBValue>>();
+		for(ArrayList<DBValue> valList : rowList) {
+			ArrayList<DBValue> boundValList = new ArrayList<DBValue>();
+			for(DBValue value : valList)
+				boundValList.add(ParameterMarker.bind(value, paramList));
+			boundRowList.add(boundValList);
+		}
+		return boundRowList;
+	}
+}
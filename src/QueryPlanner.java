@@ -0,0 +1,520 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+
+// Builds the RecordSource tree for the FROM and WHERE clauses of a SELECT.
+//
+// The WHERE clause is split into its top-level AND conjuncts, and each conjunct is handled at the lowest point possible:
+//   1. a conjunct on the columns of a single table is evaluated while that table is scanned,
+//   2. an equality between a column of the tables joined so far and a column of the next table becomes a hash join key,
+//   3. the rest is evaluated on the joined records as soon as all the tables it refers to are joined.
+// Every record produced by the plan satisfies the whole WHERE clause.
+//
+// Tables are joined left-deep in the order of least estimated cost (chooseJoinOrder()), whatever their order in FROM.
+// When it is not the FROM order, the joined records are reordered at the end (ProjectSource),
+// so the produced records always have the FromClause column layout.
+//
+// A table is read by its primary key (PKScan) or through an index (IndexScan) when its conjuncts compare
+// the leading PK columns or the first column of the index with constants.
+// Otherwise the table of a single table SELECT is scanned in parallel (ParallelTableScan).
+public class QueryPlanner {
+	public static final int DP_TABLE_LIMIT = 10; // Join order of more tables is chosen greedily
+
+	public static RecordSource buildJoinPlan(ArrayList<String> tableNameList, BoolTree where) {
+		return buildJoinPlan(tableNameList, where, null);
+	}
+
+	// joinOrder: the join order chosen for a statement prepared by PREPARE, kept by its PreparedQuery.
+	// Filled by the first execution, and reused as is by the next ones, which have the same conjuncts with other parameter values:
+	// they only read the row count of each table, and skip the estimates and the search of the join order
+	// unless a row count drifted too far from the one the order was chosen with (JoinOrder.isCurrent()).
+	public static RecordSource buildJoinPlan(ArrayList<String> tableNameList, BoolTree where, JoinOrder joinOrder) {
+		MyInterpreter interpreter = MyInterpreter.getInstance();
+		int tableCount = tableNameList.size();
+
+		// Column offset of each table in the joined record, and the type of each column
+		int[] tableOffset = new int[tableCount + 1];
+		ArrayList<DBType.DBTypeSpecifier> colTypeList = new ArrayList<DBType.DBTypeSpecifier>();
+		for(int i = 0; i < tableCount; i++) {
+			tableOffset[i] = colTypeList.size();
+			for(ColumnListDBEntry col : interpreter.getTableMeta(tableNameList.get(i)).columnList)
+				colTypeList.add(col.columnType.type);
+		}
+		tableOffset[tableCount] = colTypeList.size();
+
+		ArrayList<BoolTree> conjunctList = new ArrayList<BoolTree>();
+		if(where != null)
+			where.collectConjuncts(conjunctList);
+
+		// 1. Push down single table conjuncts
+		ArrayList<ArrayList<BoolTree>> pushedListPerTable = new ArrayList<ArrayList<BoolTree>>();
+		for(int i = 0; i < tableCount; i++)
+			pushedListPerTable.add(new ArrayList<BoolTree>());
+
+		ArrayList<BoolTree> remainList = new ArrayList<BoolTree>();
+		for(BoolTree conjunct : conjunctList) {
+			int tableIdx = findOwnerTable(conjunct, tableOffset);
+			if(tableIdx != -1)
+				pushedListPerTable.get(tableIdx).add(conjunct.rebase(tableOffset[tableIdx]));
+			else
+				remainList.add(conjunct);
+		}
+
+		ArrayList<TableScan> scanList = new ArrayList<TableScan>();
+		for(int i = 0; i < tableCount; i++)
+			scanList.add(buildScan(tableNameList.get(i), pushedListPerTable.get(i), tableCount == 1));
+
+		RecordSource plan = scanList.get(0);
+		if(tableCount > 1) {
+			ArrayList<BoolTree> joinConjunctList = new ArrayList<BoolTree>();
+			for(int j = 0; j < remainList.size(); j++) {
+				if(findTableMask(remainList.get(j), tableOffset) == 0) continue; // no column: evaluated at the end
+				joinConjunctList.add(remainList.remove(j--));
+			}
+
+			JoinGraph graph;
+			int[] order;
+			if(joinOrder != null && joinOrder.order != null && joinOrder.isCurrent(scanList)) {
+				graph = joinOrder.graph;
+				order = joinOrder.order;
+			}
+			else {
+				// 2. Estimate the records of each scan and the selectivity of the other conjuncts
+				TableStatsDBEntry[] statsList = new TableStatsDBEntry[tableCount];
+				for(int i = 0; i < tableCount; i++)
+					statsList[i] = scanList.get(i).getTableStats();
+				SelectivityEstimator estimator = new SelectivityEstimator(tableOffset, statsList);
+
+				graph = new JoinGraph(tableCount);
+				for(int i = 0; i < tableCount; i++) {
+					graph.scanRows[i] = Math.max(1, scanList.get(i).getEstimatedSize());
+					graph.readCost[i] = Math.max(1, scanList.get(i).getEstimatedReads());
+				}
+				for(BoolTree conjunct : joinConjunctList)
+					graph.addConjunct(findTableMask(conjunct, tableOffset), estimator.estimate(conjunct), isEquiJoin(conjunct, tableOffset, colTypeList));
+
+				order = (tableCount <= DP_TABLE_LIMIT) ? chooseJoinOrder(graph) : chooseJoinOrderGreedy(graph);
+				if(joinOrder != null) {
+					joinOrder.graph = graph;
+					joinOrder.order = order;
+					joinOrder.rowCountList = new long[tableCount];
+					for(int i = 0; i < tableCount; i++)
+						joinOrder.rowCountList[i] = statsList[i].rowCount;
+				}
+			}
+
+			// 3. Join tables in the chosen order
+			plan = buildJoins(order, graph, scanList, joinConjunctList, tableOffset, colTypeList);
+		}
+
+		// 4. Evaluate the conjuncts without column on the produced records
+		BoolTree residual = null;
+		for(BoolTree conjunct : remainList)
+			residual = (residual == null) ? conjunct : new BoolTree(BoolTreeOperator.BT_AND).setLeftChild(residual).setRightChild(conjunct);
+		if(residual != null)
+			plan = new FilterSource(plan, residual, colTypeList, plan.getEstimatedSize());
+
+		return plan;
+	}
+
+	// Left-deep join of the scans in the given order, with the conjuncts of the graph (joinConjunctList, in FromClause layout) applied
+	// as hash join keys or filters as soon as their tables are joined. Records are reordered to the FromClause layout at the end.
+	private static RecordSource buildJoins(int[] order, JoinGraph graph, ArrayList<TableScan> scanList, ArrayList<BoolTree> joinConjunctList,
+			int[] tableOffset, ArrayList<DBType.DBTypeSpecifier> colTypeList) {
+		int[] colPos = new int[colTypeList.size()]; // position of each FromClause column in the joined record
+		ArrayList<DBType.DBTypeSpecifier> planTypeList = new ArrayList<DBType.DBTypeSpecifier>();
+		boolean[] isApplied = new boolean[joinConjunctList.size()];
+
+		RecordSource plan = scanList.get(order[0]);
+		int joinedMask = 1 << order[0];
+		double planRows = graph.scanRows[order[0]];
+		_placeColumns(order[0], tableOffset, colTypeList, colPos, planTypeList);
+
+		for(int k = 1; k < order.length; k++) {
+			int t = order[k];
+			int newMask = joinedMask | (1 << t);
+			int leftWidth = planTypeList.size();
+
+			// Equalities between a column of the joined tables and a column of t
+			ArrayList<Integer> leftKeyList = new ArrayList<Integer>();
+			ArrayList<Integer> rightKeyList = new ArrayList<Integer>();
+			double keyRows = planRows * graph.scanRows[t];
+			for(int j = 0; j < joinConjunctList.size(); j++) {
+				if(isApplied[j] || !graph.isEquiJoin[j] || (graph.tableMask[j] & ~newMask) != 0 || (graph.tableMask[j] & (1 << t)) == 0) continue;
+
+				CompPredicate pred = (CompPredicate)joinConjunctList.get(j);
+				int leftIdx = pred.getLeftColIdx(), rightIdx = pred.getRightColIdx();
+				if(rightIdx < tableOffset[t] || rightIdx >= tableOffset[t+1]) { // normalize to (joined column = column of t)
+					int tmp = leftIdx;
+					leftIdx = rightIdx;
+					rightIdx = tmp;
+				}
+				leftKeyList.add(colPos[leftIdx]);
+				rightKeyList.add(rightIdx - tableOffset[t]);
+				keyRows *= graph.selectivity[j];
+				isApplied[j] = true; // Always true for the records produced by the hash join
+			}
+
+			if(leftKeyList.size() > 0) {
+				boolean buildLeft = planRows < graph.scanRows[t];
+				plan = new HashJoin(plan, scanList.get(t), toIntArray(leftKeyList), toIntArray(rightKeyList), buildLeft, _toSize(keyRows));
+			}
+			else
+				plan = new NestedLoopJoin(plan, scanList.get(t), _toSize(keyRows));
+			_placeColumns(t, tableOffset, colTypeList, colPos, planTypeList);
+
+			// The other conjuncts on the tables joined so far
+			BoolTree residual = null;
+			planRows = keyRows;
+			for(int j = 0; j < joinConjunctList.size(); j++) {
+				if(isApplied[j] || (graph.tableMask[j] & ~newMask) != 0) continue;
+				BoolTree conjunct = joinConjunctList.get(j).remap(colPos);
+				residual = (residual == null) ? conjunct : new BoolTree(BoolTreeOperator.BT_AND).setLeftChild(residual).setRightChild(conjunct);
+				planRows *= graph.selectivity[j];
+				isApplied[j] = true;
+			}
+			if(residual != null)
+				plan = new FilterSource(plan, residual, planTypeList, _toSize(planRows));
+
+			planRows = Math.max(1, planRows);
+			joinedMask = newMask;
+		}
+
+		for(int i = 0; i < colPos.length; i++) {
+			if(colPos[i] != i)
+				return new ProjectSource(plan, colPos, planTypeList);
+		}
+		return plan;
+	}
+
+	private static void _placeColumns(int tableIdx, int[] tableOffset, ArrayList<DBType.DBTypeSpecifier> colTypeList, int[] colPos, ArrayList<DBType.DBTypeSpecifier> planTypeList) {
+		for(int i = tableOffset[tableIdx]; i < tableOffset[tableIdx+1]; i++) {
+			colPos[i] = planTypeList.size();
+			planTypeList.add(colTypeList.get(i));
+		}
+	}
+
+	private static long _toSize(double rows) {
+		return (long)Math.max(1, Math.min(Long.MAX_VALUE, Math.ceil(rows)));
+	}
+
+	// Join order of a prepared SELECT (see buildJoinPlan()), with the estimates it was chosen from. Empty until its first execution.
+	public static class JoinOrder {
+		public static final double REPLAN_FACTOR = 2; // The order is chosen again once a table grew or shrank by this factor
+
+		JoinGraph graph;
+		int[] order;
+		long[] rowCountList; // TableStats row count of each table when the order was chosen
+
+		boolean isCurrent(ArrayList<TableScan> scanList) {
+			for(int i = 0; i < scanList.size(); i++) {
+				double chosenRows = Math.max(1, rowCountList[i]);
+				double rows = Math.max(1, scanList.get(i).getTableStats().rowCount);
+				if(rows > chosenRows * REPLAN_FACTOR || rows * REPLAN_FACTOR < chosenRows)
+					return false;
+			}
+			return true;
+		}
+	}
+
+	// Tables and conjuncts of a join, with the estimates used to order it. Tables are bits of a mask (at most 31 tables).
+	static class JoinGraph {
+		public final double[] scanRows; // records produced by the scan of each table (after its pushed-down conjuncts)
+		public final double[] readCost; // records read by the scan of each table
+		public int[] tableMask = new int[0]; // per conjunct, the tables it refers to
+		public double[] selectivity = new double[0];
+		public boolean[] isEquiJoin = new boolean[0]; // usable as a hash join key
+
+		public JoinGraph(int tableCount) {
+			scanRows = new double[tableCount];
+			readCost = new double[tableCount];
+		}
+
+		public void addConjunct(int mask, double sel, boolean equiJoin) {
+			int n = tableMask.length;
+			tableMask = Arrays.copyOf(tableMask, n + 1);
+			selectivity = Arrays.copyOf(selectivity, n + 1);
+			isEquiJoin = Arrays.copyOf(isEquiJoin, n + 1);
+			tableMask[n] = mask;
+			selectivity[n] = sel;
+			isEquiJoin[n] = equiJoin;
+		}
+
+		public int tableCount() {
+			return scanRows.length;
+		}
+
+		// Records of the join of the tables of mask (producing 'rows' records) with table t
+		public double joinRows(int mask, double rows, int t) {
+			int newMask = mask | (1 << t);
+			rows *= scanRows[t];
+			for(int j = 0; j < tableMask.length; j++) {
+				if((tableMask[j] & (1 << t)) != 0 && (tableMask[j] & ~newMask) == 0)
+					rows *= selectivity[j];
+			}
+			return Math.max(1, rows);
+		}
+
+		// Cost (records read, hashed, compared or produced) of joining the tables of mask with table t
+		public double joinCost(int mask, double rows, int t) {
+			int newMask = mask | (1 << t);
+			for(int j = 0; j < tableMask.length; j++) {
+				if(isEquiJoin[j] && (tableMask[j] & (1 << t)) != 0 && (tableMask[j] & mask) != 0 && (tableMask[j] & ~newMask) == 0)
+					return readCost[t] + rows + scanRows[t] + joinRows(mask, rows, t); // hash join
+			}
+			return readCost[t] + rows * scanRows[t]; // nested loop over every pair of records
+		}
+	}
+
+	// Left-deep join order of least cost, by dynamic programming over the sets of tables (Selinger):
+	// the best plan of a set is the best plan of the set without one of its tables, joined with that table.
+	// Ties keep the earlier table of FROM first.
+	static int[] chooseJoinOrder(JoinGraph graph) {
+		int n = graph.tableCount();
+		int setCount = 1 << n;
+		double[] rows = new double[setCount];
+		double[] cost = new double[setCount];
+		int[] lastTable = new int[setCount];
+		Arrays.fill(cost, Double.POSITIVE_INFINITY);
+		for(int t = 0; t < n; t++) {
+			rows[1 << t] = graph.scanRows[t];
+			cost[1 << t] = graph.readCost[t];
+			lastTable[1 << t] = t;
+		}
+
+		for(int mask = 1; mask < setCount; mask++) {
+			if(cost[mask] == Double.POSITIVE_INFINITY) continue;
+			for(int t = 0; t < n; t++) {
+				if((mask & (1 << t)) != 0) continue;
+				int newMask = mask | (1 << t);
+				double newCost = cost[mask] + graph.joinCost(mask, rows[mask], t);
+				if(newCost < cost[newMask]) {
+					cost[newMask] = newCost;
+					rows[newMask] = graph.joinRows(mask, rows[mask], t); // the same for every order
+					lastTable[newMask] = t;
+				}
+			}
+		}
+
+		int[] order = new int[n];
+		int mask = setCount - 1;
+		for(int k = n - 1; k >= 0; k--) {
+			order[k] = lastTable[mask];
+			mask &= ~(1 << order[k]);
+		}
+		return order;
+	}
+
+	// Starts with the table producing the fewest records, then repeatedly joins the table which is the cheapest to join.
+	static int[] chooseJoinOrderGreedy(JoinGraph graph) {
+		int n = graph.tableCount();
+		int[] order = new int[n];
+		int first = 0;
+		for(int t = 1; t < n; t++) {
+			if(graph.scanRows[t] < graph.scanRows[first])
+				first = t;
+		}
+		order[0] = first;
+		int mask = 1 << first;
+		double rows = graph.scanRows[first];
+
+		for(int k = 1; k < n; k++) {
+			int best = -1;
+			double bestCost = Double.POSITIVE_INFINITY;
+			for(int t = 0; t < n; t++) {
+				if((mask & (1 << t)) != 0) continue;
+				double c = graph.joinCost(mask, rows, t);
+				if(c < bestCost) {
+					bestCost = c;
+					best = t;
+				}
+			}
+			order[k] = best;
+			rows = graph.joinRows(mask, rows, best);
+			mask |= 1 << best;
+		}
+		return order;
+	}
+
+	// Scan of a single table filtered by where clause (used in DELETE, where column indexes are the ones of the table)
+	public static TableScan buildTableScan(String tableName, BoolTree where) {
+		ArrayList<BoolTree> conjunctList = new ArrayList<BoolTree>();
+		if(where != null)
+			where.collectConjuncts(conjunctList);
+		return buildScan(tableName, conjunctList, false); // DELETE needs getCurrentKey() of each record
+	}
+
+	// Chooses the access path of a table and applies the conjuncts on it (column indexes are the ones of the table).
+	// Access paths in the order of preference:
+	//   PK point lookup > equality on leading PK columns > index equality > PK range > index range > full scan
+	// A full scan is a ParallelTableScan if allowParallel is true.
+	private static TableScan buildScan(String tableName, ArrayList<BoolTree> conjunctList, boolean allowParallel) {
+		TableMeta tableMeta = MyInterpreter.getInstance().getTableMeta(tableName);
+		TableScan scan = null;
+		int bestRank = 0;
+
+		// 1. Primary key: equalities on a prefix of the PK columns, and a range on the next one
+		ArrayList<DBValue> eqValues = new ArrayList<DBValue>();
+		DBValue[] pkRange = null;
+		for(int i : tableMeta.pkIdx) {
+			DBValue[] bound = findBound(i, tableMeta, conjunctList);
+			if(bound != null && isPoint(bound))
+				eqValues.add(bound[0]);
+			else {
+				pkRange = bound;
+				break;
+			}
+		}
+		if(eqValues.size() > 0 || pkRange != null) {
+			if(eqValues.size() == tableMeta.pkIdx.length) {
+				scan = new PKScan(tableName, KeyCodec.encode(eqValues), null, true);
+				bestRank = 5;
+			}
+			else {
+				byte[] lowKey = (eqValues.size() > 0) ? KeyCodec.encode(eqValues) : null;
+				byte[] highPrefix = lowKey;
+				if(pkRange != null && pkRange[0] != null)
+					lowKey = KeyCodec.encode(append(eqValues, pkRange[0]));
+				if(pkRange != null && pkRange[1] != null)
+					highPrefix = KeyCodec.encode(append(eqValues, pkRange[1]));
+				scan = new PKScan(tableName, lowKey, highPrefix, false);
+				bestRank = (eqValues.size() > 0) ? 4 : 2;
+			}
+		}
+
+		// 2. Indexes: a bound on the first indexed column
+		for(IndexMeta index : tableMeta.indexList) {
+			DBValue[] bound = findBound(index.colIdx[0], tableMeta, conjunctList);
+			if(bound == null) continue;
+
+			int rank = isPoint(bound) ? 3 : 1;
+			if(rank > bestRank) {
+				scan = new IndexScan(tableName, index, bound[0], bound[1]);
+				bestRank = rank;
+			}
+		}
+
+		if(scan == null)
+			scan = allowParallel ? new ParallelTableScan(tableName) : new TableScan(tableName);
+		for(BoolTree conjunct : conjunctList)
+			scan.addFilter(conjunct);
+		return scan;
+	}
+
+	private static boolean isPoint(DBValue[] bound) {
+		return bound[0] != null && bound[0].equals(bound[1]);
+	}
+
+	private static ArrayList<DBValue> append(ArrayList<DBValue> values, DBValue last) {
+		ArrayList<DBValue> result = new ArrayList<DBValue>(values);
+		result.add(last);
+		return result;
+	}
+
+	// Inclusive {low, high} bound (null for unbounded) of the column implied by (column <op> constant) conjuncts, or null if there is no such conjunct.
+	// A constant of other type than the column is skipped, as its comparison must raise WhereIncomparableError in evaluation.
+	private static DBValue[] findBound(int colIdx, TableMeta tableMeta, ArrayList<BoolTree> conjunctList) {
+		DBType.DBTypeSpecifier colType = tableMeta.getColumn(colIdx).columnType.type;
+		DBValue[] bound = null;
+		for(BoolTree conjunct : conjunctList) {
+			if(!(conjunct instanceof CompPredicate) || conjunct.isNot()) continue;
+			CompPredicate pred = (CompPredicate)conjunct;
+
+			CompOperator op = pred.getCompOp();
+			DBValue constant;
+			if(pred.getLeftColIdx() == colIdx && pred.getRightColIdx() == -1)
+				constant = pred.getRightConstOperand();
+			else if(pred.getRightColIdx() == colIdx && pred.getLeftColIdx() == -1) {
+				constant = pred.getLeftConstOperand();
+				op = flip(op); // (constant <op> column) => (column <flipped op> constant)
+			}
+			else
+				continue;
+			if(op == CompOperator.OP_NEQ || constant == null || constant.valueType != colType) continue;
+
+			if(bound == null)
+				bound = new DBValue[2];
+			if(op != CompOperator.OP_LT && op != CompOperator.OP_LE) { // EQ, GT, GE: lower bound
+				if(bound[0] == null || compare(constant, CompOperator.OP_GT, bound[0]))
+					bound[0] = constant;
+			}
+			if(op != CompOperator.OP_GT && op != CompOperator.OP_GE) { // EQ, LT, LE: upper bound
+				if(bound[1] == null || compare(constant, CompOperator.OP_LT, bound[1]))
+					bound[1] = constant;
+			}
+		}
+		return bound;
+	}
+
+	private static boolean compare(DBValue a, CompOperator op, DBValue b) { // a and b have the same type
+		try {
+			return DBValue.Compare(a, op, b) == ThreeValuedLogic.TVL_TRUE;
+		}
+		catch(WhereIncomparableError e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private static CompOperator flip(CompOperator op) {
+		switch(op) {
+		case OP_GT: return CompOperator.OP_LT;
+		case OP_LT: return CompOperator.OP_GT;
+		case OP_GE: return CompOperator.OP_LE;
+		case OP_LE: return CompOperator.OP_GE;
+		default: return op;
+		}
+	}
+
+	// Index of the table whose columns are the only ones referenced in the tree, or -1
+	// (-1 also for a tree without column references, which is evaluated on joined records).
+	private static int findOwnerTable(BoolTree tree, int[] tableOffset) {
+		ArrayList<Integer> colIdxList = new ArrayList<Integer>();
+		tree.collectColumnIndexes(colIdxList);
+		if(colIdxList.size() == 0)
+			return -1;
+
+		int owner = -1;
+		for(int colIdx : colIdxList) {
+			int tableIdx = 0;
+			while(colIdx >= tableOffset[tableIdx+1])
+				tableIdx++;
+			if(owner != -1 && owner != tableIdx)
+				return -1;
+			owner = tableIdx;
+		}
+		return owner;
+	}
+
+	// Mask of the tables whose columns are referenced in the tree (0 if none)
+	private static int findTableMask(BoolTree tree, int[] tableOffset) {
+		ArrayList<Integer> colIdxList = new ArrayList<Integer>();
+		tree.collectColumnIndexes(colIdxList);
+		int mask = 0;
+		for(int colIdx : colIdxList) {
+			int tableIdx = 0;
+			while(colIdx >= tableOffset[tableIdx+1])
+				tableIdx++;
+			mask |= 1 << tableIdx;
+		}
+		return mask;
+	}
+
+	// Whether the conjunct is (column = column) on two tables, with columns of the same type
+	// (a comparison of different types must raise WhereIncomparableError in evaluation)
+	private static boolean isEquiJoin(BoolTree conjunct, int[] tableOffset, ArrayList<DBType.DBTypeSpecifier> colTypeList) {
+		if(!(conjunct instanceof CompPredicate) || conjunct.isNot()) return false;
+		CompPredicate pred = (CompPredicate)conjunct;
+		if(pred.getCompOp() != CompOperator.OP_EQ) return false;
+
+		int leftIdx = pred.getLeftColIdx(), rightIdx = pred.getRightColIdx();
+		if(leftIdx == -1 || rightIdx == -1) return false;
+		if(colTypeList.get(leftIdx) != colTypeList.get(rightIdx)) return false;
+		return Integer.bitCount(findTableMask(conjunct, tableOffset)) == 2;
+	}
+
+	public static int[] toIntArray(ArrayList<Integer> list) {
+		int[] array = new int[list.size()];
+		for(int i = 0; i < array.length; i++)
+			array[i] = list.get(i);
+		return array;
+	}
+}
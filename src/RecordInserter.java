@@ -0,0 +1,285 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.UUID;
+
+import com.sleepycat.je.Database;
+import com.sleepycat.je.DatabaseEntry;
+import com.sleepycat.je.LockMode;
+import com.sleepycat.je.OperationStatus;
+import com.sleepycat.je.Transaction;
+
+// Validates and inserts records into one table.
+// The schema and the database handles (target table and tables referenced by its FKs) are resolved once
+// in the constructor, so one instance can be reused for every row of a multi-row INSERT or LOAD DATA.
+public class RecordInserter {
+	private static final int FK_CACHE_LIMIT = 65536; // per FK, the cache is cleared when it grows over this
+
+	private TableMeta _tableMeta;
+	private Database _targetDB;
+	private ArrayList<Database> _refedDBList; // in the order of _tableMeta.fkList
+	private ArrayList<HashSet<ByteBuffer>> _foundFKCacheList; // FK keys already found in the referenced table, in the order of _tableMeta.fkList
+	private TableStats _stats; // statistics of the inserted records, stored by flushStats()
+	private long _refCheckNanos; // time spent checking referential integrity
+	private ArrayList<DatabaseEntry> _insertedKeyList; // keys of the inserted records for undoInserts(), null if not undoable
+
+	public RecordInserter(TableMeta tableMeta) {
+		this(tableMeta, false);
+	}
+
+	// isUndoable: the inserted records can be removed again by undoInserts() (multi-row INSERT).
+	// Not for LOAD DATA, whose keys would all be kept in memory.
+	public RecordInserter(TableMeta tableMeta, boolean isUndoable) {
+		MyInterpreter interpreter = MyInterpreter.getInstance();
+
+		_tableMeta = tableMeta;
+		_targetDB = interpreter.getDatabase(tableMeta.tableName);
+		_refedDBList = new ArrayList<Database>();
+		_foundFKCacheList = new ArrayList<HashSet<ByteBuffer>>();
+		_stats = new TableStats(tableMeta);
+		for(FKMeta currFK : tableMeta.fkList) {
+			_refedDBList.add(interpreter.getDatabase(currFK.referencedTableName));
+			_foundFKCacheList.add(new HashSet<ByteBuffer>());
+		}
+		_insertedKeyList = isUndoable ? new ArrayList<DatabaseEntry>() : null;
+	}
+
+	public TableMeta getTableMeta() {
+		return _tableMeta;
+	}
+
+	// colList may be empty, then valList must have a value for every column in the schema order.
+	public void insert(ArrayList<String> colList, ArrayList<DBValue> valList) throws DBError {
+		List<ColumnListDBEntry> colSchema = _tableMeta.columnList;
+
+		// Checks the number of columns
+		if(colList.size() == 0) {
+			if(valList.size() != colSchema.size()) throw new InsertTypeMismatchError();
+		}
+		else {
+			if(valList.size() != colList.size()) throw new InsertTypeMismatchError();
+		}
+
+		// Make a map for column name and its DBValue (map between colList and valList)
+		HashMap<String, DBValue> colListMap = new HashMap<String, DBValue>();
+		for(int i = 0; i < colList.size(); i++) {
+			String currColName = colList.get(i);
+			if(colListMap.containsKey(currColName) == false && _tableMeta.columnIndexMap.containsKey(currColName) == true)
+				colListMap.put(colList.get(i), valList.get(i));
+			else if (_tableMeta.columnIndexMap.containsKey(currColName) == false)
+				throw new InsertColumnExistenceError(currColName);
+			else
+				throw new RuntimeException("Unexpected Error: Column names are duplicated in insert clause!");
+		}
+
+		// Make a record to be inserted
+		ArrayList<DBValue> record = new ArrayList<DBValue>();
+		if(colList.size() == 0) {
+			record.addAll(valList);
+		}
+		else {
+			for(int i = 0; i < colSchema.size(); i++) {
+				String currColName = colSchema.get(i).columnName;
+				if(colListMap.containsKey(currColName))
+					record.add(colListMap.get(currColName));
+				else
+					record.add(new DBValue()); // Insert NULL for columns not specified in colList.
+			}
+		}
+
+		// Check the record has some problems
+
+		// Validation 1. Type Matching & Non Null Constraint
+		for(int i = 0; i < colSchema.size(); i++) {
+			DBValue currValue = record.get(i);
+			ColumnListDBEntry currColumn = colSchema.get(i);
+
+			if(currColumn.columnType.type != currValue.valueType) {
+				if(currValue.valueType == DBType.DBTypeSpecifier.DB_NULL) {
+					if(currColumn.nullable == false)
+						throw new InsertColumnNonNullableError(currColumn.columnName);
+				}
+				else
+					throw new InsertTypeMismatchError();
+			}
+
+			// Char type truncate
+			if(currColumn.columnType.type == DBType.DBTypeSpecifier.DB_CHAR) {
+				currValue.trimChar(currColumn.columnType.length);
+			}
+		}
+
+		// Validation 2. Duplicated Priamry Key
+		ArrayList<DBValue> recordPK = _tableMeta.extractPK(record);
+		if(recordPK.size() > 0) {
+			DatabaseEntry pkKey = new DatabaseEntry(KeyCodec.encode(recordPK));
+			DatabaseEntry foundRecord = new DatabaseEntry();
+			foundRecord.setPartial(0, 0, true); // Only existence matters
+			if(_targetDB.get(null, pkKey, foundRecord, LockMode.DEFAULT) != OperationStatus.NOTFOUND) {
+				throw new InsertDuplicatePrimaryKeyError();
+			}
+		}
+
+		// Validation 3. Referential Integrity
+		if(_tableMeta.fkList.size() > 0) {
+			long start = System.nanoTime();
+			try {
+				_checkReferences(record);
+			}
+			finally {
+				_refCheckNanos += System.nanoTime() - start;
+			}
+		}
+
+		// ----- If code reaches here, then there is no problem to insert the record! ----------------------------------
+		// Insert the record to the BDB
+		DatabaseEntry recordKey;
+		DatabaseEntry recordData = new DatabaseEntry(RowCodec.encode(record, colSchema));
+
+		if(recordPK.size() == 0) { // If this table has no primary key
+			recordKey = new DatabaseEntry(UUID.randomUUID().toString().getBytes(StandardCharsets.UTF_8)); // Use Random-Generated UUID for BDB Key
+			while(_targetDB.putNoOverwrite(null, recordKey, recordData) == OperationStatus.KEYEXIST ) {
+				recordKey = new DatabaseEntry(UUID.randomUUID().toString().getBytes(StandardCharsets.UTF_8)); // If conflict occurs, then generate a new key until no conflict occurs.
+			}
+		}
+		else {
+			recordKey = new DatabaseEntry(KeyCodec.encode(recordPK)); // Use PK(encoded with KeyCodec) of the record for BDB Key
+			if(_targetDB.put(null, recordKey, recordData) != OperationStatus.SUCCESS) {
+				throw new RuntimeException("Insertion failed for unexpected reason!!");
+			}
+		}
+		_stats.addInserted(record);
+		if(_insertedKeyList != null)
+			_insertedKeyList.add(recordKey);
+	}
+
+	// Throws InsertReferentialIntegrityError if a non-null FK of the record is not in the referenced table
+	private void _checkReferences(ArrayList<DBValue> record) throws DBError {
+		Transaction txn = MyInterpreter.getInstance().myDBEnv.getThreadTransaction(); // JE takes no RMW lock without an explicit transaction
+		for(int i = 0; i < _tableMeta.fkList.size(); i++) {
+			// Extract foreign key from current record (in the order that appers in referenced table)
+			ArrayList<DBValue> currRecordFK = _tableMeta.fkList.get(i).extractFK(record);
+			if(currRecordFK == null) continue; // this FK of current record has a null value (-> always met referential integrity for this FK)
+
+			// Checks if this FK of current record is in the referenced table
+			byte[] fkBytes = KeyCodec.encode(currRecordFK);
+			HashSet<ByteBuffer> foundFKCache = _foundFKCacheList.get(i);
+			if(foundFKCache.contains(ByteBuffer.wrap(fkBytes))) continue; // already locked by this transaction
+
+			DatabaseEntry fkKey = new DatabaseEntry(fkBytes);
+			DatabaseEntry foundRecord = new DatabaseEntry();
+			foundRecord.setPartial(0, 0, true);
+
+			// Write locked until commit, so that the referenced row can not be deleted meanwhile (reads are read committed)
+			if(_refedDBList.get(i).get(txn, fkKey, foundRecord, LockMode.RMW) == OperationStatus.NOTFOUND) {
+				throw new InsertReferentialIntegrityError();
+			}
+
+			if(foundFKCache.size() >= FK_CACHE_LIMIT) foundFKCache.clear();
+			foundFKCache.add(ByteBuffer.wrap(fkBytes));
+		}
+	}
+
+	public long getRefCheckNanos() {
+		return _refCheckNanos;
+	}
+
+	// Must be called after the last insert(), in the transaction of the inserts.
+	public void flushStats() {
+		_stats.flush();
+	}
+
+	// Removes the records inserted by this inserter, in the transaction of the inserts, and forgets their statistics.
+	// Their indexes are updated by JE with the table. Must not be called after flushStats().
+	public void undoInserts() {
+		for(int i = _insertedKeyList.size() - 1; i >= 0; i--)
+			_targetDB.delete(null, _insertedKeyList.get(i));
+		_insertedKeyList.clear();
+		_stats = new TableStats(_tableMeta);
+	}
+
+	// Called before the rows inserted so far are committed, with more rows to come (LOAD DATA in chunks):
+	// hands their statistics to the session, stored by the commit, and forgets the FK keys found, as the commit releases their locks.
+	public void endChunk() {
+		flushStats();
+		for(HashSet<ByteBuffer> foundFKCache : _foundFKCacheList)
+			foundFKCache.clear();
+	}
+
+	// Converts one line of a CSV file to values in the schema order.
+	// Fields are separated by ',' and may be quoted with '"' ("" inside quotes is a quote); quoted fields can not span lines.
+	// An empty unquoted field or an unquoted NULL is a null value. Other fields are converted by the type of their column.
+	public ArrayList<DBValue> parseCSVLine(String line) throws DBError {
+		List<ColumnListDBEntry> colSchema = _tableMeta.columnList;
+		ArrayList<DBValue> valList = new ArrayList<DBValue>();
+		StringBuilder field = new StringBuilder();
+		int pos = 0;
+
+		while(true) {
+			boolean isQuoted = false;
+			field.setLength(0);
+
+			if(pos < line.length() && line.charAt(pos) == '"') {
+				isQuoted = true;
+				pos++;
+				while(true) {
+					if(pos >= line.length()) throw new LoadDataFormatError();
+					char c = line.charAt(pos++);
+					if(c != '"') {
+						field.append(c);
+					}
+					else if(pos < line.length() && line.charAt(pos) == '"') {
+						field.append('"');
+						pos++;
+					}
+					else break;
+				}
+				if(pos < line.length() && line.charAt(pos) != ',') throw new LoadDataFormatError();
+			}
+			else {
+				int end = line.indexOf(',', pos);
+				if(end == -1) end = line.length();
+				field.append(line, pos, end);
+				pos = end;
+			}
+
+			if(valList.size() >= colSchema.size()) throw new InsertTypeMismatchError();
+			valList.add(_toDBValue(field.toString(), isQuoted, colSchema.get(valList.size()).columnType));
+
+			if(pos >= line.length()) break;
+			pos++; // skip ','
+		}
+
+		if(valList.size() != colSchema.size()) throw new InsertTypeMismatchError();
+		return valList;
+	}
+
+	private static DBValue _toDBValue(String field, boolean isQuoted, DBType type) throws DBError {
+		if(!isQuoted) {
+			field = field.trim();
+			if(field.length() == 0 || field.equalsIgnoreCase("null")) return new DBValue();
+		}
+
+		try {
+			switch(type.type) {
+			case DB_INT:
+				return new DBValue(Integer.parseInt(field.trim()));
+			case DB_DATE:
+				String[] ymd = field.trim().split("-");
+				if(ymd.length != 3 || ymd[0].length() != 4 || ymd[1].length() != 2 || ymd[2].length() != 2)
+					throw new InsertTypeMismatchError();
+				return new DBValue(Integer.parseInt(ymd[0]), Integer.parseInt(ymd[1]), Integer.parseInt(ymd[2]));
+			case DB_CHAR:
+				return new DBValue(field);
+			default:
+				throw new InsertTypeMismatchError();
+			}
+		}
+		catch(NumberFormatException e) {
+			throw new InsertTypeMismatchError();
+		}
+	}
+}
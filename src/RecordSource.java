@@ -0,0 +1,1117 @@
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.TimeUnit;
+
+import com.sleepycat.je.Cursor;
+import com.sleepycat.je.Database;
+import com.sleepycat.je.DatabaseEntry;
+import com.sleepycat.je.Environment;
+import com.sleepycat.je.LockMode;
+import com.sleepycat.je.OperationStatus;
+import com.sleepycat.je.SecondaryCursor;
+import com.sleepycat.je.SecondaryDatabase;
+import com.sleepycat.je.Transaction;
+
+// Operators of a SELECT plan (built by QueryPlanner).
+// Each source produces records one at a time; a joined record is the left record followed by the right record,
+// so the column layout is always the one FromClause.referenceQuery() expects.
+//
+// Sources can also produce records a batch at a time (nextBatch()). A full table scan decodes rows straight into
+// the column vectors of the batch and filters them with CompiledPredicate.filter(), and FilterSource filters the batches
+// of its child; other sources fill batches from getNext(). A source is read with either getNext() or nextBatch(), not both.
+//
+// Every source counts what it does in its OperatorStats, which EXPLAIN ANALYZE prints with the plan (PlanExplainer).
+public abstract class RecordSource {
+	protected final OperatorStats _opStats = new OperatorStats();
+
+	public abstract ArrayList<DBValue> getNext() throws DBError; // null if there is no more record
+	public abstract void reInit(); // Restart from the first record
+	public abstract void close();
+	public abstract int getWidth(); // number of columns of a produced record
+	public abstract long getEstimatedSize();
+
+	// For EXPLAIN
+	public abstract String describe(); // the operator and its arguments, in one line
+	public abstract List<String> getColumnNames(); // "table.column" for each column of a produced record
+
+	public List<RecordSource> getChildren() {
+		return Collections.emptyList();
+	}
+
+	public OperatorStats getStats() {
+		return _opStats;
+	}
+
+	public long getTotalCursorReads() { // records read from the database by this source and its children
+		long cursorReads = _opStats.cursorReads;
+		for(RecordSource child : getChildren())
+			cursorReads += child.getTotalCursorReads();
+		return cursorReads;
+	}
+
+	public void setTimed(boolean isTimed) { // for this source and its children, before the first record is read
+		_opStats.isTimed = isTimed;
+		for(RecordSource child : getChildren())
+			child.setTimed(isTimed);
+	}
+
+	// Replaces the content of the batch (which has the column layout of the produced records) with the next records.
+	// Returns false if there is no more record. A batch returned with true may have no selected record.
+	public boolean nextBatch(RowBatch batch) throws DBError {
+		return _nextBatchFromRecords(batch);
+	}
+
+	protected final boolean _nextBatchFromRecords(RowBatch batch) throws DBError {
+		batch.clear();
+		ArrayList<DBValue> record;
+		while(!batch.isFull() && (record = getNext()) != null)
+			batch.addRecord(record);
+		return batch.size > 0;
+	}
+}
+
+// Full scan of a table
+// A pushed-down filter (conjuncts on this table only, rebased to its record) drops records before any join.
+class TableScan extends RecordSource {
+	protected String _tableName;
+	protected TableMeta _tableMeta;
+	protected Database _db;
+	protected boolean _started;
+	protected BoolTree _filter;
+	private CompiledPredicate _compiledFilter; // _filter compiled for the records of this table, null if no filter
+	protected byte[] _currentKey; // BDB key of the last produced record
+	private Cursor _cursor;
+	private TableStatsDBEntry _tableStats; // null until the first use
+
+	public TableScan(String tableName) {
+		MyInterpreter interpreter = MyInterpreter.getInstance();
+		_tableName = tableName;
+		_tableMeta = interpreter.getTableMeta(tableName);
+		_db = interpreter.getDatabase(tableName);
+		_cursor = null;
+		_started = false;
+		_filter = null;
+		_compiledFilter = null;
+		_currentKey = null;
+	}
+
+	public void addFilter(BoolTree filter) {
+		if(_filter == null)
+			_filter = filter;
+		else
+			_filter = new BoolTree(BoolTreeOperator.BT_AND).setLeftChild(_filter).setRightChild(filter);
+		_compiledFilter = CompiledPredicate.compile(_filter, _tableMeta);
+	}
+
+	@Override
+	public ArrayList<DBValue> getNext() throws DBError {
+		if(_cursor == null)
+			_cursor = _db.openCursor(null, null);
+
+		DatabaseEntry foundKey = new DatabaseEntry();
+		DatabaseEntry foundData = new DatabaseEntry();
+		while(true) {
+			OperationStatus status;
+			if(!_started) {
+				status = _cursor.getFirst(foundKey, foundData, LockMode.DEFAULT);
+				_started = true;
+			}
+			else
+				status = _cursor.getNext(foundKey, foundData, LockMode.DEFAULT);
+
+			if(status != OperationStatus.SUCCESS)
+				return null;
+
+			ArrayList<DBValue> record = _decode(foundData.getData(), _opStats);
+			if(_accept(record, _opStats)) {
+				_currentKey = foundKey.getData();
+				_opStats.rowsOut++;
+				return record;
+			}
+		}
+	}
+
+	// getCurrentKey() is not maintained in batch mode.
+	@Override
+	public boolean nextBatch(RowBatch batch) throws DBError {
+		if(_cursor == null)
+			_cursor = _db.openCursor(null, null);
+
+		batch.clear();
+		DatabaseEntry foundKey = new DatabaseEntry();
+		DatabaseEntry foundData = new DatabaseEntry();
+		while(!batch.isFull()) {
+			OperationStatus status;
+			if(!_started) {
+				status = _cursor.getFirst(foundKey, foundData, LockMode.DEFAULT);
+				_started = true;
+			}
+			else
+				status = _cursor.getNext(foundKey, foundData, LockMode.DEFAULT);
+
+			if(status != OperationStatus.SUCCESS)
+				break;
+			long start = _opStats.startTimer();
+			RowCodec.decodeInto(foundData.getData(), _tableMeta.columnList, batch);
+			_opStats.decodeNanos += _opStats.elapsedSince(start);
+			_opStats.cursorReads++;
+			_opStats.bytesRead += foundData.getSize();
+		}
+
+		if(batch.size == 0)
+			return false;
+		if(_compiledFilter != null) {
+			long start = _opStats.startTimer();
+			_compiledFilter.filter(batch);
+			_opStats.filterNanos += _opStats.elapsedSince(start);
+		}
+		_opStats.rowsOut += batch.selCount;
+		return true;
+	}
+
+	// Decodes a record read from the database, counting it in stats.
+	protected ArrayList<DBValue> _decode(byte[] data, OperatorStats stats) {
+		long start = stats.startTimer();
+		ArrayList<DBValue> record = RowCodec.decode(data, _tableMeta.columnList);
+		stats.decodeNanos += stats.elapsedSince(start);
+		stats.cursorReads++;
+		stats.bytesRead += data.length;
+		return record;
+	}
+
+	protected boolean _accept(ArrayList<DBValue> record, OperatorStats stats) throws DBError {
+		if(_compiledFilter == null)
+			return true;
+		long start = stats.startTimer();
+		boolean isTrue = _compiledFilter.isTrue(record);
+		stats.filterNanos += stats.elapsedSince(start);
+		return isTrue;
+	}
+
+	@Override
+	public void reInit() {
+		_started = false;
+	}
+
+	@Override
+	public void close() {
+		if(_cursor != null)
+			_cursor.close();
+		_cursor = null;
+	}
+
+	@Override
+	public int getWidth() {
+		return _tableMeta.columnCount();
+	}
+
+	// Records produced: the records of the table scaled by the selectivity of each conjunct of the filter,
+	// at most the records read.
+	@Override
+	public long getEstimatedSize() {
+		TableStatsDBEntry stats = getTableStats();
+		double rows = Math.max(0, stats.rowCount);
+		if(_filter != null) {
+			SelectivityEstimator estimator = new SelectivityEstimator(new int[] { 0, _tableMeta.columnCount() }, new TableStatsDBEntry[] { stats });
+			ArrayList<BoolTree> conjunctList = new ArrayList<BoolTree>();
+			_filter.collectConjuncts(conjunctList);
+			for(BoolTree conjunct : conjunctList)
+				rows *= estimator.estimate(conjunct);
+		}
+		return Math.min(getEstimatedReads(), (long)Math.ceil(rows));
+	}
+
+	public long getEstimatedReads() { // records read from the table
+		return getTableStats().rowCount;
+	}
+
+	@Override
+	public String describe() {
+		return "Table Scan on " + _tableName + _describeFilter();
+	}
+
+	protected String _describeFilter() {
+		return (_filter == null) ? "" : ", filter: " + _filter.format(getColumnNames());
+	}
+
+	@Override
+	public List<String> getColumnNames() {
+		ArrayList<String> colNameList = new ArrayList<String>();
+		for(ColumnListDBEntry col : _tableMeta.columnList)
+			colNameList.add(_tableName + "." + col.columnName);
+		return colNameList;
+	}
+
+	public TableStatsDBEntry getTableStats() { // Loaded once, at the first use
+		if(_tableStats == null)
+			_tableStats = TableStats.load(_tableMeta);
+		return _tableStats;
+	}
+
+	public String getTableName() {
+		return _tableName;
+	}
+
+	public byte[] getCurrentKey() {
+		return _currentKey;
+	}
+}
+
+// Access by primary key: a single Database.get() for a point lookup, or a cursor range [lowKey, highPrefix] over the table
+// (keys are KeyCodec encoded PKs in column order, so a key range covers the records whose leading PK columns are in the range).
+// The bounds only narrow the scan; the filter is still evaluated on every record.
+class PKScan extends TableScan {
+	private byte[] _lowKey; // null if unbounded
+	private byte[] _highPrefix; // null if unbounded
+	private boolean _isPointLookup; // _lowKey is a complete PK
+	private Cursor _cursor;
+
+	public PKScan(String tableName, byte[] lowKey, byte[] highPrefix, boolean isPointLookup) {
+		super(tableName);
+		_lowKey = lowKey;
+		_highPrefix = highPrefix;
+		_isPointLookup = isPointLookup;
+		_cursor = null;
+	}
+
+	@Override
+	public ArrayList<DBValue> getNext() throws DBError {
+		DatabaseEntry foundKey = new DatabaseEntry();
+		DatabaseEntry foundData = new DatabaseEntry();
+		if(_isPointLookup) {
+			if(_started)
+				return null;
+			_started = true;
+			foundKey.setData(_lowKey);
+			if(_db.get(null, foundKey, foundData, LockMode.DEFAULT) != OperationStatus.SUCCESS)
+				return null;
+			ArrayList<DBValue> record = _decode(foundData.getData(), _opStats);
+			if(!_accept(record, _opStats))
+				return null;
+			_currentKey = _lowKey;
+			_opStats.rowsOut++;
+			return record;
+		}
+
+		if(_cursor == null)
+			_cursor = _db.openCursor(null, null);
+		while(true) {
+			OperationStatus status;
+			if(!_started) {
+				if(_lowKey == null)
+					status = _cursor.getFirst(foundKey, foundData, LockMode.DEFAULT);
+				else {
+					foundKey.setData(_lowKey);
+					status = _cursor.getSearchKeyRange(foundKey, foundData, LockMode.DEFAULT);
+				}
+				_started = true;
+			}
+			else
+				status = _cursor.getNext(foundKey, foundData, LockMode.DEFAULT);
+
+			if(status != OperationStatus.SUCCESS)
+				return null;
+			if(_highPrefix != null && KeyCodec.comparePrefix(foundKey.getData(), _highPrefix) > 0)
+				return null;
+
+			ArrayList<DBValue> record = _decode(foundData.getData(), _opStats);
+			if(_accept(record, _opStats)) {
+				_currentKey = foundKey.getData();
+				_opStats.rowsOut++;
+				return record;
+			}
+		}
+	}
+
+	@Override
+	public boolean nextBatch(RowBatch batch) throws DBError {
+		return _nextBatchFromRecords(batch);
+	}
+
+	@Override
+	public void close() {
+		if(_cursor != null)
+			_cursor.close();
+		_cursor = null;
+	}
+
+	@Override
+	public long getEstimatedReads() {
+		return _isPointLookup ? 1 : Math.max(1, getTableStats().rowCount / 3);
+	}
+
+	@Override
+	public String describe() {
+		return (_isPointLookup ? "PK Lookup on " : "PK Range Scan on ") + _tableName + _describeFilter();
+	}
+}
+
+// Scan of the records whose first indexed column is in [lowValue, highValue] (a null bound is unbounded), in index order.
+// Nulls of the column are never produced, as they sort first in the index and no comparison with null is true.
+// The bounds only narrow the scan; the filter is still evaluated on every record.
+class IndexScan extends TableScan {
+	private IndexMeta _index;
+	private SecondaryDatabase _indexDB;
+	private SecondaryCursor _cursor;
+	private byte[] _lowKey; // first key to visit
+	private byte[] _highPrefix; // null if unbounded
+	private boolean _isPointLookup;
+
+	public IndexScan(String tableName, IndexMeta index, DBValue lowValue, DBValue highValue) {
+		super(tableName);
+		_index = index;
+		_indexDB = MyInterpreter.getInstance().getIndex(index);
+		_cursor = null;
+
+		ArrayList<DBValue> bound = new ArrayList<DBValue>(1);
+		if(lowValue == null)
+			_lowKey = new byte[] { KeyCodec.VALUE_MARKER };
+		else {
+			bound.add(lowValue);
+			_lowKey = KeyCodec.encodeNullable(bound);
+		}
+		if(highValue == null)
+			_highPrefix = null;
+		else {
+			bound.clear();
+			bound.add(highValue);
+			_highPrefix = KeyCodec.encodeNullable(bound);
+		}
+		_isPointLookup = (lowValue != null && highValue != null && lowValue.equals(highValue));
+	}
+
+	@Override
+	public ArrayList<DBValue> getNext() throws DBError {
+		if(_cursor == null)
+			_cursor = _indexDB.openCursor(null, null);
+
+		DatabaseEntry foundKey = new DatabaseEntry();
+		DatabaseEntry foundPKey = new DatabaseEntry();
+		DatabaseEntry foundData = new DatabaseEntry();
+		while(true) {
+			OperationStatus status;
+			if(!_started) {
+				foundKey.setData(_lowKey);
+				status = _cursor.getSearchKeyRange(foundKey, foundPKey, foundData, LockMode.DEFAULT);
+				_started = true;
+			}
+			else
+				status = _cursor.getNext(foundKey, foundPKey, foundData, LockMode.DEFAULT);
+
+			if(status != OperationStatus.SUCCESS)
+				return null;
+			if(_highPrefix != null && KeyCodec.comparePrefix(foundKey.getData(), _highPrefix) > 0)
+				return null;
+
+			ArrayList<DBValue> record = _decode(foundData.getData(), _opStats);
+			if(_accept(record, _opStats)) {
+				_currentKey = foundPKey.getData();
+				_opStats.rowsOut++;
+				return record;
+			}
+		}
+	}
+
+	@Override
+	public boolean nextBatch(RowBatch batch) throws DBError {
+		return _nextBatchFromRecords(batch);
+	}
+
+	@Override
+	public void close() {
+		if(_cursor != null)
+			_cursor.close();
+		_cursor = null;
+	}
+
+	@Override
+	public long getEstimatedReads() { // A point lookup finds rowCount / NDV records, a range is assumed to find a third of them
+		TableStatsDBEntry stats = getTableStats();
+		if(_isPointLookup)
+			return Math.max(1, stats.rowCount / Math.max(1, TableStats.estimateNDV(stats, _index.colIdx[0])));
+		return Math.max(1, stats.rowCount / 3);
+	}
+
+	@Override
+	public String describe() {
+		return (_isPointLookup ? "Index Lookup on " : "Index Range Scan on ") + _tableName + " using " + _index.indexName + _describeFilter();
+	}
+
+	public IndexMeta getIndex() {
+		return _index;
+	}
+}
+
+// Full scan of a table by key ranges in parallel (single table SELECT).
+// The key space between the first and the last key is split into ranges by interpolating the leading key bytes,
+// several ranges per worker so that skewed ranges are balanced by work stealing. Each range is read and filtered
+// on a ForkJoin worker with its own cursor, and handed over in chunks through a bounded queue per range.
+// getNext() takes the ranges in key order, so records (and a WhereIncomparableError) come in the order of a serial scan.
+//
+// Tables with less than MIN_PARALLEL_ROWS records are scanned serially.
+class ParallelTableScan extends TableScan {
+	public static final int MIN_PARALLEL_ROWS = 8192;
+	private static final int RANGES_PER_WORKER = 4;
+	private static final int CHUNK_SIZE = 256; // records per queue item
+	private static final int QUEUE_CAPACITY = 4; // chunks per range
+	private static final Object END_OF_RANGE = new Object();
+
+	private static ForkJoinPool _pool; // shared by all scans, created on first use
+
+	private boolean _isSerial;
+	private volatile boolean _isCancelled;
+	private ArrayList<ArrayBlockingQueue<Object>> _queueList; // one per range, null if not started
+	private ArrayList<ForkJoinTask<?>> _taskList;
+	private int _rangeIdx; // range currently taken by getNext()
+	private ArrayList<ArrayList<DBValue>> _chunk;
+	private int _chunkPos;
+
+	public ParallelTableScan(String tableName) {
+		super(tableName);
+		_isSerial = (Runtime.getRuntime().availableProcessors() < 2);
+		_queueList = null;
+	}
+
+	private static synchronized ForkJoinPool _getPool() {
+		if(_pool == null)
+			_pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+		return _pool;
+	}
+
+	@Override
+	public ArrayList<DBValue> getNext() throws DBError {
+		if(!_isSerial && _queueList == null && !_started)
+			_start();
+		if(_isSerial)
+			return super.getNext();
+
+		while(true) {
+			if(_chunk != null && _chunkPos < _chunk.size()) {
+				_opStats.rowsOut++;
+				return _chunk.get(_chunkPos++);
+			}
+			if(_rangeIdx >= _queueList.size())
+				return null;
+
+			Object item;
+			try {
+				item = _queueList.get(_rangeIdx).take();
+			}
+			catch(InterruptedException e) {
+				throw new RuntimeException(e);
+			}
+
+			if(item == END_OF_RANGE) {
+				_rangeIdx++;
+				_chunk = null;
+			}
+			else if(item instanceof DBError)
+				throw (DBError)item;
+			else if(item instanceof RuntimeException)
+				throw (RuntimeException)item;
+			else {
+				_chunk = (ArrayList<ArrayList<DBValue>>)item;
+				_chunkPos = 0;
+			}
+		}
+	}
+
+	// A small table is scanned in batches by TableScan; the records of the workers are copied into batches.
+	@Override
+	public boolean nextBatch(RowBatch batch) throws DBError {
+		if(!_isSerial && _queueList == null && !_started)
+			_start();
+		if(_isSerial)
+			return super.nextBatch(batch);
+		return _nextBatchFromRecords(batch);
+	}
+
+	// Splits the key space and submits a task per range, or sets _isSerial for a small table.
+	private void _start() {
+		Cursor cursor = _db.openCursor(null, null);
+		byte[] firstKey, lastKey;
+		try {
+			DatabaseEntry foundKey = new DatabaseEntry();
+			DatabaseEntry foundData = new DatabaseEntry();
+			foundData.setPartial(0, 0, true); // Keys only
+			
+			int rowCount = 0;
+			OperationStatus status = cursor.getFirst(foundKey, foundData, LockMode.DEFAULT);
+			if(status != OperationStatus.SUCCESS) {
+				_isSerial = true;
+				return;
+			}
+			firstKey = foundKey.getData();
+			while(status == OperationStatus.SUCCESS && ++rowCount < MIN_PARALLEL_ROWS)
+				status = cursor.getNext(foundKey, foundData, LockMode.DEFAULT);
+			if(rowCount < MIN_PARALLEL_ROWS) {
+				_isSerial = true;
+				return;
+			}
+			
+			cursor.getLast(foundKey, foundData, LockMode.DEFAULT);
+			lastKey = foundKey.getData();
+		}
+		finally {
+			cursor.close();
+		}
+
+		ForkJoinPool pool = _getPool();
+		ArrayList<byte[]> boundList = _splitKeySpace(firstKey, lastKey, pool.getParallelism() * RANGES_PER_WORKER);
+		
+		final Environment env = MyInterpreter.getInstance().myDBEnv;
+		final Transaction txn = env.getThreadTransaction(); // Workers join the transaction of the statement
+		_isCancelled = false;
+		_queueList = new ArrayList<ArrayBlockingQueue<Object>>();
+		_taskList = new ArrayList<ForkJoinTask<?>>();
+		_rangeIdx = 0;
+		_chunk = null;
+		for(int i = 0; i <= boundList.size(); i++) {
+			final byte[] lowKey = (i == 0) ? null : boundList.get(i-1);
+			final byte[] highKey = (i == boundList.size()) ? null : boundList.get(i);
+			final ArrayBlockingQueue<Object> queue = new ArrayBlockingQueue<Object>(QUEUE_CAPACITY);
+			_queueList.add(queue);
+			_taskList.add(pool.submit(new Runnable() {
+				@Override
+				public void run() {
+					env.setThreadTransaction(txn);
+					try {
+						_scanRange(lowKey, highKey, queue);
+					}
+					finally {
+						env.setThreadTransaction(null);
+					}
+				}
+			}));
+		}
+	}
+
+	// Increasing keys splitting [firstKey, lastKey] into about rangeCount ranges, by the first 8 bytes of the keys.
+	private static ArrayList<byte[]> _splitKeySpace(byte[] firstKey, byte[] lastKey, int rangeCount) {
+		BigInteger first = _leadingBytes(firstKey), last = _leadingBytes(lastKey);
+		BigInteger span = last.subtract(first);
+		ArrayList<byte[]> boundList = new ArrayList<byte[]>();
+		for(int i = 1; i < rangeCount; i++) {
+			BigInteger bound = first.add(span.multiply(BigInteger.valueOf(i)).divide(BigInteger.valueOf(rangeCount)));
+			byte[] boundKey = new byte[8];
+			byte[] boundBytes = bound.toByteArray(); // big-endian, may have a leading sign byte
+			for(int j = 0; j < 8 && j < boundBytes.length; j++)
+				boundKey[7-j] = boundBytes[boundBytes.length-1-j];
+			if(boundList.size() == 0 || KeyCodec.compare(boundList.get(boundList.size()-1), boundKey) < 0)
+				boundList.add(boundKey);
+		}
+		return boundList;
+	}
+
+	private static BigInteger _leadingBytes(byte[] key) { // first 8 bytes as an unsigned number, zero padded
+		byte[] leading = new byte[9]; // leading[0] == 0 keeps the number positive
+		for(int i = 0; i < 8 && i < key.length; i++)
+			leading[i+1] = key[i];
+		return new BigInteger(leading);
+	}
+
+	// Reads [lowKey, highKey) (a null bound is unbounded) on a worker.
+	private void _scanRange(byte[] lowKey, byte[] highKey, ArrayBlockingQueue<Object> queue) {
+		ArrayList<ArrayList<DBValue>> chunk = new ArrayList<ArrayList<DBValue>>(CHUNK_SIZE);
+		OperatorStats rangeStats = new OperatorStats(); // rowsOut is counted by getNext() only, see OperatorStats.add()
+		rangeStats.isTimed = _opStats.isTimed;
+		Cursor cursor = null;
+		try {
+			cursor = _db.openCursor(null, null);
+			DatabaseEntry foundKey = new DatabaseEntry();
+			DatabaseEntry foundData = new DatabaseEntry();
+			OperationStatus status;
+			if(lowKey == null)
+				status = cursor.getFirst(foundKey, foundData, LockMode.DEFAULT);
+			else {
+				foundKey.setData(lowKey);
+				status = cursor.getSearchKeyRange(foundKey, foundData, LockMode.DEFAULT);
+			}
+
+			while(status == OperationStatus.SUCCESS && !_isCancelled) {
+				if(highKey != null && KeyCodec.compare(foundKey.getData(), highKey) >= 0)
+					break;
+
+				ArrayList<DBValue> record = _decode(foundData.getData(), rangeStats);
+				if(_accept(record, rangeStats)) { // the compiled filter keeps no state, so workers share it
+					chunk.add(record);
+					if(chunk.size() == CHUNK_SIZE) {
+						_put(queue, chunk);
+						chunk = new ArrayList<ArrayList<DBValue>>(CHUNK_SIZE);
+					}
+				}
+				status = cursor.getNext(foundKey, foundData, LockMode.DEFAULT);
+			}
+			if(chunk.size() > 0)
+				_put(queue, chunk);
+			_put(queue, END_OF_RANGE);
+		}
+		catch(DBError e) { // Records before the error are still produced, as in a serial scan
+			if(chunk.size() > 0)
+				_put(queue, chunk);
+			_put(queue, e);
+		}
+		catch(RuntimeException e) {
+			_put(queue, e);
+		}
+		finally {
+			if(cursor != null)
+				cursor.close();
+			_opStats.add(rangeStats);
+		}
+	}
+
+	// Blocks while the queue is full (letting the pool run other ranges meanwhile), gives up if the scan is cancelled.
+	private void _put(final ArrayBlockingQueue<Object> queue, final Object item) {
+		try {
+			ForkJoinPool.managedBlock(new ForkJoinPool.ManagedBlocker() {
+				private boolean _isDone = false;
+
+				@Override
+				public boolean block() throws InterruptedException {
+					while(!_isDone && !_isCancelled)
+						_isDone = queue.offer(item, 10, TimeUnit.MILLISECONDS);
+					return true;
+				}
+
+				@Override
+				public boolean isReleasable() {
+					return _isDone || _isCancelled || (_isDone = queue.offer(item));
+				}
+			});
+		}
+		catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	// Stops the workers and waits for them, so that no cursor is left open.
+	private void _stop() {
+		if(_queueList == null) return;
+
+		_isCancelled = true;
+		for(ForkJoinTask<?> task : _taskList)
+			task.quietlyJoin();
+		_queueList = null;
+		_taskList = null;
+		_chunk = null;
+	}
+
+	@Override
+	public void reInit() {
+		_stop();
+		super.reInit();
+	}
+
+	@Override
+	public String describe() {
+		return "Parallel Table Scan on " + _tableName + _describeFilter();
+	}
+
+	@Override
+	public void close() {
+		_stop();
+		super.close();
+	}
+}
+
+// Drops records for which the predicate is not TRUE
+class FilterSource extends RecordSource {
+	private RecordSource _child;
+	private BoolTree _condition;
+	private CompiledPredicate _predicate;
+	private long _estimatedSize;
+
+	public FilterSource(RecordSource child, BoolTree condition, List<DBType.DBTypeSpecifier> colTypeList, long estimatedSize) {
+		_child = child;
+		_condition = condition;
+		_predicate = CompiledPredicate.compile(condition, colTypeList);
+		_estimatedSize = estimatedSize;
+	}
+
+	@Override
+	public ArrayList<DBValue> getNext() throws DBError {
+		ArrayList<DBValue> record;
+		while((record = _child.getNext()) != null) {
+			long start = _opStats.startTimer();
+			boolean isTrue = _predicate.isTrue(record);
+			_opStats.filterNanos += _opStats.elapsedSince(start);
+			if(isTrue) {
+				_opStats.rowsOut++;
+				return record;
+			}
+		}
+		return null;
+	}
+
+	@Override
+	public boolean nextBatch(RowBatch batch) throws DBError {
+		if(!_child.nextBatch(batch))
+			return false;
+		long start = _opStats.startTimer();
+		_predicate.filter(batch);
+		_opStats.filterNanos += _opStats.elapsedSince(start);
+		_opStats.rowsOut += batch.selCount;
+		return true;
+	}
+
+	@Override
+	public String describe() {
+		return "Filter: " + _condition.format(getColumnNames());
+	}
+
+	@Override
+	public List<String> getColumnNames() {
+		return _child.getColumnNames();
+	}
+
+	@Override
+	public List<RecordSource> getChildren() {
+		return Arrays.asList(_child);
+	}
+
+	@Override
+	public void reInit() {
+		_child.reInit();
+	}
+
+	@Override
+	public void close() {
+		_child.close();
+	}
+
+	@Override
+	public int getWidth() {
+		return _child.getWidth();
+	}
+
+	@Override
+	public long getEstimatedSize() {
+		return _estimatedSize;
+	}
+}
+
+// Cartesian product. The inner records are read once, at the first outer record, and kept in memory,
+// so the inner source is not scanned again for each outer record.
+class NestedLoopJoin extends RecordSource {
+	private RecordSource _outer, _inner;
+	private long _estimatedSize;
+	private ArrayList<ArrayList<DBValue>> _innerList; // null until loaded
+	private ArrayList<DBValue> _currOuter;
+	private int _innerPos;
+
+	public NestedLoopJoin(RecordSource outer, RecordSource inner, long estimatedSize) {
+		_outer = outer;
+		_inner = inner;
+		_estimatedSize = estimatedSize;
+		_innerList = null;
+		_currOuter = null;
+		_innerPos = 0;
+	}
+
+	@Override
+	public ArrayList<DBValue> getNext() throws DBError {
+		while(true) {
+			if(_currOuter == null) {
+				_currOuter = _outer.getNext();
+				if(_currOuter == null)
+					return null;
+				if(_innerList == null)
+					_loadInner();
+				_innerPos = 0;
+			}
+
+			if(_innerPos < _innerList.size()) {
+				_opStats.rowsOut++;
+				return HashJoin.concat(_currOuter, _innerList.get(_innerPos++));
+			}
+			_currOuter = null;
+		}
+	}
+
+	private void _loadInner() throws DBError {
+		_innerList = new ArrayList<ArrayList<DBValue>>();
+		ArrayList<DBValue> record;
+		while((record = _inner.getNext()) != null)
+			_innerList.add(record);
+	}
+
+	@Override
+	public String describe() {
+		return "Nested Loop Join";
+	}
+
+	@Override
+	public List<String> getColumnNames() {
+		return HashJoin.concatNames(_outer.getColumnNames(), _inner.getColumnNames());
+	}
+
+	@Override
+	public List<RecordSource> getChildren() {
+		return Arrays.asList(_outer, _inner);
+	}
+
+	@Override
+	public void reInit() { // The inner records are kept, only the outer side restarts.
+		_outer.reInit();
+		_currOuter = null;
+	}
+
+	@Override
+	public void close() {
+		_outer.close();
+		_inner.close();
+		_innerList = null;
+	}
+
+	@Override
+	public int getWidth() {
+		return _outer.getWidth() + _inner.getWidth();
+	}
+
+	@Override
+	public long getEstimatedSize() {
+		return _estimatedSize;
+	}
+}
+
+// Equi-join on (left[leftKeyIdx[i]] = right[rightKeyIdx[i]]) for all i.
+// One input is loaded into a hash table (build side, the one QueryPlanner estimates smaller), and the other input is streamed (probe side).
+// Records with a null key never match, as '=' with null is never true.
+class HashJoin extends RecordSource {
+	private RecordSource _left, _right;
+	private int[] _leftKeyIdx, _rightKeyIdx; // rightKeyIdx is relative to the right record
+	private boolean _buildLeft;
+	private long _estimatedSize;
+	private HashMap<ArrayList<DBValue>, ArrayList<ArrayList<DBValue>>> _hashTable;
+
+	private ArrayList<DBValue> _currProbe;
+	private ArrayList<ArrayList<DBValue>> _currMatchList;
+	private int _currMatchIdx;
+
+	public HashJoin(RecordSource left, RecordSource right, int[] leftKeyIdx, int[] rightKeyIdx, boolean buildLeft, long estimatedSize) {
+		_left = left;
+		_right = right;
+		_leftKeyIdx = leftKeyIdx;
+		_rightKeyIdx = rightKeyIdx;
+		_buildLeft = buildLeft;
+		_estimatedSize = estimatedSize;
+		_hashTable = null;
+		_currProbe = null;
+		_currMatchList = null;
+		_currMatchIdx = 0;
+	}
+
+	@Override
+	public ArrayList<DBValue> getNext() throws DBError {
+		if(_hashTable == null)
+			_build();
+
+		RecordSource probeSource = _buildLeft ? _right : _left;
+		int[] probeKeyIdx = _buildLeft ? _rightKeyIdx : _leftKeyIdx;
+		while(true) {
+			if(_currMatchList != null && _currMatchIdx < _currMatchList.size()) {
+				ArrayList<DBValue> matched = _currMatchList.get(_currMatchIdx++);
+				_opStats.rowsOut++;
+				return _buildLeft ? concat(matched, _currProbe) : concat(_currProbe, matched);
+			}
+
+			_currProbe = probeSource.getNext();
+			if(_currProbe == null)
+				return null;
+			ArrayList<DBValue> key = extractKey(_currProbe, probeKeyIdx);
+			_currMatchList = (key == null) ? null : _hashTable.get(key);
+			_currMatchIdx = 0;
+		}
+	}
+
+	private void _build() throws DBError {
+		RecordSource buildSource = _buildLeft ? _left : _right;
+		int[] buildKeyIdx = _buildLeft ? _leftKeyIdx : _rightKeyIdx;
+		_hashTable = new HashMap<ArrayList<DBValue>, ArrayList<ArrayList<DBValue>>>();
+
+		ArrayList<DBValue> record;
+		while((record = buildSource.getNext()) != null) {
+			ArrayList<DBValue> key = extractKey(record, buildKeyIdx);
+			if(key == null) continue;
+
+			ArrayList<ArrayList<DBValue>> bucket = _hashTable.get(key);
+			if(bucket == null) {
+				bucket = new ArrayList<ArrayList<DBValue>>(1);
+				_hashTable.put(key, bucket);
+			}
+			bucket.add(record);
+		}
+	}
+
+	@Override
+	public String describe() {
+		List<String> leftNameList = _left.getColumnNames(), rightNameList = _right.getColumnNames();
+		StringBuilder text = new StringBuilder("Hash Join on ");
+		for(int i = 0; i < _leftKeyIdx.length; i++) {
+			if(i > 0) text.append(" and ");
+			text.append(leftNameList.get(_leftKeyIdx[i])).append(" = ").append(rightNameList.get(_rightKeyIdx[i]));
+		}
+		text.append(_buildLeft ? " (build left)" : " (build right)");
+		return text.toString();
+	}
+
+	@Override
+	public List<String> getColumnNames() {
+		return concatNames(_left.getColumnNames(), _right.getColumnNames());
+	}
+
+	@Override
+	public List<RecordSource> getChildren() {
+		return Arrays.asList(_left, _right);
+	}
+
+	@Override
+	public void reInit() { // The hash table is kept, only the probe side restarts.
+		if(_buildLeft) _right.reInit();
+		else _left.reInit();
+		_currProbe = null;
+		_currMatchList = null;
+		_currMatchIdx = 0;
+	}
+
+	@Override
+	public void close() {
+		_left.close();
+		_right.close();
+		_hashTable = null;
+	}
+
+	@Override
+	public int getWidth() {
+		return _left.getWidth() + _right.getWidth();
+	}
+
+	@Override
+	public long getEstimatedSize() {
+		return _estimatedSize;
+	}
+
+	public static ArrayList<DBValue> extractKey(List<DBValue> record, int[] keyIdx) { // null if the key has a null value
+		ArrayList<DBValue> key = new ArrayList<DBValue>(keyIdx.length);
+		for(int i : keyIdx) {
+			DBValue v = record.get(i);
+			if(v.isNull()) return null;
+			key.add(v);
+		}
+		return key;
+	}
+
+	public static List<String> concatNames(List<String> left, List<String> right) {
+		ArrayList<String> names = new ArrayList<String>(left.size() + right.size());
+		names.addAll(left);
+		names.addAll(right);
+		return names;
+	}
+
+	public static ArrayList<DBValue> concat(ArrayList<DBValue> left, ArrayList<DBValue> right) {
+		ArrayList<DBValue> record = new ArrayList<DBValue>(left.size() + right.size());
+		record.addAll(left);
+		record.addAll(right);
+		return record;
+	}
+}
+
+// Reorders the columns of the records of its child: column i of a produced record is column colMap[i] of the child record.
+// Gives the records of tables joined in another order than FROM the FromClause column layout.
+class ProjectSource extends RecordSource {
+	private RecordSource _child;
+	private int[] _colMap;
+	private RowBatch _childBatch; // in the column layout of the child
+
+	public ProjectSource(RecordSource child, int[] colMap, List<DBType.DBTypeSpecifier> childColTypeList) {
+		_child = child;
+		_colMap = colMap;
+		_childBatch = new RowBatch(childColTypeList);
+	}
+
+	@Override
+	public ArrayList<DBValue> getNext() throws DBError {
+		ArrayList<DBValue> childRecord = _child.getNext();
+		if(childRecord == null)
+			return null;
+
+		ArrayList<DBValue> record = new ArrayList<DBValue>(_colMap.length);
+		for(int i = 0; i < _colMap.length; i++)
+			record.add(childRecord.get(_colMap[i]));
+		_opStats.rowsOut++;
+		return record;
+	}
+
+	// The column vectors are swapped with the ones of the child batch instead of copied.
+	// Column i of the batch and column colMap[i] of the child batch have the same type, so both batches stay valid.
+	@Override
+	public boolean nextBatch(RowBatch batch) throws DBError {
+		if(!_child.nextBatch(_childBatch))
+			return false;
+
+		for(int i = 0; i < _colMap.length; i++) {
+			int j = _colMap[i];
+			int[] intCol = batch.intCols[i];
+			batch.intCols[i] = _childBatch.intCols[j];
+			_childBatch.intCols[j] = intCol;
+			String[] charCol = batch.charCols[i];
+			batch.charCols[i] = _childBatch.charCols[j];
+			_childBatch.charCols[j] = charCol;
+			boolean[] nullCol = batch.nullCols[i];
+			batch.nullCols[i] = _childBatch.nullCols[j];
+			_childBatch.nullCols[j] = nullCol;
+		}
+		batch.size = _childBatch.size;
+		System.arraycopy(_childBatch.sel, 0, batch.sel, 0, _childBatch.selCount);
+		batch.selCount = _childBatch.selCount;
+		_opStats.rowsOut += batch.selCount;
+		return true;
+	}
+
+	@Override
+	public String describe() {
+		return "Reorder columns to FROM order";
+	}
+
+	@Override
+	public List<String> getColumnNames() {
+		List<String> childNameList = _child.getColumnNames();
+		ArrayList<String> colNameList = new ArrayList<String>(_colMap.length);
+		for(int i = 0; i < _colMap.length; i++)
+			colNameList.add(childNameList.get(_colMap[i]));
+		return colNameList;
+	}
+
+	@Override
+	public List<RecordSource> getChildren() {
+		return Arrays.asList(_child);
+	}
+
+	@Override
+	public void reInit() {
+		_child.reInit();
+	}
+
+	@Override
+	public void close() {
+		_child.close();
+	}
+
+	@Override
+	public int getWidth() {
+		return _colMap.length;
+	}
+
+	@Override
+	public long getEstimatedSize() {
+		return _child.getEstimatedSize();
+	}
+}
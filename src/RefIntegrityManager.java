@@ -1,191 +1,354 @@
-import java.io.UnsupportedEncodingException;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
+import com.sleepycat.je.Cursor;
 import com.sleepycat.je.Database;
-import com.sleepycat.je.DatabaseException;
 import com.sleepycat.je.DatabaseEntry;
-import com.sleepycat.je.DatabaseConfig;
-import com.sleepycat.je.DatabaseNotFoundException;
+import com.sleepycat.je.Environment;
 import com.sleepycat.je.LockMode;
 import com.sleepycat.je.OperationStatus;
-import com.sleepycat.je.Cursor;
-import com.sleepycat.je.Environment;
-import com.sleepycat.je.EnvironmentConfig;
+import com.sleepycat.je.SecondaryCursor;
+import com.sleepycat.je.SecondaryDatabase;
+import com.sleepycat.je.SecondaryKeyCreator;
+import com.sleepycat.je.Transaction;
 
+// Referential integrity on deletion of records of a table.
+// Records referencing a deleted record are found through the FK indexes of the referencing tables (see MyInterpreter.getFKIndex()),
+// so only the matching records are read, not the whole referencing tables.
+// A large DELETE is handled by batchCascadeDelete() instead, which reads each referencing table once for all the deleted records.
 public class RefIntegrityManager {
 	
+	// Number of deleted records from which one pass over each referencing table is cheaper than index lookups per record
+	public static final int BATCH_DELETE_THRESHOLD = 256;
+
 	private String _myTableName;
 	private ArrayList<Integer> _myPKIdx;
 	private ArrayList<String> _myPKColName;
-	private ArrayList<ArrayList<SimpleFKInfo>> _fkInfoListPerTable;
+	private ArrayList<FKMeta> _refingFKList; // FKs referencing myTable
+	private HashMap<String, List<ColumnListDBEntry>> _colSchemaPerTable; // Column schema of referencing tables (used for decoding their records)
+	private boolean _isSelfReferenced; // true if myTable has an FK referencing itself
+	private HashMap<String, TableStats> _statsPerTable; // FK values set to null in referencing tables, stored by flushStats()
 
 
 	public RefIntegrityManager(String tableName) {
 		MyInterpreter interpreter = MyInterpreter.getInstance();
-		ArrayList<ColumnListDBEntry> colSchemaList = interpreter.getColumnSchema(tableName);		
-		
+		TableMeta tableMeta = interpreter.getTableMeta(tableName);
+
 		_myTableName = tableName;
 		_myPKIdx = new ArrayList<Integer>();
 		_myPKColName = new ArrayList<String>();
-		for(ColumnListDBEntry colSchema: colSchemaList) {
-			if(colSchema.primaryKey) {
-				_myPKIdx.add(colSchema.columnIndex);
-				_myPKColName.add(colSchema.columnName);
-			}
+		for(int i : tableMeta.pkIdx) {
+			_myPKIdx.add(i);
+			_myPKColName.add(tableMeta.getColumn(i).columnName);
 		}
-		
-		HashMap<String, ArrayList<SimpleFKInfo>> tableFKMap = new HashMap<String, ArrayList<SimpleFKInfo>>();
-		ArrayList<String> tblNameList = interpreter.getTableList();
-		for(String tblName : tblNameList) {
-			if(tblName == _myTableName) continue;
-			ArrayList<ColumnListDBEntry> tblColSchemaList = interpreter.getColumnSchema(tblName);
-			ArrayList<ForeignKeyListDBEntry> tblFKSchemaList = interpreter.getFKSchema(tblName);
-			HashMap<String, Integer> tblColIdxMap = new HashMap<String, Integer>();
-			for(ColumnListDBEntry tblCol : tblColSchemaList) {
-				tblColIdxMap.put(tblCol.columnName, tblCol.columnIndex);
-			}
-			
-			for(ForeignKeyListDBEntry tblFK : tblFKSchemaList) {
-				if(!tblFK.referencedTableName.equals(_myTableName)) continue; // Ignore FKs that doesn't reference myTable ('tableName')
-				
-				SimpleFKInfo fkInfo = new SimpleFKInfo(tblName);
-				
-				HashMap<String, Integer> myColTblIdxMap = new HashMap<String, Integer>();
-				for(int i = 0; i < tblFK.referencingColList.size(); i++) {
-					String myColName = tblFK.referencedColList.get(i);
-					String tblColName = tblFK.referencingColList.get(i);
-					myColTblIdxMap.put(myColName, tblColIdxMap.get(tblColName));
-				}
-				
-				boolean isTblFKNullable = true;
-				for(String myColName : _myPKColName) {
-					int matchingTblIdx = myColTblIdxMap.get(myColName);
-					fkInfo.orderedFKIdx.add(matchingTblIdx);
-					if(tblColSchemaList.get(matchingTblIdx).nullable == false)
-						isTblFKNullable = false; // if a colunm in fk is not nullable, then its SimpleFKInfo is not nullable.
-				}
-				
-				fkInfo.isNullable = isTblFKNullable;
-				
-				if(!tableFKMap.containsKey(tblName)) {
-					ArrayList<SimpleFKInfo> fkInfoList = new ArrayList<SimpleFKInfo>();
-					fkInfoList.add(fkInfo);
-					tableFKMap.put(tblName, fkInfoList);
-				}
-				else {
-					ArrayList<SimpleFKInfo> fkInfoList = tableFKMap.get(tblName);
-					fkInfoList.add(fkInfo);
-				}
+
+		_refingFKList = interpreter.getReferencingFKList(tableName);
+		_colSchemaPerTable = new HashMap<String, List<ColumnListDBEntry>>();
+		_statsPerTable = new HashMap<String, TableStats>();
+		_isSelfReferenced = false;
+		for(FKMeta fk : _refingFKList) {
+			if(!_colSchemaPerTable.containsKey(fk.fromTableName)) {
+				TableMeta fromMeta = interpreter.getTableMeta(fk.fromTableName);
+				_colSchemaPerTable.put(fk.fromTableName, fromMeta.columnList);
+				_statsPerTable.put(fk.fromTableName, new TableStats(fromMeta));
 			}
+			if(fk.fromTableName.equals(tableName))
+				_isSelfReferenced = true;
 		}
-		
-		_fkInfoListPerTable = new ArrayList<ArrayList<SimpleFKInfo>>(tableFKMap.values());
 	}
-	
+
 	public boolean checkDeletable(ArrayList<DBValue> record) {
-		boolean deletable = true;
+		if(_refingFKList.size() == 0) return true;
+
 		MyInterpreter interpreter = MyInterpreter.getInstance();
-		ArrayList<DBValue> recordPK = new ArrayList<DBValue>();
-		for(int i : _myPKIdx) {
-			recordPK.add(record.get(i));
+		DatabaseEntry pkKey = new DatabaseEntry(KeyCodec.encode(_extractPK(record)));
+		DatabaseEntry foundData = new DatabaseEntry();
+		foundData.setPartial(0, 0, true); // existence check only
+
+		for(FKMeta fk : _refingFKList) {
+			if(fk.isNullable) continue; // referencing records of a nullable FK are set to null by cascadeDelete()
+
+			SecondaryDatabase fkIndex = interpreter.getFKIndex(fk);
+			if(fkIndex.get(null, pkKey, foundData, LockMode.DEFAULT) == OperationStatus.SUCCESS)
+				return false; // a record points the record with a not nullable FK => the record is not deletable.
 		}
-		
-		for(ArrayList<SimpleFKInfo> fkInfoList : _fkInfoListPerTable) {
-			if(!deletable) break;
-			String fromTable = fkInfoList.get(0).fromTable;
-			
-			Database fromTableDB = interpreter.myDBEnv.openDatabase(null, fromTable, MyInterpreter._dbOpenOrCreateCfg);
-			Cursor fromTableCursor = fromTableDB.openCursor(null, null);
-			
-			DatabaseEntry foundKey = new DatabaseEntry();
+
+		return true;
+	}
+
+	public void cascadeDelete(ArrayList<DBValue> record) { // Note. checkDeletable must be called and checked (about the record) prior to this method.
+		if(_refingFKList.size() == 0) return;
+
+		MyInterpreter interpreter = MyInterpreter.getInstance();
+		byte[] pkBytes = KeyCodec.encode(_extractPK(record));
+
+		for(FKMeta fk : _refingFKList) {
+			// 1. Collect keys of the referencing records first, as they leave the index when their FK is set to null.
+			ArrayList<byte[]> refingKeyList = new ArrayList<byte[]>();
+			SecondaryCursor idxCursor = interpreter.getFKIndex(fk).openCursor(null, null);
+			DatabaseEntry searchKey = new DatabaseEntry(pkBytes);
+			DatabaseEntry foundPKey = new DatabaseEntry();
 			DatabaseEntry foundData = new DatabaseEntry();
-			
-			if(fromTableDB.count() > 0) {
-				fromTableCursor.getFirst(foundKey, foundData, LockMode.DEFAULT);
-				do {
-					ArrayList<DBValue> fromRecord = (ArrayList<DBValue>)MyInterpreter.fromBytes(foundData.getData());
-					for(SimpleFKInfo fkInfo : fkInfoList) {
-						if(!deletable) break;
-						
-						ArrayList<DBValue> fromFK = new ArrayList<DBValue>();
-						for(int i : fkInfo.orderedFKIdx)
-							fromFK.add(fromRecord.get(i));
-						
-						if(recordPK.equals(fromFK) && !fkInfo.isNullable)
-							deletable = false; // fromRecord points record, and its fk is not nullable => the record is not deletable.
-					}
-					
-					if(!deletable) break;
-				} while(fromTableCursor.getNext(foundKey, foundData, LockMode.DEFAULT) == OperationStatus.SUCCESS);
+			foundData.setPartial(0, 0, true);
+			try {
+				OperationStatus status = idxCursor.getSearchKey(searchKey, foundPKey, foundData, LockMode.DEFAULT);
+				while(status == OperationStatus.SUCCESS) {
+					refingKeyList.add(foundPKey.getData());
+					status = idxCursor.getNextDup(searchKey, foundPKey, foundData, LockMode.DEFAULT);
+				}
+			}
+			finally {
+				idxCursor.close();
+			}
+
+			// 2. Replace FK values of the referencing records with null (the index is updated by the primary put).
+			Database fromTableDB = interpreter.getDatabase(fk.fromTableName);
+			List<ColumnListDBEntry> fromColSchema = _colSchemaPerTable.get(fk.fromTableName);
+			for(byte[] refingKey : refingKeyList) {
+				DatabaseEntry recordKey = new DatabaseEntry(refingKey);
+				DatabaseEntry recordData = new DatabaseEntry();
+				if(fromTableDB.get(null, recordKey, recordData, LockMode.DEFAULT) != OperationStatus.SUCCESS)
+					continue;
+
+				ArrayList<DBValue> fromRecord = RowCodec.decode(recordData.getData(), fromColSchema);
+				for(int i : fk.orderedFKIdx) // replace fromRecord[i] with null.
+					fromRecord.set(i, new DBValue());
+
+				DatabaseEntry modifiedFromRecord = new DatabaseEntry(RowCodec.encode(fromRecord, fromColSchema));
+				if(fromTableDB.put(null, recordKey, modifiedFromRecord) != OperationStatus.SUCCESS) {
+					throw new RuntimeException("put failed in cascadeDelete()");
+				}
+				for(int i : fk.orderedFKIdx)
+					_statsPerTable.get(fk.fromTableName).addNulledOut(i);
 			}
-			
-			fromTableCursor.close();
-			fromTableDB.close();
 		}
-		
-		return deletable;
+	}
+
+	// Stores the changes of cascadeDelete() and batchCascadeDelete() in the statistics of the referencing tables.
+	// Must be called once the deletes of the statement are done.
+	public void flushStats() {
+		for(TableStats stats : _statsPerTable.values())
+			stats.flush();
+	}
+
+	public int getReferencingFKCount() {
+		return _refingFKList.size();
+	}
+
+	// Whether batchCascadeDelete() should be used for deleting 'recordCount' records.
+	// Not for a self-referencing table, as deleting a record may make the next ones deletable (records must be processed one by one).
+	public boolean useBatchDelete(int recordCount) {
+		return _refingFKList.size() > 0 && !_isSelfReferenced && recordCount >= BATCH_DELETE_THRESHOLD;
 	}
 	
-	public void cascadeDelete(ArrayList<DBValue> record) { // Note. checkDeletable must be called and checked (about the record) prior to this method.
-		MyInterpreter interpreter = MyInterpreter.getInstance();
-		ArrayList<DBValue> recordPK = new ArrayList<DBValue>();
-		for(int i : _myPKIdx) {
-			recordPK.add(record.get(i));
+	// checkDeletable() and cascadeDelete() for all the records at once.
+	// Each referencing table is read once (tables are processed in parallel) to find
+	//   1. PKs of the records referenced by a not nullable FK (these records must not be deleted),
+	//   2. referencing records whose nullable FK points a record to be deleted.
+	// Then FKs of 2. are set to null unless they point a record of 1.
+	// Returns the PKs of 1.; the caller deletes the other records.
+	public HashSet<ArrayList<DBValue>> batchCascadeDelete(ArrayList<ArrayList<DBValue>> recordList) {
+		final HashSet<ArrayList<DBValue>> targetPKSet = new HashSet<ArrayList<DBValue>>();
+		for(ArrayList<DBValue> record : recordList)
+			targetPKSet.add(_extractPK(record));
+		
+		final HashSet<ArrayList<DBValue>> blockedPKSet = new HashSet<ArrayList<DBValue>>();
+		if(targetPKSet.size() == 0 || _refingFKList.size() == 0) return blockedPKSet;
+		
+		LinkedHashMap<String, ArrayList<FKMeta>> fkListPerTable = new LinkedHashMap<String, ArrayList<FKMeta>>();
+		for(FKMeta fk : _refingFKList) {
+			if(!fkListPerTable.containsKey(fk.fromTableName))
+				fkListPerTable.put(fk.fromTableName, new ArrayList<FKMeta>());
+			fkListPerTable.get(fk.fromTableName).add(fk);
 		}
 		
-		for(ArrayList<SimpleFKInfo> fkInfoList : _fkInfoListPerTable) {
-			String fromTable = fkInfoList.get(0).fromTable;
-			
-			Database fromTableDB = interpreter.myDBEnv.openDatabase(null, fromTable, MyInterpreter._dbOpenOrCreateCfg);
-			Cursor fromTableCursor = fromTableDB.openCursor(null, null);
+		MyInterpreter interpreter = MyInterpreter.getInstance();
+		final Environment env = interpreter.myDBEnv;
+		final Transaction txn = env.getThreadTransaction(); // Tasks join the transaction of the statement
+		int threadCount = Math.min(fkListPerTable.size(), Runtime.getRuntime().availableProcessors());
+		ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+		try {
+			// 1. Scan referencing tables
+			ArrayList<Future<RefScanResult>> scanFutureList = new ArrayList<Future<RefScanResult>>();
+			for(String fromTable : fkListPerTable.keySet()) {
+				// Handles are taken here, as the handle pool must only be used by this thread.
+				final Database fromTableDB = interpreter.getDatabase(fromTable);
+				final List<ColumnListDBEntry> fromColSchema = _colSchemaPerTable.get(fromTable);
+				final ArrayList<FKMeta> fkList = fkListPerTable.get(fromTable);
+				scanFutureList.add(executor.submit(new Callable<RefScanResult>() {
+					@Override
+					public RefScanResult call() {
+						env.setThreadTransaction(txn);
+						try {
+							return _scanReferencingTable(fromTableDB, fromColSchema, fkList, targetPKSet);
+						}
+						finally {
+							env.setThreadTransaction(null);
+						}
+					}
+				}));
+			}
 			
-			DatabaseEntry foundKey = new DatabaseEntry();
-			DatabaseEntry foundData = new DatabaseEntry();
+			ArrayList<RefScanResult> scanResultList = new ArrayList<RefScanResult>();
+			for(Future<RefScanResult> f : scanFutureList) {
+				RefScanResult scanResult = _waitFor(f);
+				blockedPKSet.addAll(scanResult.blockedPKSet);
+				scanResultList.add(scanResult);
+			}
 			
-			if(fromTableDB.count() > 0) {
-				fromTableCursor.getFirst(foundKey, foundData, LockMode.DEFAULT);
-				do {
-					ArrayList<DBValue> fromRecord = (ArrayList<DBValue>)MyInterpreter.fromBytes(foundData.getData());
-					boolean fromRecordModified = false;
-					for(SimpleFKInfo fkInfo : fkInfoList) {
-						
-						ArrayList<DBValue> fromFK = new ArrayList<DBValue>();
-						for(int i : fkInfo.orderedFKIdx)
-							fromFK.add(fromRecord.get(i));
-						
-						if(recordPK.equals(fromFK)) {
-							for(int i : fkInfo.orderedFKIdx) { // replace fromRecord[i] with null.
-								fromRecord.set(i, new DBValue());
-							}
-							fromRecordModified = true;
+			// 2. Set FKs to null (each task writes its own table only)
+			ArrayList<Future<Void>> nullOutFutureList = new ArrayList<Future<Void>>();
+			for(final RefScanResult scanResult : scanResultList) {
+				if(scanResult.keyList.size() == 0) continue;
+				final TableStats fromStats = _statsPerTable.get(scanResult.fkList.get(0).fromTableName);
+				nullOutFutureList.add(executor.submit(new Callable<Void>() {
+					@Override
+					public Void call() {
+						env.setThreadTransaction(txn);
+						try {
+							_nullOutReferences(scanResult, targetPKSet, blockedPKSet, fromStats);
+							return null;
 						}
-					}
-					if(fromRecordModified) {
-						DatabaseEntry modifiedFromRecord = new DatabaseEntry(MyInterpreter.toBytes(fromRecord));
-						if(fromTableCursor.putCurrent(modifiedFromRecord) != OperationStatus.SUCCESS) {
-							throw new RuntimeException("putCurrent failed in cascadeDelete()");
+						finally {
+							env.setThreadTransaction(null);
 						}
 					}
+				}));
+			}
+			for(Future<Void> f : nullOutFutureList)
+				_waitFor(f);
+		}
+		finally {
+			executor.shutdown();
+		}
+		
+		return blockedPKSet;
+	}
+	
+	private static RefScanResult _scanReferencingTable(Database fromTableDB, List<ColumnListDBEntry> fromColSchema, ArrayList<FKMeta> fkList, HashSet<ArrayList<DBValue>> targetPKSet) {
+		RefScanResult scanResult = new RefScanResult(fromTableDB, fromColSchema, fkList);
+		Cursor cursor = fromTableDB.openCursor(null, null);
+		DatabaseEntry foundKey = new DatabaseEntry();
+		DatabaseEntry foundData = new DatabaseEntry();
+		try {
+			while(cursor.getNext(foundKey, foundData, LockMode.DEFAULT) == OperationStatus.SUCCESS) {
+				ArrayList<DBValue> fromRecord = RowCodec.decode(foundData.getData(), fromColSchema);
+				boolean isNullOutCandidate = false;
+				for(FKMeta fk : fkList) {
+					ArrayList<DBValue> fromFK = fk.extractFK(fromRecord);
+					if(fromFK == null || !targetPKSet.contains(fromFK)) continue;
 					
-				} while(fromTableCursor.getNext(foundKey, foundData, LockMode.DEFAULT) == OperationStatus.SUCCESS);
+					if(fk.isNullable)
+						isNullOutCandidate = true;
+					else
+						scanResult.blockedPKSet.add(fromFK);
+				}
+				
+				if(isNullOutCandidate) {
+					scanResult.keyList.add(foundKey.getData());
+					scanResult.recordList.add(fromRecord);
+				}
+			}
+		}
+		finally {
+			cursor.close();
+		}
+		return scanResult;
+	}
+	
+	private static void _nullOutReferences(RefScanResult scanResult, HashSet<ArrayList<DBValue>> targetPKSet, HashSet<ArrayList<DBValue>> blockedPKSet, TableStats fromStats) {
+		for(int i = 0; i < scanResult.keyList.size(); i++) {
+			ArrayList<DBValue> fromRecord = scanResult.recordList.get(i);
+			boolean fromRecordModified = false;
+			for(FKMeta fk : scanResult.fkList) {
+				if(!fk.isNullable) continue;
+				ArrayList<DBValue> fromFK = fk.extractFK(fromRecord);
+				if(fromFK == null || !targetPKSet.contains(fromFK) || blockedPKSet.contains(fromFK)) continue;
+				
+				for(int j : fk.orderedFKIdx) { // replace fromRecord[j] with null.
+					fromRecord.set(j, new DBValue());
+					fromStats.addNulledOut(j);
+				}
+				fromRecordModified = true;
 			}
 			
-			fromTableCursor.close();
-			fromTableDB.close();
+			if(fromRecordModified) {
+				DatabaseEntry recordKey = new DatabaseEntry(scanResult.keyList.get(i));
+				DatabaseEntry modifiedFromRecord = new DatabaseEntry(RowCodec.encode(fromRecord, scanResult.fromColSchema));
+				if(scanResult.fromTableDB.put(null, recordKey, modifiedFromRecord) != OperationStatus.SUCCESS) {
+					throw new RuntimeException("put failed in batchCascadeDelete()");
+				}
+			}
+		}
+	}
+	
+	private static <T> T _waitFor(Future<T> f) {
+		try {
+			return f.get();
+		}
+		catch(ExecutionException e) {
+			if(e.getCause() instanceof RuntimeException)
+				throw (RuntimeException)e.getCause();
+			throw new RuntimeException(e.getCause());
+		}
+		catch(InterruptedException e) {
+			throw new RuntimeException(e);
 		}
 	}
+	
+	private ArrayList<DBValue> _extractPK(ArrayList<DBValue> record) {
+		ArrayList<DBValue> recordPK = new ArrayList<DBValue>();
+		for(int i : _myPKIdx) {
+			recordPK.add(record.get(i));
+		}
+		return recordPK;
+	}
 }
 
-class SimpleFKInfo {
-	public ArrayList<Integer> orderedFKIdx;
-	public String fromTable;
-	public boolean isNullable;
+// Result of one pass over a referencing table in batchCascadeDelete()
+class RefScanResult {
+	public Database fromTableDB;
+	public List<ColumnListDBEntry> fromColSchema;
+	public ArrayList<FKMeta> fkList; // FKs of the table referencing the deleted table
+	public HashSet<ArrayList<DBValue>> blockedPKSet; // PKs referenced by a not nullable FK
+	public ArrayList<byte[]> keyList; // records referencing a deleted record with a nullable FK
+	public ArrayList<ArrayList<DBValue>> recordList;
 	
-	public SimpleFKInfo(String tblFromName) {
-		fromTable = tblFromName;
-		orderedFKIdx = new ArrayList<Integer>();
-		boolean isNullable = true;
+	public RefScanResult(Database db, List<ColumnListDBEntry> colSchema, ArrayList<FKMeta> fks) {
+		fromTableDB = db;
+		fromColSchema = colSchema;
+		fkList = fks;
+		blockedPKSet = new HashSet<ArrayList<DBValue>>();
+		keyList = new ArrayList<byte[]>();
+		recordList = new ArrayList<ArrayList<DBValue>>();
+	}
+}
+
+// Secondary key of an FK index: KeyCodec encoded FK values of the record, in the order of referenced PK.
+// Records having a null in the FK are not indexed (they reference nothing).
+class FKIndexKeyCreator implements SecondaryKeyCreator {
+	private List<ColumnListDBEntry> _colSchema; // schema of the referencing table
+	private FKMeta _fk;
+
+	public FKIndexKeyCreator(List<ColumnListDBEntry> colSchema, FKMeta fk) {
+		_colSchema = colSchema;
+		_fk = fk;
+	}
+
+	@Override
+	public boolean createSecondaryKey(SecondaryDatabase secondary, DatabaseEntry key, DatabaseEntry data, DatabaseEntry result) {
+		ArrayList<DBValue> recordFK = _fk.extractFK(RowCodec.decode(data.getData(), _colSchema));
+		if(recordFK == null)
+			return false;
+		result.setData(KeyCodec.encode(recordFK));
+		return true;
 	}
-	
 }
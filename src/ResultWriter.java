@@ -0,0 +1,141 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+
+// Prints the result table of a SELECT while records are produced.
+// Column widths are known from the schema before the first record, so the header is printed first and
+// each record is printed as soon as it qualifies; nothing is kept per record.
+//
+// Lines are built in one reused StringBuilder and written through a buffered writer on the output of the session,
+// which must be flushed by close() before anything else is printed.
+//
+// A deferred writer keeps the whole table in memory until close() instead, so that it can be dropped by discard():
+// for a SELECT whose where clause may raise WhereIncomparableError on a record after the first ones.
+public class ResultWriter {
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private Writer _out;
+	private StringWriter _deferred; // null unless deferred
+	private int[] _widthList;
+	private int[] _selectedColIdxList; // column indexes in the record, in the order of printing
+	private StringBuilder _line;
+	private String _horizontalLine;
+
+	private long _startTime; // System.nanoTime() at the start of the statement
+	private long _firstRowTime; // -1 if no record has been written yet
+	private long _rowCount;
+
+	public ResultWriter(ArrayList<Integer> widthList, ArrayList<Integer> selectedColIdxList, long startTime) {
+		this(widthList, selectedColIdxList, startTime, false);
+	}
+
+	public ResultWriter(ArrayList<Integer> widthList, ArrayList<Integer> selectedColIdxList, long startTime, boolean isDeferred) {
+		_deferred = isDeferred ? new StringWriter() : null;
+		_out = isDeferred ? _deferred : new BufferedWriter(new OutputStreamWriter(Session.current().getOut()), BUFFER_SIZE);
+		_widthList = QueryPlanner.toIntArray(widthList);
+		_selectedColIdxList = QueryPlanner.toIntArray(selectedColIdxList);
+		_line = new StringBuilder(256);
+		_startTime = startTime;
+		_firstRowTime = -1;
+		_rowCount = 0;
+
+		StringBuilder hLine = new StringBuilder("+");
+		for(int width : _widthList) {
+			for(int i = 0; i < width+2; i++)
+				hLine.append('-');
+			hLine.append('+');
+		}
+		_horizontalLine = hLine.toString();
+	}
+
+	public void writeHeader(ArrayList<String> nameList) {
+		_writeLine(_horizontalLine);
+		_line.setLength(0);
+		_line.append('|');
+		for(int i = 0; i < _widthList.length; i++)
+			_appendCell(nameList.get(i).toUpperCase(), _widthList[i]);
+		_writeLine(_line);
+		_writeLine(_horizontalLine);
+	}
+
+	public void writeRecord(ArrayList<DBValue> record) {
+		_line.setLength(0);
+		_line.append('|');
+		for(int i = 0; i < _widthList.length; i++)
+			_appendCell(record.get(_selectedColIdxList[i]).toString(), _widthList[i]);
+		_writeLine(_line);
+
+		if(_rowCount == 0)
+			_firstRowTime = System.nanoTime();
+		_rowCount++;
+	}
+
+	// Writes the selected records of the batch (in the column layout of the records given to writeRecord())
+	public void writeBatch(RowBatch batch) {
+		for(int k = 0; k < batch.selCount; k++) {
+			int row = batch.sel[k];
+			_line.setLength(0);
+			_line.append('|');
+			for(int i = 0; i < _widthList.length; i++)
+				_appendCell(batch.getString(row, _selectedColIdxList[i]), _widthList[i]);
+			_writeLine(_line);
+
+			if(_rowCount == 0)
+				_firstRowTime = System.nanoTime();
+			_rowCount++;
+		}
+	}
+
+	public void writeFooter() {
+		_writeLine(_horizontalLine);
+	}
+
+	public void close() { // Flushes, the output of the session itself is not closed.
+		if(_deferred != null) {
+			Session.current().getOut().print(_deferred.getBuffer());
+			Session.current().getOut().flush();
+			return;
+		}
+		try {
+			_out.flush();
+		}
+		catch(IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	public void discard() { // A deferred writer then prints nothing. A writer which is not deferred already printed.
+		if(_deferred != null)
+			_deferred.getBuffer().setLength(0);
+	}
+
+	public long getRowCount() {
+		return _rowCount;
+	}
+
+	// Nanoseconds from the start of the statement to the first record written, or -1 if no record was written.
+	public long getTimeToFirstRow() {
+		return (_firstRowTime == -1) ? -1 : _firstRowTime - _startTime;
+	}
+
+	// Same as String.format(" %-<width>s |", value)
+	private void _appendCell(String value, int width) {
+		_line.append(' ').append(value);
+		for(int i = value.length(); i < width; i++)
+			_line.append(' ');
+		_line.append(" |");
+	}
+
+	private void _writeLine(CharSequence line) {
+		try {
+			_out.append(line);
+			_out.write(System.lineSeparator());
+		}
+		catch(IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+}
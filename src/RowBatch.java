@@ -0,0 +1,108 @@
+import java.util.ArrayList;
+import java.util.List;
+
+// Up to CAPACITY records stored by column, passed between operators by RecordSource.nextBatch().
+//   - DB_INT and DB_DATE columns are int vectors (dates packed as in DBValue.dateVal), DB_CHAR columns are String vectors,
+//   - every column has a null vector; the value of a null entry is unspecified,
+//   - the selection vector lists the rows [0, size) which are part of the result, in ascending order.
+//     A filter only shrinks the selection, rows are never moved.
+// Vectors are allocated once per batch and reused for every batch a source fills.
+public class RowBatch {
+	public static final int CAPACITY = 1024;
+
+	public final DBType.DBTypeSpecifier[] colTypeList;
+	public final int[][] intCols; // null for a DB_CHAR column
+	public final String[][] charCols; // null for other columns
+	public final boolean[][] nullCols;
+	public int size;
+
+	public final int[] sel;
+	public int selCount;
+
+	public RowBatch(List<DBType.DBTypeSpecifier> colTypeList) {
+		int width = colTypeList.size();
+		this.colTypeList = colTypeList.toArray(new DBType.DBTypeSpecifier[width]);
+		intCols = new int[width][];
+		charCols = new String[width][];
+		nullCols = new boolean[width][CAPACITY];
+		for(int i = 0; i < width; i++) {
+			if(this.colTypeList[i] == DBType.DBTypeSpecifier.DB_CHAR)
+				charCols[i] = new String[CAPACITY];
+			else
+				intCols[i] = new int[CAPACITY];
+		}
+		sel = new int[CAPACITY];
+		size = 0;
+		selCount = 0;
+	}
+
+	public int getWidth() {
+		return colTypeList.length;
+	}
+
+	public boolean isFull() {
+		return size == CAPACITY;
+	}
+
+	public void clear() {
+		size = 0;
+		selCount = 0;
+	}
+
+	// Appends a record (in the column layout of the batch) as a selected row.
+	public void addRecord(ArrayList<DBValue> record) {
+		int row = size++;
+		for(int col = 0; col < colTypeList.length; col++) {
+			DBValue value = record.get(col);
+			nullCols[col][row] = value.isNull();
+			if(value.isNull())
+				continue;
+			switch(colTypeList[col]) {
+			case DB_INT:
+				intCols[col][row] = value.intVal;
+				break;
+			case DB_DATE:
+				intCols[col][row] = value.dateVal;
+				break;
+			default:
+				charCols[col][row] = value.charVal;
+				break;
+			}
+		}
+		sel[selCount++] = row;
+	}
+
+	public DBValue getValue(int row, int col) {
+		if(nullCols[col][row])
+			return DBValue.NULL;
+		switch(colTypeList[col]) {
+		case DB_INT:
+			return new DBValue(intCols[col][row]);
+		case DB_DATE:
+			return DBValue.fromPackedDate(intCols[col][row]);
+		default:
+			return new DBValue(charCols[col][row]);
+		}
+	}
+
+	public ArrayList<DBValue> getRecord(int row) {
+		ArrayList<DBValue> record = new ArrayList<DBValue>(colTypeList.length);
+		for(int col = 0; col < colTypeList.length; col++)
+			record.add(getValue(row, col));
+		return record;
+	}
+
+	// Same as getValue(row, col).toString(), without making the DBValue
+	public String getString(int row, int col) {
+		if(nullCols[col][row])
+			return "NULL";
+		switch(colTypeList[col]) {
+		case DB_INT:
+			return Integer.toString(intCols[col][row]);
+		case DB_DATE:
+			return DBValue.formatDate(intCols[col][row]);
+		default:
+			return charCols[col][row];
+		}
+	}
+}
@@ -0,0 +1,187 @@
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.List;
+
+// Binary row format used for table records (BDB data part).
+//
+//   [format version : 1 byte][null bitmap : ceil(n/8) bytes][column 0] ... [column n-1]
+//
+//   DB_INT  : 4 bytes, big-endian
+//   DB_DATE : 4 bytes, big-endian, packed as yyyy * 10000 + mm * 100 + dd
+//   DB_CHAR : 2 bytes length (big-endian, unsigned) + UTF-8 bytes
+//   A null column only sets its bit in the bitmap and takes no other space.
+//
+// Rows written by older versions are plain Java serialization of ArrayList<DBValue>.
+// Such a stream always starts with 0xAC (ObjectStreamConstants.STREAM_MAGIC), so it can never be
+// confused with a versioned row and is decoded through MyInterpreter.fromBytes() instead.
+public class RowCodec {
+	public static final byte FORMAT_V1 = 0x01;
+	private static final byte LEGACY_MAGIC = (byte)0xAC;
+
+	public static byte[] encode(ArrayList<DBValue> record, List<ColumnListDBEntry> schema) {
+		int colCount = schema.size();
+		if(record.size() != colCount)
+			throw new RuntimeException("Record does not match with its column schema!!");
+
+		int bitmapSize = (colCount + 7) / 8;
+		int size = 1 + bitmapSize;
+		byte[][] charBytes = new byte[colCount][];
+
+		// 1st pass - compute the row size (and encode chars only once)
+		for(int i = 0; i < colCount; i++) {
+			DBValue v = record.get(i);
+			if(v.isNull()) continue;
+
+			DBType.DBTypeSpecifier colType = schema.get(i).columnType.type;
+			if(v.valueType != colType)
+				throw new RuntimeException("Value type does not match with column type in RowCodec!!");
+
+			if(colType == DBType.DBTypeSpecifier.DB_CHAR) {
+				charBytes[i] = _utf8(v.charVal);
+				if(charBytes[i].length > 0xFFFF)
+					throw new RuntimeException("Char value is too long to be encoded in RowCodec!!");
+				size += 2 + charBytes[i].length;
+			}
+			else
+				size += 4;
+		}
+
+		// 2nd pass - write the row
+		byte[] buf = new byte[size];
+		buf[0] = FORMAT_V1;
+		int pos = 1 + bitmapSize;
+		for(int i = 0; i < colCount; i++) {
+			DBValue v = record.get(i);
+			if(v.isNull()) {
+				buf[1 + (i >> 3)] |= (byte)(1 << (i & 7));
+				continue;
+			}
+
+			switch(v.valueType) {
+			case DB_INT:
+				_putInt(buf, pos, v.intVal);
+				pos += 4;
+				break;
+			case DB_DATE:
+				_putInt(buf, pos, v.dateVal);
+				pos += 4;
+				break;
+			case DB_CHAR:
+				int len = charBytes[i].length;
+				buf[pos] = (byte)(len >>> 8);
+				buf[pos+1] = (byte)len;
+				System.arraycopy(charBytes[i], 0, buf, pos + 2, len);
+				pos += 2 + len;
+				break;
+			default:
+				break;
+			}
+		}
+
+		return buf;
+	}
+
+	public static ArrayList<DBValue> decode(byte[] data, List<ColumnListDBEntry> schema) {
+		if(isLegacy(data))
+			return (ArrayList<DBValue>)MyInterpreter.fromBytes(data);
+		if(data[0] != FORMAT_V1)
+			throw new RuntimeException("Unknown row format version " + data[0] + " in RowCodec!!");
+
+		int colCount = schema.size();
+		int pos = 1 + (colCount + 7) / 8;
+		ArrayList<DBValue> record = new ArrayList<DBValue>(colCount);
+		for(int i = 0; i < colCount; i++) {
+			if((data[1 + (i >> 3)] & (1 << (i & 7))) != 0) {
+				record.add(DBValue.NULL);
+				continue;
+			}
+
+			switch(schema.get(i).columnType.type) {
+			case DB_INT:
+				record.add(new DBValue(_getInt(data, pos)));
+				pos += 4;
+				break;
+			case DB_DATE:
+				record.add(DBValue.fromPackedDate(_getInt(data, pos)));
+				pos += 4;
+				break;
+			case DB_CHAR:
+				int len = ((data[pos] & 0xFF) << 8) | (data[pos+1] & 0xFF);
+				record.add(new DBValue(_utf8(data, pos + 2, len)));
+				pos += 2 + len;
+				break;
+			default:
+				throw new RuntimeException("Unexpected column type in RowCodec!!");
+			}
+		}
+
+		return record;
+	}
+
+	// Same as batch.addRecord(decode(data, schema)), without making the DBValues of the record
+	public static void decodeInto(byte[] data, List<ColumnListDBEntry> schema, RowBatch batch) {
+		if(isLegacy(data) || data[0] != FORMAT_V1) {
+			batch.addRecord(decode(data, schema));
+			return;
+		}
+
+		int colCount = schema.size();
+		int pos = 1 + (colCount + 7) / 8;
+		int row = batch.size++;
+		for(int i = 0; i < colCount; i++) {
+			boolean isNull = (data[1 + (i >> 3)] & (1 << (i & 7))) != 0;
+			batch.nullCols[i][row] = isNull;
+			if(isNull)
+				continue;
+
+			switch(batch.colTypeList[i]) {
+			case DB_INT:
+			case DB_DATE:
+				batch.intCols[i][row] = _getInt(data, pos);
+				pos += 4;
+				break;
+			case DB_CHAR:
+				int len = ((data[pos] & 0xFF) << 8) | (data[pos+1] & 0xFF);
+				batch.charCols[i][row] = _utf8(data, pos + 2, len);
+				pos += 2 + len;
+				break;
+			default:
+				throw new RuntimeException("Unexpected column type in RowCodec!!");
+			}
+		}
+		batch.sel[batch.selCount++] = row;
+	}
+
+	public static boolean isLegacy(byte[] data) {
+		return data.length > 0 && data[0] == LEGACY_MAGIC;
+	}
+
+	private static void _putInt(byte[] buf, int pos, int v) {
+		buf[pos] = (byte)(v >>> 24);
+		buf[pos+1] = (byte)(v >>> 16);
+		buf[pos+2] = (byte)(v >>> 8);
+		buf[pos+3] = (byte)v;
+	}
+
+	private static int _getInt(byte[] buf, int pos) {
+		return ((buf[pos] & 0xFF) << 24) | ((buf[pos+1] & 0xFF) << 16) | ((buf[pos+2] & 0xFF) << 8) | (buf[pos+3] & 0xFF);
+	}
+
+	private static byte[] _utf8(String s) {
+		try {
+			return s.getBytes("UTF-8");
+		}
+		catch(UnsupportedEncodingException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private static String _utf8(byte[] buf, int pos, int len) {
+		try {
+			return new String(buf, pos, len, "UTF-8");
+		}
+		catch(UnsupportedEncodingException e) {
+			throw new RuntimeException(e);
+		}
+	}
+}
@@ -0,0 +1,140 @@
+// Estimated fraction of the records for which a WHERE conjunct is TRUE, from the statistics of the tables (TableStats).
+// Column indexes are the ones of the joined record in FROM order.
+//   - column = constant: 1 / NDV of the column, column <> constant: the other values,
+//   - range on an int or date column: the part of [min, max] it covers, as if the values were uniformly distributed,
+//   - column = column: 1 / the larger NDV of the two, as the smaller set of values is assumed to be contained in the larger one,
+//   - IS NULL / IS NOT NULL: from the null count,
+//   - anything else: DEFAULT_SELECTIVITY.
+// A comparison is never TRUE on a null, so it is also scaled by the fraction of non-null values of its columns.
+public class SelectivityEstimator {
+	public static final double DEFAULT_SELECTIVITY = 1.0 / 3;
+
+	private int[] _tableOffset; // as in QueryPlanner, with the end of the last table
+	private TableStatsDBEntry[] _statsList; // per table
+
+	public SelectivityEstimator(int[] tableOffset, TableStatsDBEntry[] statsList) {
+		_tableOffset = tableOffset;
+		_statsList = statsList;
+	}
+
+	public double estimate(BoolTree conjunct) {
+		double selectivity;
+		if(conjunct instanceof CompPredicate)
+			selectivity = _compSelectivity((CompPredicate)conjunct);
+		else if(conjunct instanceof NullPredicate) {
+			NullPredicate pred = (NullPredicate)conjunct;
+			selectivity = 1 - _nonNullFraction(pred.getColIdx());
+			if(pred.isNullTest() == pred.isNot()) // IS NOT NULL
+				selectivity = 1 - selectivity;
+		}
+		else
+			selectivity = DEFAULT_SELECTIVITY;
+		return Math.max(0, Math.min(1, selectivity));
+	}
+
+	private double _compSelectivity(CompPredicate pred) {
+		CompOperator op = pred.getCompOp();
+		if(pred.isNot()) // NOT (a < b) is (a >= b) unless a or b is null
+			op = _negate(op);
+
+		int leftIdx = pred.getLeftColIdx(), rightIdx = pred.getRightColIdx();
+		if(leftIdx != -1 && rightIdx != -1) {
+			double nonNull = _nonNullFraction(leftIdx) * _nonNullFraction(rightIdx);
+			if(op == CompOperator.OP_EQ)
+				return nonNull / Math.max(_ndv(leftIdx), _ndv(rightIdx));
+			if(op == CompOperator.OP_NEQ)
+				return nonNull * (1 - 1.0 / Math.max(_ndv(leftIdx), _ndv(rightIdx)));
+			return nonNull * DEFAULT_SELECTIVITY;
+		}
+
+		int colIdx;
+		DBValue constant;
+		if(leftIdx != -1) {
+			colIdx = leftIdx;
+			constant = pred.getRightConstOperand();
+		}
+		else if(rightIdx != -1) {
+			colIdx = rightIdx;
+			constant = pred.getLeftConstOperand();
+			op = _flip(op); // (constant <op> column) => (column <flipped op> constant)
+		}
+		else
+			return DEFAULT_SELECTIVITY;
+
+		double nonNull = _nonNullFraction(colIdx);
+		if(constant == null || constant.isNull())
+			return 0;
+		switch(op) {
+		case OP_EQ:
+			return nonNull / _ndv(colIdx);
+		case OP_NEQ:
+			return nonNull * (1 - 1.0 / _ndv(colIdx));
+		default:
+			return nonNull * _rangeFraction(colIdx, op, constant);
+		}
+	}
+
+	// Fraction of the non-null values of the column which satisfy (column <op> constant), op being a range operator
+	private double _rangeFraction(int colIdx, CompOperator op, DBValue constant) {
+		int tableIdx = _tableOf(colIdx);
+		TableStatsDBEntry stats = _statsList[tableIdx];
+		DBValue min = stats.minList[colIdx - _tableOffset[tableIdx]];
+		DBValue max = stats.maxList[colIdx - _tableOffset[tableIdx]];
+		if(min == null || max == null || constant.valueType != min.valueType || constant.valueType == DBType.DBTypeSpecifier.DB_CHAR)
+			return DEFAULT_SELECTIVITY;
+
+		double low = _toDouble(min), high = _toDouble(max), value = _toDouble(constant);
+		if(high == low) {
+			boolean isTrue = (op == CompOperator.OP_LT) ? low < value : (op == CompOperator.OP_LE) ? low <= value : (op == CompOperator.OP_GT) ? low > value : low >= value;
+			return isTrue ? 1 : 0;
+		}
+
+		double below = Math.max(0, Math.min(1, (value - low) / (high - low))); // fraction of values less than the constant
+		return (op == CompOperator.OP_LT || op == CompOperator.OP_LE) ? below : 1 - below;
+	}
+
+	private double _nonNullFraction(int colIdx) {
+		int tableIdx = _tableOf(colIdx);
+		TableStatsDBEntry stats = _statsList[tableIdx];
+		if(stats.rowCount <= 0)
+			return 1;
+		return Math.max(0, Math.min(1, 1 - (double)stats.nullCountList[colIdx - _tableOffset[tableIdx]] / stats.rowCount));
+	}
+
+	private double _ndv(int colIdx) { // at least 1
+		int tableIdx = _tableOf(colIdx);
+		return Math.max(1, TableStats.estimateNDV(_statsList[tableIdx], colIdx - _tableOffset[tableIdx]));
+	}
+
+	private int _tableOf(int colIdx) {
+		int tableIdx = 0;
+		while(colIdx >= _tableOffset[tableIdx+1])
+			tableIdx++;
+		return tableIdx;
+	}
+
+	private static double _toDouble(DBValue value) {
+		return (value.valueType == DBType.DBTypeSpecifier.DB_DATE) ? value.dateVal : value.intVal;
+	}
+
+	private static CompOperator _negate(CompOperator op) {
+		switch(op) {
+		case OP_GT: return CompOperator.OP_LE;
+		case OP_LT: return CompOperator.OP_GE;
+		case OP_GE: return CompOperator.OP_LT;
+		case OP_LE: return CompOperator.OP_GT;
+		case OP_EQ: return CompOperator.OP_NEQ;
+		default: return CompOperator.OP_EQ;
+		}
+	}
+
+	private static CompOperator _flip(CompOperator op) {
+		switch(op) {
+		case OP_GT: return CompOperator.OP_LT;
+		case OP_LT: return CompOperator.OP_GT;
+		case OP_GE: return CompOperator.OP_LE;
+		case OP_LE: return CompOperator.OP_GE;
+		default: return op;
+		}
+	}
+}
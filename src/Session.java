@@ -0,0 +1,103 @@
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+
+import com.sleepycat.je.Durability;
+import com.sleepycat.je.Transaction;
+
+// State of one statement stream (one SimpleDBMSParser), bound to the thread running it.
+// MyInterpreter, the database handles and the catalog are shared by all sessions;
+// everything that belongs to the statements of a single session is kept here.
+//
+// A thread which never bound a session (e.g. a program calling MyInterpreter directly) gets its own default session
+// printing to System.out.
+public class Session {
+	public enum ExplainMode { NONE, PLAN, ANALYZE }
+
+	private static final ThreadLocal<Session> _current = new ThreadLocal<Session>() {
+		@Override
+		protected Session initialValue() {
+			return new Session(System.out);
+		}
+	};
+
+	private PrintStream _out;
+
+	// Queues used in Create Table
+	public final LinkedList<MyInterpreter.ColumnCreateData> createColumnQueue;
+	public final LinkedList<MyInterpreter.PKCreateData> createPKQueue;
+	public final LinkedList<MyInterpreter.FKCreateData> createFKQueue;
+
+	// Exception flag for Select and Delete (Used in parsing stage)
+	public boolean queryExecutable;
+
+	// EXPLAIN [ANALYZE] of the running SELECT or DELETE, set by the parser around the statement
+	public ExplainMode explainMode;
+
+	// PREPARE (see MyInterpreter.beginPrepare()): the markers of the statement being prepared, null if none is,
+	// the catalog version it is resolved against, and what it resolved to
+	public ArrayList<ParameterMarker> paramMarkerList;
+	public long prepareVersion;
+	public PreparedQuery preparedQuery;
+
+	// Statements prepared by this session, by name
+	public final HashMap<String, PreparedQuery> preparedMap;
+
+	// Time from the start of the last SELECT to its first printed record (ResultWriter)
+	public long lastTimeToFirstRow;
+
+	// Transactions (see MyInterpreter.beginStatement())
+	public Transaction userTxn; // started by BEGIN, null if none
+	public Transaction statementTxn; // null if no statement is running or userTxn is used
+	public Durability durability; // used by transactions begun after it is set
+	public boolean catalogWritten; // the running statement or user transaction did DDL
+	public final HashMap<String, TableStatsDBEntry> statsDeltaMap; // changes to table statistics stored at commit (TableStats.flush())
+
+	public Session(PrintStream out) {
+		_out = out;
+		createColumnQueue = new LinkedList<MyInterpreter.ColumnCreateData>();
+		createPKQueue = new LinkedList<MyInterpreter.PKCreateData>();
+		createFKQueue = new LinkedList<MyInterpreter.FKCreateData>();
+		queryExecutable = true;
+		explainMode = ExplainMode.NONE;
+		paramMarkerList = null;
+		prepareVersion = -1;
+		preparedQuery = null;
+		preparedMap = new HashMap<String, PreparedQuery>();
+		lastTimeToFirstRow = -1;
+		userTxn = null;
+		statementTxn = null;
+		durability = Durability.COMMIT_WRITE_NO_SYNC;
+		catalogWritten = false;
+		statsDeltaMap = new HashMap<String, TableStatsDBEntry>();
+	}
+
+	public static Session current() {
+		return _current.get();
+	}
+
+	// Binds the session to the calling thread until unbind() is called.
+	public static void bind(Session session) {
+		_current.set(session);
+	}
+
+	public static void unbind() {
+		_current.remove();
+	}
+
+	public boolean isPreparing() {
+		return paramMarkerList != null;
+	}
+
+	// A '?' of the statement being prepared
+	public ParameterMarker addParameterMarker() {
+		ParameterMarker marker = new ParameterMarker(paramMarkerList.size());
+		paramMarkerList.add(marker);
+		return marker;
+	}
+
+	public PrintStream getOut() { // Everything printed by the statements of this session goes here
+		return _out;
+	}
+}
@@ -0,0 +1,158 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.sleepycat.je.DatabaseEntry;
+import com.sleepycat.je.SecondaryDatabase;
+import com.sleepycat.je.SecondaryKeyCreator;
+
+// Resolved metadata of a table, cached in the catalog of MyInterpreter.
+// Instances are never modified after construction (DDL drops them from the catalog instead),
+// so ColumnListDBEntry objects in columnList must be treated as read-only too.
+public class TableMeta {
+	public final String tableName;
+	public final List<ColumnListDBEntry> columnList; // ordered by column index
+	public final Map<String, Integer> columnIndexMap; // column name -> column index
+	public final List<String> pkColumnList; // in the order of PK definition
+	public final int[] pkIdx; // column indexes of PK columns, in column order (the order used for BDB keys)
+	public final List<FKMeta> fkList; // foreign keys of this table
+	public final List<IndexMeta> indexList; // indexes made by CREATE INDEX
+	public final int refCount;
+
+	public TableMeta(TableListDBEntry tableEntry, ArrayList<ColumnListDBEntry> colList, ArrayList<FKMeta> fks, ArrayList<IndexListDBEntry> indexes) {
+		tableName = tableEntry.tableName;
+		columnList = Collections.unmodifiableList(new ArrayList<ColumnListDBEntry>(colList));
+		pkColumnList = Collections.unmodifiableList(new ArrayList<String>(tableEntry.pkColumnList));
+		fkList = Collections.unmodifiableList(new ArrayList<FKMeta>(fks));
+		refCount = tableEntry.refCount;
+
+		HashMap<String, Integer> colIdxMap = new HashMap<String, Integer>();
+		ArrayList<Integer> pkIdxList = new ArrayList<Integer>();
+		for(ColumnListDBEntry col : colList) {
+			colIdxMap.put(col.columnName, col.columnIndex);
+			if(col.primaryKey)
+				pkIdxList.add(col.columnIndex);
+		}
+		columnIndexMap = Collections.unmodifiableMap(colIdxMap);
+
+		ArrayList<IndexMeta> idxMetaList = new ArrayList<IndexMeta>();
+		for(IndexListDBEntry index : indexes)
+			idxMetaList.add(new IndexMeta(index, columnIndexMap));
+		indexList = Collections.unmodifiableList(idxMetaList);
+
+		pkIdx = new int[pkIdxList.size()];
+		for(int i = 0; i < pkIdx.length; i++)
+			pkIdx[i] = pkIdxList.get(i);
+	}
+
+	public int columnCount() {
+		return columnList.size();
+	}
+
+	public ColumnListDBEntry getColumn(int colIdx) {
+		return columnList.get(colIdx);
+	}
+
+	public ArrayList<DBValue> extractPK(ArrayList<DBValue> record) {
+		ArrayList<DBValue> recordPK = new ArrayList<DBValue>(pkIdx.length);
+		for(int i : pkIdx)
+			recordPK.add(record.get(i));
+		return recordPK;
+	}
+}
+
+class FKMeta {
+	public final String fromTableName; // referencing table
+	public final String referencedTableName;
+	public final List<String> referencingColList;
+	public final List<String> referencedColList;
+	public final int[] orderedFKIdx; // referencing column indexes, in the column order of the referenced table's PK
+	public final boolean isNullable; // false if a column of this FK is not nullable
+	public final String indexName; // secondary database indexing the referencing table by this FK (see MyInterpreter.getFKIndex())
+
+	public FKMeta(String tableName, ArrayList<ColumnListDBEntry> colList, ForeignKeyListDBEntry fk, TableMeta refedMeta) {
+		fromTableName = tableName;
+		referencedTableName = fk.referencedTableName;
+		referencingColList = Collections.unmodifiableList(new ArrayList<String>(fk.referencingColList));
+		referencedColList = Collections.unmodifiableList(new ArrayList<String>(fk.referencedColList));
+
+		HashMap<String, ColumnListDBEntry> colMap = new HashMap<String, ColumnListDBEntry>();
+		for(ColumnListDBEntry col : colList)
+			colMap.put(col.columnName, col);
+
+		ArrayList<Integer> idxList = new ArrayList<Integer>();
+		boolean nullable = true;
+		String idxName = "FKINDEX_" + tableName + "(";
+		for(ColumnListDBEntry refedCol : refedMeta.columnList) {
+			int fkIdx = fk.referencedColList.indexOf(refedCol.columnName);
+			if(fkIdx != -1) {
+				ColumnListDBEntry refingCol = colMap.get(fk.referencingColList.get(fkIdx));
+				idxName += (idxList.size() > 0 ? "," : "") + refingCol.columnName;
+				idxList.add(refingCol.columnIndex);
+				if(!refingCol.nullable)
+					nullable = false;
+			}
+		}
+
+		orderedFKIdx = new int[idxList.size()];
+		for(int i = 0; i < orderedFKIdx.length; i++)
+			orderedFKIdx[i] = idxList.get(i);
+		isNullable = nullable;
+		indexName = idxName + ")"; // e.g. FKINDEX_student(dept_id), parentheses never appear in names
+	}
+
+	// Returns FK values of the record in the order of referenced PK, or null if the FK has a null value.
+	public ArrayList<DBValue> extractFK(ArrayList<DBValue> record) {
+		ArrayList<DBValue> recordFK = new ArrayList<DBValue>(orderedFKIdx.length);
+		for(int i : orderedFKIdx) {
+			DBValue v = record.get(i);
+			if(v.isNull()) return null;
+			recordFK.add(v);
+		}
+		return recordFK;
+	}
+}
+
+class IndexMeta {
+	public final String indexName;
+	public final String tableName;
+	public final List<String> columnList; // in the order of index definition (the order used for index keys)
+	public final int[] colIdx; // column indexes of columnList
+	public final String dbName; // secondary database of the index
+
+	public IndexMeta(IndexListDBEntry index, Map<String, Integer> columnIndexMap) {
+		indexName = index.indexName;
+		tableName = index.tableName;
+		columnList = Collections.unmodifiableList(new ArrayList<String>(index.columnList));
+		colIdx = new int[columnList.size()];
+		for(int i = 0; i < colIdx.length; i++)
+			colIdx[i] = columnIndexMap.get(columnList.get(i));
+		dbName = "INDEX_" + indexName;
+	}
+
+	public byte[] extractKey(ArrayList<DBValue> record) { // KeyCodec.encodeNullable() of the indexed columns
+		ArrayList<DBValue> keyValues = new ArrayList<DBValue>(colIdx.length);
+		for(int i : colIdx)
+			keyValues.add(record.get(i));
+		return KeyCodec.encodeNullable(keyValues);
+	}
+}
+
+// Secondary key of an index made by CREATE INDEX; records with nulls are indexed too (nulls sort first).
+class IndexKeyCreator implements SecondaryKeyCreator {
+	private List<ColumnListDBEntry> _colSchema;
+	private IndexMeta _index;
+
+	public IndexKeyCreator(List<ColumnListDBEntry> colSchema, IndexMeta index) {
+		_colSchema = colSchema;
+		_index = index;
+	}
+
+	@Override
+	public boolean createSecondaryKey(SecondaryDatabase secondary, DatabaseEntry key, DatabaseEntry data, DatabaseEntry result) {
+		result.setData(_index.extractKey(RowCodec.decode(data.getData(), _colSchema)));
+		return true;
+	}
+}
@@ -0,0 +1,256 @@
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.sleepycat.je.Cursor;
+import com.sleepycat.je.Database;
+import com.sleepycat.je.DatabaseEntry;
+import com.sleepycat.je.Durability;
+import com.sleepycat.je.LockConflictException;
+import com.sleepycat.je.LockMode;
+import com.sleepycat.je.OperationStatus;
+import com.sleepycat.je.Transaction;
+import com.sleepycat.je.TransactionConfig;
+
+// Changes a statement makes to the statistics of one table (TableStatsDBEntry in SCHEMA_TableStats).
+// Records are added as they are inserted / deleted, and flush() hands the changes to the session (Session.statsDeltaMap).
+// They are merged into the stored entries by storePending() once the transaction of the session is committed,
+// each in a short transaction of its own, so that the writers of a table do not wait for each other's commit
+// on its stats record. A rolled back transaction drops them (dropPending()), leaving the statistics untouched.
+// The statistics are estimates: changes whose merge keeps losing lock conflicts, or which were committed just
+// before a crash, are lost until ANALYZE.
+// An instance is used by one thread only.
+//
+// A table without an entry (created by an older version) gets one built by a full scan on its first use.
+public class TableStats {
+	public static final String DB_NAME = "SCHEMA_TableStats";
+	public static final int SKETCH_SIZE = 256; // HyperLogLog registers per column
+	private static final int SKETCH_BITS = 8; // log2(SKETCH_SIZE)
+	private static final int STORE_ATTEMPTS = 3; // per table, by storePending()
+
+	private TableMeta _tableMeta;
+	private TableStatsDBEntry _delta; // rowCount and nullCountList are differences
+	private boolean _isChanged;
+
+	public TableStats(TableMeta tableMeta) {
+		_tableMeta = tableMeta;
+		_delta = new TableStatsDBEntry(tableMeta.tableName, tableMeta.columnCount());
+		_isChanged = false;
+	}
+
+	public void addInserted(List<DBValue> record) {
+		_delta.rowCount++;
+		for(int i = 0; i < record.size(); i++)
+			_addValue(_delta, i, record.get(i));
+		_isChanged = true;
+	}
+
+	public void addDeleted(List<DBValue> record) {
+		_delta.rowCount--;
+		_delta.deletedCount++;
+		for(int i = 0; i < record.size(); i++) {
+			if(record.get(i).isNull())
+				_delta.nullCountList[i]--;
+		}
+		_isChanged = true;
+	}
+
+	public void addNulledOut(int colIdx) { // a non-null value of a record is replaced with null
+		_delta.nullCountList[colIdx]++;
+		_isChanged = true;
+	}
+
+	public void flush() {
+		if(!_isChanged) return;
+
+		Session session = Session.current();
+		TableStatsDBEntry pending = session.statsDeltaMap.get(_tableMeta.tableName);
+		if(pending == null)
+			session.statsDeltaMap.put(_tableMeta.tableName, _delta);
+		else
+			_merge(pending, _delta);
+		if(session.statementTxn == null && session.userTxn == null) // Not run by the parser, the changes are already committed
+			storePending(session);
+
+		_delta = new TableStatsDBEntry(_tableMeta.tableName, _tableMeta.columnCount());
+		_isChanged = false;
+	}
+
+	// Called once the transaction of the session is committed.
+	public static void storePending(Session session) {
+		for(TableStatsDBEntry delta : session.statsDeltaMap.values()) {
+			for(int attempt = 1; !_store(delta) && attempt < STORE_ATTEMPTS; attempt++);
+		}
+		session.statsDeltaMap.clear();
+	}
+
+	// Called when the transaction of the session is rolled back.
+	public static void dropPending(Session session) {
+		session.statsDeltaMap.clear();
+	}
+
+	// false if it lost a lock conflict. A table without an entry is analyzed by its next load() instead.
+	private static boolean _store(TableStatsDBEntry delta) {
+		MyInterpreter interpreter = MyInterpreter.getInstance();
+		Database statsDB = interpreter.getDatabase(DB_NAME);
+		DatabaseEntry key = _key(delta.tableName);
+		DatabaseEntry data = new DatabaseEntry();
+		TransactionConfig txnCfg = new TransactionConfig();
+		txnCfg.setDurability(Durability.COMMIT_NO_SYNC); // Estimates, not worth a log sync
+		Transaction txn = interpreter.myDBEnv.beginTransaction(null, txnCfg);
+		boolean isCommitted = false;
+		try {
+			if(statsDB.get(txn, key, data, LockMode.RMW) == OperationStatus.SUCCESS) {
+				TableStatsDBEntry stats = (TableStatsDBEntry)MyInterpreter.fromBytes(data.getData());
+				_merge(stats, delta);
+				statsDB.put(txn, key, new DatabaseEntry(MyInterpreter.toBytes(stats)));
+			}
+			txn.commit();
+			isCommitted = true;
+		}
+		catch(LockConflictException e) {
+			return false;
+		}
+		finally {
+			if(!isCommitted)
+				txn.abort();
+		}
+		return true;
+	}
+
+	private static void _merge(TableStatsDBEntry stats, TableStatsDBEntry delta) {
+		stats.rowCount += delta.rowCount;
+		stats.deletedCount += delta.deletedCount;
+		for(int i = 0; i < stats.nullCountList.length; i++) {
+			stats.nullCountList[i] += delta.nullCountList[i];
+			if(delta.minList[i] != null && (stats.minList[i] == null || _compare(delta.minList[i], stats.minList[i]) < 0))
+				stats.minList[i] = delta.minList[i];
+			if(delta.maxList[i] != null && (stats.maxList[i] == null || _compare(delta.maxList[i], stats.maxList[i]) > 0))
+				stats.maxList[i] = delta.maxList[i];
+			for(int j = 0; j < SKETCH_SIZE; j++)
+				stats.ndvSketchList[i][j] = (byte)Math.max(stats.ndvSketchList[i][j], delta.ndvSketchList[i][j]);
+		}
+	}
+
+	// Statistics for planning. Read without locking, so they may include changes of a running statement of another session.
+	public static TableStatsDBEntry load(TableMeta tableMeta) {
+		Database statsDB = MyInterpreter.getInstance().getDatabase(DB_NAME);
+		DatabaseEntry data = new DatabaseEntry();
+		if(statsDB.get(null, _key(tableMeta.tableName), data, LockMode.READ_UNCOMMITTED) != OperationStatus.SUCCESS)
+			return analyze(tableMeta);
+		return (TableStatsDBEntry)MyInterpreter.fromBytes(data.getData());
+	}
+
+	// Rebuilds the statistics of the table by a full scan and stores them.
+	public static TableStatsDBEntry analyze(TableMeta tableMeta) {
+		MyInterpreter interpreter = MyInterpreter.getInstance();
+		TableStatsDBEntry stats = new TableStatsDBEntry(tableMeta.tableName, tableMeta.columnCount());
+
+		Cursor cursor = interpreter.getDatabase(tableMeta.tableName).openCursor(null, null);
+		DatabaseEntry foundKey = new DatabaseEntry();
+		DatabaseEntry foundData = new DatabaseEntry();
+		try {
+			while(cursor.getNext(foundKey, foundData, LockMode.DEFAULT) == OperationStatus.SUCCESS) {
+				ArrayList<DBValue> record = RowCodec.decode(foundData.getData(), tableMeta.columnList);
+				stats.rowCount++;
+				for(int i = 0; i < record.size(); i++)
+					_addValue(stats, i, record.get(i));
+			}
+		}
+		finally {
+			cursor.close();
+		}
+
+		interpreter.getDatabase(DB_NAME).put(null, _key(tableMeta.tableName), new DatabaseEntry(MyInterpreter.toBytes(stats)));
+		Session.current().statsDeltaMap.remove(tableMeta.tableName); // The scan already saw the changes of the session
+		return stats;
+	}
+
+	public static void create(String tableName, int colCount) { // Statistics of a new, empty table
+		MyInterpreter.getInstance().getDatabase(DB_NAME).put(null, _key(tableName), new DatabaseEntry(MyInterpreter.toBytes(new TableStatsDBEntry(tableName, colCount))));
+	}
+
+	public static void remove(String tableName) {
+		MyInterpreter.getInstance().getDatabase(DB_NAME).delete(null, _key(tableName));
+	}
+
+	// Estimated number of distinct non-null values of a column (HyperLogLog with the small range correction),
+	// never more than the number of non-null values.
+	public static long estimateNDV(TableStatsDBEntry stats, int colIdx) {
+		byte[] registers = stats.ndvSketchList[colIdx];
+		double sum = 0;
+		int zeroCount = 0;
+		for(byte register : registers) {
+			sum += 1.0 / (1L << register);
+			if(register == 0) zeroCount++;
+		}
+
+		double m = SKETCH_SIZE;
+		double estimate = (0.7213 / (1 + 1.079 / m)) * m * m / sum;
+		if(estimate <= 2.5 * m && zeroCount > 0)
+			estimate = m * Math.log(m / zeroCount);
+
+		long nonNullCount = Math.max(0, stats.rowCount - stats.nullCountList[colIdx]);
+		return Math.min(nonNullCount, Math.round(estimate));
+	}
+
+	private static void _addValue(TableStatsDBEntry stats, int colIdx, DBValue value) {
+		if(value.isNull()) {
+			stats.nullCountList[colIdx]++;
+			return;
+		}
+
+		if(stats.minList[colIdx] == null || _compare(value, stats.minList[colIdx]) < 0)
+			stats.minList[colIdx] = value;
+		if(stats.maxList[colIdx] == null || _compare(value, stats.maxList[colIdx]) > 0)
+			stats.maxList[colIdx] = value;
+
+		long hash = _hash(value);
+		int registerIdx = (int)(hash >>> (64 - SKETCH_BITS));
+		byte rank = (byte)(Long.numberOfLeadingZeros((hash << SKETCH_BITS) | (1L << (SKETCH_BITS - 1))) + 1);
+		if(stats.ndvSketchList[colIdx][registerIdx] < rank)
+			stats.ndvSketchList[colIdx][registerIdx] = rank;
+	}
+
+	private static int _compare(DBValue a, DBValue b) { // a and b have the type of their column
+		switch(a.valueType) {
+		case DB_INT:
+			return Integer.compare(a.intVal, b.intVal);
+		case DB_DATE:
+			return Integer.compare(a.dateVal, b.dateVal);
+		default:
+			return a.charVal.compareTo(b.charVal);
+		}
+	}
+
+	private static long _hash(DBValue value) { // 64 bit mix (MurmurHash3 finalizer) of the value
+		long h;
+		switch(value.valueType) {
+		case DB_INT:
+			h = value.intVal;
+			break;
+		case DB_DATE:
+			h = value.dateVal;
+			break;
+		default:
+			h = value.charVal.hashCode();
+			break;
+		}
+		h += 0x9e3779b97f4a7c15L; // 0 is a fixed point of the mix
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb53a185ce51aL;
+		h ^= h >>> 33;
+		return h;
+	}
+
+	private static DatabaseEntry _key(String tableName) {
+		try {
+			return new DatabaseEntry(tableName.getBytes("UTF-8"));
+		}
+		catch(UnsupportedEncodingException e) {
+			throw new RuntimeException(e);
+		}
+	}
+}
@@ -0,0 +1,95 @@
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.sleepycat.je.Database;
+import com.sleepycat.je.DatabaseEntry;
+import com.sleepycat.je.Environment;
+import com.sleepycat.je.EnvironmentConfig;
+
+// migrateLegacyTables() on a database written before KeyCodec / RowCodec:
+// test/migration/legacy_create.sql creates the tables, their rows are then written as the old versions did
+// (string keys made by recordToBDBString(), serialized records, keyFormat FORMAT_LEGACY in SCHEMA_TableList),
+// and legacy_migrate.sql runs on that database, its output compared with legacy_migrate.out.
+public class LegacyMigrationTest {
+	private static final File SCRIPT_DIR = new File("test/migration");
+
+	@Test
+	public void migrate() throws Exception {
+		File dbDir = Files.createTempDirectory("simpledbms-test").toFile();
+		try {
+			RegressionTest.runScript(new File(SCRIPT_DIR, "legacy_create.sql"), dbDir);
+			_writeLegacyTables(dbDir);
+			File script = new File(SCRIPT_DIR, "legacy_migrate.sql");
+			RegressionTest.checkOutput(script, RegressionTest.runScript(script, dbDir));
+		}
+		finally {
+			RegressionTest.deleteRecursively(dbDir);
+		}
+	}
+
+	private static void _writeLegacyTables(File dbDir) throws Exception {
+		EnvironmentConfig envConfig = new EnvironmentConfig();
+		envConfig.setTransactional(true);
+		Environment env = new Environment(dbDir, envConfig);
+		try {
+			// emp (id int, name char(10), birth date, primary key (id)): legacy keys sort "10'" before "9'"
+			Database emp = env.openDatabase(null, "emp", MyInterpreter._dbOpenOrCreateCfg);
+			_putLegacy(emp, _row(new DBValue(9), new DBValue("nine"), new DBValue(1999, 9, 9)), 0);
+			_putLegacy(emp, _row(new DBValue(10), new DBValue("ten"), new DBValue()), 0);
+			_putLegacy(emp, _row(new DBValue(-5), new DBValue("minus five"), new DBValue(2001, 12, 31)), 0);
+			_putLegacy(emp, _row(new DBValue(100), new DBValue(), new DBValue(1970, 1, 1)), 0);
+			emp.close();
+			_setLegacyKeyFormat(env, "emp");
+
+			// note (body char(10), n int), without primary key: its keys are kept
+			Database note = env.openDatabase(null, "note", MyInterpreter._dbOpenOrCreateCfg);
+			_putLegacy(note, _row(new DBValue("first"), new DBValue(1)), -1);
+			_putLegacy(note, _row(new DBValue("second"), new DBValue()), -1);
+			note.close();
+			_setLegacyKeyFormat(env, "note");
+		}
+		finally {
+			env.close();
+		}
+	}
+
+	// pkIdx: column of the primary key, -1 for a table without one (then a fixed key in place of the random UUID)
+	private static void _putLegacy(Database table, ArrayList<DBValue> record, int pkIdx) throws Exception {
+		String key = (pkIdx < 0) ? "key-" + record.get(0).charVal : _recordToBDBString(record.subList(pkIdx, pkIdx + 1));
+		table.put(null, new DatabaseEntry(key.getBytes(StandardCharsets.UTF_8)), new DatabaseEntry(MyInterpreter.toBytes(record)));
+	}
+
+	// As the removed MyInterpreter.recordToBDBString()
+	private static String _recordToBDBString(List<DBValue> record) {
+		StringBuilder result = new StringBuilder();
+		for(DBValue v : record) {
+			if(v.valueType == DBType.DBTypeSpecifier.DB_CHAR)
+				result.append("\"").append(v.toString()).append("\"");
+			else
+				result.append(v.toString());
+			result.append("\'");
+		}
+		return result.toString();
+	}
+
+	private static void _setLegacyKeyFormat(Environment env, String tableName) {
+		Database tableListDB = env.openDatabase(null, "SCHEMA_TableList", MyInterpreter._dbOpenOnlyCfg);
+		DatabaseEntry key = new DatabaseEntry(tableName.getBytes(StandardCharsets.UTF_8));
+		DatabaseEntry data = new DatabaseEntry();
+		tableListDB.get(null, key, data, null);
+		TableListDBEntry tableEntry = (TableListDBEntry)MyInterpreter.fromBytes(data.getData());
+		tableEntry.keyFormat = KeyCodec.FORMAT_LEGACY;
+		tableListDB.put(null, key, new DatabaseEntry(MyInterpreter.toBytes(tableEntry)));
+		tableListDB.close();
+	}
+
+	private static ArrayList<DBValue> _row(DBValue... values) {
+		return new ArrayList<DBValue>(Arrays.asList(values));
+	}
+}
@@ -0,0 +1,107 @@
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+// Runs every test/regression/<name>.sql through SimpleDBMSParser, and compares its output with <name>.out.
+// Each script runs in a new JVM on an empty database (the interpreter and its environment are per process),
+// in test/regression/ so that LOAD DATA finds the files next to the script.
+//
+// After an intended change of output: mvn test -Dregression.update=true rewrites the .out files, to be reviewed with git diff.
+@RunWith(Parameterized.class)
+public class RegressionTest {
+	public static final File SCRIPT_DIR = new File("test/regression");
+
+	// Parts of the output which change from run to run: { pattern, replacement }
+	private static final String[][] VOLATILE_OUTPUT = {
+		{ "\\(\\d+ rows/sec\\)", "(... rows/sec)" } // INSERT / LOAD DATA summary
+	};
+
+	private final File _script;
+
+	public RegressionTest(String name) {
+		_script = new File(SCRIPT_DIR, name + ".sql");
+	}
+
+	@Parameters(name = "{0}")
+	public static Collection<Object[]> scripts() {
+		ArrayList<Object[]> nameList = new ArrayList<Object[]>();
+		String[] fileNameList = SCRIPT_DIR.list();
+		Arrays.sort(fileNameList);
+		for(String fileName : fileNameList) {
+			if(fileName.endsWith(".sql"))
+				nameList.add(new Object[] { fileName.substring(0, fileName.length() - 4) });
+		}
+		return nameList;
+	}
+
+	@Test
+	public void run() throws Exception {
+		File dbDir = Files.createTempDirectory("simpledbms-test").toFile();
+		try {
+			checkOutput(_script, runScript(_script, dbDir));
+		}
+		finally {
+			deleteRecursively(dbDir);
+		}
+	}
+
+	// Output of the script (stdout and stderr) run by SimpleDBMSParser on the database in dbDir, with VOLATILE_OUTPUT masked
+	public static String runScript(File script, File dbDir) throws IOException, InterruptedException {
+		String classPath = System.getProperty("surefire.test.class.path", System.getProperty("java.class.path"));
+		ProcessBuilder builder = new ProcessBuilder(new File(System.getProperty("java.home"), "bin/java").getPath(),
+				"-cp", classPath, "-D" + MyInterpreter.DB_DIR_PROPERTY + "=" + dbDir.getAbsolutePath(), "SimpleDBMSParser");
+		builder.directory(script.getAbsoluteFile().getParentFile());
+		builder.redirectInput(script.getAbsoluteFile());
+		builder.redirectErrorStream(true);
+
+		Process process = builder.start();
+		String output = readAll(process.getInputStream());
+		process.waitFor();
+		for(String[] volatileOutput : VOLATILE_OUTPUT)
+			output = output.replaceAll(volatileOutput[0], volatileOutput[1]);
+		return output;
+	}
+
+	// Compares output with the .out file of the script, or writes it there when regression.update is set
+	public static void checkOutput(File script, String output) throws IOException {
+		String name = script.getName().substring(0, script.getName().length() - 4);
+		File expectedFile = new File(script.getParentFile(), name + ".out");
+		if(Boolean.getBoolean("regression.update")) {
+			Files.write(expectedFile.toPath(), output.getBytes(StandardCharsets.UTF_8));
+			return;
+		}
+		String expected = new String(Files.readAllBytes(expectedFile.toPath()), StandardCharsets.UTF_8);
+		assertEquals(script.getPath(), expected, output);
+	}
+
+	private static String readAll(InputStream in) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		byte[] buf = new byte[8192];
+		int len;
+		while((len = in.read(buf)) != -1)
+			bytes.write(buf, 0, len);
+		return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+	}
+
+	public static void deleteRecursively(File file) {
+		File[] children = file.listFiles();
+		if(children != null) {
+			for(File child : children)
+				deleteRecursively(child);
+		}
+		file.delete();
+	}
+}
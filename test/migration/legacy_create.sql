@@ -0,0 +1,3 @@
+create table emp (id int not null, name char(10), birth date, primary key (id));
+create table note (body char(10), n int);
+exit;
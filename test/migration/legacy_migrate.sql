@@ -0,0 +1,8 @@
+select * from emp;
+select * from emp where id = 10;
+select * from emp where id >= 9;
+select * from note;
+insert into emp values (10, 'again', null);
+insert into emp values (11, 'eleven', 2011-11-11);
+select * from emp;
+exit;
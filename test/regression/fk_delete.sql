@@ -0,0 +1,39 @@
+create table dept (id int not null, name char(8), primary key (id));
+create table emp (id int not null, dept_id int, primary key (id), foreign key (dept_id) references dept (id));
+create table badge (id int not null, emp_id int not null, primary key (id), foreign key (emp_id) references emp (id));
+insert into dept values (1, 'one');
+insert into dept values (2, 'two');
+insert into dept values (3, 'three');
+insert into emp values (10, 1);
+insert into emp values (11, 1);
+insert into emp values (12, 2);
+insert into emp values (13, null);
+insert into emp values (14, 9);
+insert into badge values (100, 12);
+insert into badge values (101, 14);
+select * from emp;
+delete from dept where id = 1;
+select * from emp;
+delete from emp where id = 12;
+delete from emp;
+select * from emp;
+delete from dept where id = 2;
+select * from dept;
+begin;
+insert into dept values (5, 'five');
+insert into emp values (20, 5);
+delete from dept where id = 5;
+select * from emp where id = 20;
+rollback;
+select * from dept;
+select * from emp;
+create table par (id int not null, name char(4), primary key (id));
+create table kid (id int not null, par_id int, primary key (id), foreign key (par_id) references par (id));
+create table pin (id int not null, par_id int not null, primary key (id), foreign key (par_id) references par (id));
+load data 'fk_delete_many.csv' into par;
+insert into kid values (1, 1), (2, 150), (3, 300), (4, null);
+insert into pin values (1, 7), (2, 299);
+delete from par;
+select * from par;
+select * from kid;
+exit;
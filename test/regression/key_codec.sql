@@ -0,0 +1,25 @@
+create table ikey (id int not null, v char(5), primary key (id));
+insert into ikey values (3, 'c');
+insert into ikey values (-1, 'm');
+insert into ikey values (2147483647, 'max');
+insert into ikey values (0, 'zero');
+insert into ikey values (-2147483648, 'min');
+insert into ikey values (-300, 'mm');
+insert into ikey values (0, 'dup');
+select * from ikey;
+select * from ikey where id > -300 and id <= 3;
+select * from ikey where id = -1;
+create table ckey (name char(4), d date, n int, primary key (name, d));
+insert into ckey values ('b', 2016-01-01, 1);
+insert into ckey values ('ab', 2016-01-01, 2);
+insert into ckey values ('a', 2017-12-31, 3);
+insert into ckey values ('a', 1999-01-01, 4);
+insert into ckey values ('abcdef', 2000-06-15, 5);
+insert into ckey values ('abcd', 2000-06-15, 6);
+insert into ckey values ('', 2000-01-01, 7);
+select * from ckey;
+select n from ckey where name = 'a' and d = 1999-01-01;
+select n from ckey where name = 'abcd';
+delete from ckey where name = 'a';
+select * from ckey;
+exit;
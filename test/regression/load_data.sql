@@ -0,0 +1,14 @@
+create table dept (id int not null, name char(12), primary key (id));
+create table emp (id int not null, dept_id int, hired date, primary key (id), foreign key (dept_id) references dept (id));
+load data 'load_data_dept.csv' into dept;
+select * from dept;
+load data 'load_data_emp.csv' into emp;
+select * from emp;
+load data 'no_such_file.csv' into dept;
+load data 'load_data_dept.csv' into nosuchtable;
+begin;
+load data 'load_data_emp_more.csv' into emp;
+select * from emp where id >= 104;
+rollback;
+select * from emp;
+exit;
@@ -0,0 +1,20 @@
+create table dept (id int not null, name char(10), primary key (id));
+create table emp (id int not null, dept_id int, primary key (id), foreign key (dept_id) references dept (id));
+insert into dept values (1, 'one'), (2, 'two'), (3, 'three');
+insert into dept values (4, 'four'), (5, 'five'), (1, 'dup');
+insert into dept values (6, 'six'), (7, 'seven'), (8, 'eight', 9);
+select * from dept;
+insert into emp values (10, 1), (11, null), (12, 9);
+insert into emp values (10, 1), (11, null), (12, 3);
+select * from emp;
+begin;
+insert into dept values (20, 'twenty');
+insert into dept values (21, 'a'), (21, 'b');
+insert into dept values (22, 'c'), (23, 'd');
+commit;
+select * from dept where id >= 20;
+begin;
+insert into dept values (30, 'x'), (31, 'y');
+rollback;
+select * from dept where id >= 30;
+exit;
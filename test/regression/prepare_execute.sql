@@ -0,0 +1,33 @@
+create table item (id int not null, v char(8), primary key (id));
+insert into item values (1, 'one'), (2, 'two'), (3, 'three');
+prepare find as select * from item where id = ?;
+prepare add as insert into item values (?, ?);
+prepare purge as delete from item where id > ?;
+execute find (2);
+execute find;
+execute nosuch (1);
+execute add (4, 'four');
+execute add (4, 'again');
+execute find (4);
+execute purge (3);
+select * from item;
+drop table item;
+create table item (id int not null, v int, w char(4), primary key (id));
+insert into item values (1, 10, 'ten'), (2, 20, 'tw');
+execute find (1);
+execute add (3, 'x');
+drop table item;
+execute find (1);
+execute find (1);
+create table item (id int not null, v char(8), primary key (id));
+insert into item values (1, 'back');
+execute find (1);
+create index item_v on item (v);
+execute find (1);
+begin;
+drop table item;
+rollback;
+execute find (1);
+execute purge (0);
+select * from item;
+exit;
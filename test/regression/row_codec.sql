@@ -0,0 +1,10 @@
+create table wide (id int not null, c_a char(4), c_b int, c_c date, c_d char(10), c_e int, c_f date, c_g char(1), c_h int, primary key (id));
+insert into wide values (1, 'abcd', -2147483648, 1970-01-01, 'ten chars!', 2147483647, 9999-12-31, 'z', 0);
+insert into wide values (2, null, null, null, null, null, null, null, null);
+insert into wide values (3, 'abcdefgh', -1, 2016-02-29, '', 42, null, 'yz', null);
+insert into wide values (4, 'a b', 7, null, 'x', null, 2000-01-01, null, -7);
+select * from wide;
+select id, c_h from wide where c_h is null;
+select id, c_a from wide where c_a = 'abcd';
+select id, c_c from wide where c_c >= 2000-01-01;
+exit;